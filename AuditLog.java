@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+// AuditLog class
+// EventBus subscriber that appends every change to a text file, one line per
+// event, flushed once per batch:
+//
+//   time,sequence,type,userId,courseId,grade
+//
+// time is ISO-8601 UTC; ids and grade are -1 where the event has none (a
+// GRADE_ASSIGNED of -1 clears the grade). Sequences restart with each run.
+final class AuditLog implements EventBus.Subscriber {
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(96);
+
+    AuditLog(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void onEvent(EventBus.Event event, boolean endOfBatch) throws IOException {
+        line.setLength(0);
+        line.append(Instant.ofEpochMilli(event.getTime())).append(',')
+                .append(event.getSequence()).append(',')
+                .append(event.getType()).append(',')
+                .append(event.getUserId()).append(',')
+                .append(event.getCourseId()).append(',')
+                .append(event.getGrade()).append('\n');
+        out.append(line);
+        if (endOfBatch) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
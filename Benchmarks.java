@@ -0,0 +1,392 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Benchmarks class
+// Micro-benchmarks for the domain hot paths, run with "make bench". Modeled
+// on JMH without the dependency: every benchmark runs once per combination of
+// the users, courses and roster parameters, is warmed up, then measured over
+// several timed iterations. It reports the average time per operation with a
+// 99.9% confidence interval. Results can be saved as CSV and compared against
+// an earlier run, so a deploy can fail on a scaling regression.
+//
+//   java Benchmarks [-p name=v1,v2 ...] [-b regex] [-wi n] [-i n] [-t millis]
+//                   [-o results.csv] [-baseline results.csv] [-threshold 0.25]
+public class Benchmarks {
+    // Student t quantiles for a 99.9% two-sided interval, by degrees of freedom
+    private static final double[] T_999 = {
+        0, 636.6, 31.60, 12.92, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850
+    };
+
+    // Consumed results, so the JIT cannot drop the measured work
+    static int sink;
+
+    private final Map<String, int[]> params = new LinkedHashMap<>();
+    private Pattern filter = Pattern.compile(".*");
+    private int warmups = 3;
+    private int iterations = 5;
+    private long iterationMillis = 200;
+    private Path output;
+    private Path baseline;
+    private double threshold = 0.25;
+
+    public static void main(String[] args) throws Exception {
+        // Fixtures create accounts by the thousand; the password hash is not what this measures
+        Credentials.setIterations(1);
+        Benchmarks benchmarks = new Benchmarks();
+        benchmarks.params.put("users", new int[] {1_000, 10_000});
+        benchmarks.params.put("courses", new int[] {10, 100});
+        benchmarks.params.put("roster", new int[] {30});
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "-p": {
+                    String[] pair = value.split("=", 2);
+                    if (!benchmarks.params.containsKey(pair[0]) || pair.length < 2) {
+                        throw new IllegalArgumentException("Unknown parameter: " + value);
+                    }
+                    benchmarks.params.put(pair[0], Arrays.stream(pair[1].split(","))
+                            .mapToInt(v -> Integer.parseInt(v.trim().replace("_", ""))).toArray());
+                    break;
+                }
+                case "-b":
+                    benchmarks.filter = Pattern.compile(value);
+                    break;
+                case "-wi":
+                    benchmarks.warmups = Integer.parseInt(value);
+                    break;
+                case "-i":
+                    benchmarks.iterations = Math.max(2, Integer.parseInt(value));
+                    break;
+                case "-t":
+                    benchmarks.iterationMillis = Long.parseLong(value);
+                    break;
+                case "-o":
+                    benchmarks.output = Path.of(value);
+                    break;
+                case "-baseline":
+                    benchmarks.baseline = Path.of(value);
+                    break;
+                case "-threshold":
+                    benchmarks.threshold = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        System.exit(benchmarks.run() ? 0 : 1);
+    }
+
+    // Runs every selected benchmark; false if any regressed against the baseline
+    boolean run() throws IOException {
+        Map<String, Double> previous = baseline == null ? Collections.emptyMap() : readResults(baseline);
+        List<String[]> results = new ArrayList<>();
+        boolean ok = true;
+        // Domain classes report through Output; keep that off the measurements
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        try {
+            System.out.printf("%-24s %8s %8s %7s %14s %12s%n",
+                    "Benchmark", "users", "courses", "roster", "ns/op", "error");
+            for (int users : params.get("users")) {
+                for (int courses : params.get("courses")) {
+                    for (int roster : params.get("roster")) {
+                        for (Case benchmark : cases()) {
+                            if (!filter.matcher(benchmark.name).find()) {
+                                continue;
+                            }
+                            double[] score = measure(benchmark, users, courses, Math.min(roster, users));
+                            String key = benchmark.name + "," + users + "," + courses + "," + roster;
+                            String verdict = "";
+                            Double before = previous.get(key);
+                            if (before != null && score[0] > before * (1 + threshold)) {
+                                verdict = String.format("  REGRESSED from %.1f", before);
+                                ok = false;
+                            }
+                            System.out.printf("%-24s %8d %8d %7d %14.1f %12s%s%n", benchmark.name,
+                                    users, courses, roster, score[0], String.format("+- %.1f", score[1]), verdict);
+                            results.add(new String[] {key, String.format(Locale.ROOT, "%.3f", score[0]),
+                                    String.format(Locale.ROOT, "%.3f", score[1])});
+                        }
+                    }
+                }
+            }
+        } finally {
+            Output.unbind();
+        }
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output))) {
+                out.println("benchmark,users,courses,roster,ns_per_op,error");
+                for (String[] result : results) {
+                    out.println(String.join(",", result));
+                }
+            }
+        }
+        System.out.println("(sink " + sink + ")");
+        return ok;
+    }
+
+    // Returns the mean time per operation and its 99.9% error margin, in ns
+    private double[] measure(Case benchmark, int users, int courses, int roster) {
+        double[] samples = new double[iterations];
+        for (int i = -warmups; i < iterations; i++) {
+            Fixture fixture = benchmark.fixture(users, courses, roster);
+            Operation operation = benchmark.prepare(fixture);
+            long ops = 0;
+            long start = System.nanoTime();
+            long deadline = start + iterationMillis * 1_000_000L;
+            long elapsed;
+            do {
+                int batch = benchmark.batch(fixture);
+                for (int op = 0; op < batch; op++) {
+                    operation.run((int) (ops + op));
+                }
+                ops += batch;
+                elapsed = System.nanoTime() - start;
+            } while (!benchmark.once && System.nanoTime() < deadline);
+            if (i >= 0) {
+                samples[i] = (double) elapsed / ops;
+            }
+        }
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample;
+        }
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        variance /= samples.length - 1;
+        double t = T_999[Math.min(samples.length - 1, T_999.length - 1)];
+        return new double[] {mean, t * Math.sqrt(variance / samples.length)};
+    }
+
+    private static Map<String, Double> readResults(Path path) throws IOException {
+        Map<String, Double> results = new HashMap<>();
+        for (String line : Files.readAllLines(path)) {
+            String[] fields = line.split(",");
+            if (fields.length >= 5 && !fields[0].equals("benchmark")) {
+                results.put(fields[0] + "," + fields[1] + "," + fields[2] + "," + fields[3],
+                        Double.parseDouble(fields[4]));
+            }
+        }
+        return results;
+    }
+
+    private List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("isUsernameExists", f -> op -> {
+            sink += f.admin.isUsernameExists(f.usernames[op % f.usernames.length]) ? 1 : 0;
+        }));
+        cases.add(new Case("findUser", f -> op -> {
+            sink += f.admin.findUser(f.usernames[op % f.usernames.length]).getId();
+        }));
+        cases.add(new Case("findCourse", f -> op -> {
+            sink += f.admin.findCourse(f.courseNames[op % f.courseNames.length]).getId();
+        }));
+        // A page of matches for a name typed part way, and the same with a typo
+        cases.add(new Case("searchCourses", f -> op -> {
+            String name = f.courseNames[op % f.courseNames.length];
+            sink += f.admin.searchCourses(name.substring(0, name.length() - 1), 0, 20).size();
+        }));
+        cases.add(new Case("searchCoursesTypo", f -> op -> {
+            String name = f.courseNames[op % f.courseNames.length];
+            sink += f.admin.searchCourses("Cuorse" + name.substring(6), 0, 20).size();
+        }));
+        // One op is an enroll and the matching drop, so the fixture stays the same
+        cases.add(new Case("enrollDrop", f -> op -> {
+            Student student = f.students[f.random(op, f.students.length)];
+            Course course = f.courses[f.random(op + 1, f.courses.length)];
+            student.enroll(course);
+            student.drop(course);
+        }));
+        cases.add(new Case("setGrade", f -> op -> {
+            Course course = f.courses[op % f.courses.length];
+            course.setGrade(f.students[f.random(op, f.students.length)], op & 127);
+        }));
+        cases.add(new Case("getGrade", f -> op -> {
+            Course course = f.courses[op % f.courses.length];
+            sink += course.getGrade(f.students[f.random(op, f.students.length)]);
+        }));
+        // The full listing as one session request renders it: held, written a page at a time
+        cases.add(new Case("viewAllStudents", false, f -> 16, f -> op -> {
+            Render out = Output.out();
+            out.hold();
+            f.admin.viewAllStudents();
+            out.release();
+        }));
+        // Cached listings (see ViewCache): the catalogue, a roster and a
+        // transcript, each printed as one session request
+        cases.add(new Case("viewAllCourses", false, f -> 16, f -> op -> {
+            Render out = Output.out();
+            out.hold();
+            f.admin.viewAllCourses();
+            out.release();
+        }));
+        cases.add(new Case("viewStudents", f -> op -> {
+            Course course = f.courses[op % f.courses.length];
+            Render out = Output.out();
+            out.hold();
+            course.getTeacher().viewStudents(course);
+            out.release();
+        }));
+        cases.add(new Case("checkGrades", f -> op -> {
+            Render out = Output.out();
+            out.hold();
+            f.students[f.random(op, f.students.length)].checkGrades();
+            out.release();
+        }));
+        // Cascades destroy the fixture, so each iteration deletes from a fresh one
+        cases.add(new Case("deleteStudent", true, f -> f.students.length, f -> op -> {
+            f.admin.deleteStudent(f.students[op]);
+        }));
+        cases.add(new Case("deleteCourse", true, f -> f.courses.length, f -> op -> {
+            f.admin.deleteCourse(f.courses[op]);
+        }));
+        // What saveData and loadData do: the snapshot write and read
+        cases.add(new Case("saveData", true, f -> 1, f -> {
+            Path path = f.snapshot();
+            return op -> {
+                try {
+                    SnapshotFile.write(f.admin, 0, path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }));
+        cases.add(new Case("loadData", true, f -> 1, f -> {
+            Path path = f.snapshot();
+            try {
+                SnapshotFile.write(f.admin, 0, path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return op -> {
+                try {
+                    sink += SnapshotFile.read(path).students.size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }));
+        return cases;
+    }
+
+    interface Operation {
+        void run(int op);
+    }
+
+    interface Preparation {
+        Operation prepare(Fixture fixture);
+    }
+
+    interface BatchSize {
+        int of(Fixture fixture);
+    }
+
+    // One benchmark. A "once" benchmark runs a single batch per iteration on
+    // a fixture of its own; the others reuse a shared fixture until timed out.
+    private static final class Case {
+        final String name;
+        final boolean once;
+        final BatchSize batchSize;
+        final Preparation preparation;
+        private Fixture shared;
+
+        Case(String name, Preparation preparation) {
+            this(name, false, f -> 1024, preparation);
+        }
+
+        Case(String name, boolean once, BatchSize batchSize, Preparation preparation) {
+            this.name = name;
+            this.once = once;
+            this.batchSize = batchSize;
+            this.preparation = preparation;
+        }
+
+        Fixture fixture(int users, int courses, int roster) {
+            if (once) {
+                return new Fixture(users, courses, roster);
+            }
+            if (shared == null || !shared.matches(users, courses, roster)) {
+                shared = new Fixture(users, courses, roster);
+            }
+            return shared;
+        }
+
+        Operation prepare(Fixture fixture) {
+            return preparation.prepare(fixture);
+        }
+
+        int batch(Fixture fixture) {
+            return batchSize.of(fixture);
+        }
+    }
+
+    // users students and a teacher per course; every course has roster
+    // randomly chosen students, each with a grade
+    static final class Fixture {
+        final Admin admin = new Admin();
+        final Student[] students;
+        final Course[] courses;
+        final String[] usernames;
+        final String[] courseNames;
+        private final int users;
+        private final int roster;
+
+        Fixture(int users, int courses, int roster) {
+            this.users = users;
+            this.roster = roster;
+            Random random = new Random(42);
+            for (int i = 0; i < courses; i++) {
+                Course course = admin.addCourse("Course " + i);
+                Teacher teacher = admin.addTeacher("Teacher " + i, "teacher" + i, "password");
+                teacher.assign(course);
+            }
+            for (int i = 0; i < users; i++) {
+                admin.addStudent("Student " + i, "student" + i, "password");
+            }
+            this.students = admin.students.toArray(new Student[0]);
+            this.courses = admin.courses.toArray(new Course[0]);
+            for (Course course : this.courses) {
+                for (int n = 0; n < roster; n++) {
+                    Student student = students[random.nextInt(users)];
+                    student.admit(course);
+                    course.setGrade(student, random.nextInt(101));
+                }
+            }
+            this.usernames = new String[Math.min(users, 4096)];
+            for (int i = 0; i < usernames.length; i++) {
+                usernames[i] = students[random.nextInt(users)].getUsername();
+            }
+            this.courseNames = new String[this.courses.length];
+            for (int i = 0; i < courseNames.length; i++) {
+                courseNames[i] = this.courses[random.nextInt(courseNames.length)].getName();
+            }
+        }
+
+        boolean matches(int users, int courses, int roster) {
+            return this.users == users && this.courses.length == courses && this.roster == roster;
+        }
+
+        // Cheap deterministic spread over [0, bound)
+        int random(int op, int bound) {
+            int h = op * 0x9E3779B9;
+            return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % bound;
+        }
+
+        Path snapshot() {
+            try {
+                Path path = Files.createTempFile("bench", ".snap");
+                path.toFile().deleteOnExit();
+                return path;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
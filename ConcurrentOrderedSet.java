@@ -0,0 +1,92 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ConcurrentOrderedSet class
+// Insertion-ordered set that is safe to read while other threads write.
+// Membership is a ConcurrentHashMap lookup; order comes from a skip list keyed
+// by an insertion stamp. Reads never lock and iteration is weakly consistent.
+// Concurrent writers of the same element are safe: an add whose stamp was
+// removed before it reached the skip list takes its entry back out. Writers
+// that must keep this set in step with another structure (a course's teachers
+// and each teacher's course links) still serialize on the owning monitor.
+class ConcurrentOrderedSet<E> extends AbstractSet<E> {
+    private final ConcurrentHashMap<E, Long> stamps = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, E> order = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextStamp = new AtomicLong();
+
+    @Override
+    public boolean add(E element) {
+        long stamp = nextStamp.getAndIncrement();
+        if (stamps.putIfAbsent(element, stamp) != null) {
+            return false;
+        }
+        order.put(stamp, element);
+        // A remove may have taken the stamp before the entry existed
+        if (!Long.valueOf(stamp).equals(stamps.get(element))) {
+            order.remove(stamp, element);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        Long stamp = stamps.remove(element);
+        if (stamp == null) {
+            return false;
+        }
+        order.remove(stamp);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return stamps.containsKey(element);
+    }
+
+    @Override
+    public int size() {
+        return stamps.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return stamps.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        stamps.clear();
+        order.clear();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<Map.Entry<Long, E>> entries = order.entrySet().iterator();
+        return new Iterator<E>() {
+            private Map.Entry<Long, E> last;
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public E next() {
+                last = entries.next();
+                return last.getValue();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                stamps.remove(last.getValue(), last.getKey());
+                order.remove(last.getKey());
+                last = null;
+            }
+        };
+    }
+}
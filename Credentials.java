@@ -0,0 +1,121 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Credentials class
+// Salted password hashes. A stored credential reads
+//
+//   pbkdf2-sha256$iterations$salt$hash        (salt and hash in base64)
+//
+// The iteration count is stored with each hash, so raising it (the
+// sms.kdf.iterations system property, or setIterations) only affects new
+// hashes; older ones are rehashed at the next successful login. Anything
+// without the prefix is a plaintext password from a version 3 snapshot or an
+// older journal, compared as is and likewise rehashed at the next login.
+//
+// Hashes come from the JDK's PBKDF2WithHmacSHA256. The default count follows
+// current guidance for PBKDF2-SHA256, so a login costs a noticeable fraction
+// of a second; stored hashes with a lower count are upgraded at the next
+// login. Every thread keeps its own SecretKeyFactory and SecureRandom, so
+// logins on different cores never wait on each other.
+final class Credentials {
+    static final String SCHEME = "pbkdf2-sha256";
+    static final int DEFAULT_ITERATIONS = 600_000;
+    static final int SALT_BYTES = 16;
+    static final int HASH_BYTES = 32;
+
+    private static final String PREFIX = SCHEME + "$";
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(Credentials::newFactory);
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+    private static volatile int iterations = Integer.getInteger("sms.kdf.iterations", DEFAULT_ITERATIONS);
+    // Verified against when the username is unknown, so the reply takes as
+    // long as a wrong password would
+    private static volatile String decoy;
+
+    private Credentials() {
+    }
+
+    public static int getIterations() {
+        return iterations;
+    }
+
+    public static void setIterations(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid iteration count: " + count);
+        }
+        iterations = count;
+        decoy = null;
+    }
+
+    public static String hash(String password) {
+        int count = iterations;
+        byte[] salt = new byte[SALT_BYTES];
+        randoms.get().nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + count + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, count));
+    }
+
+    public static boolean verify(String credential, String password) {
+        if (!isHashed(credential)) {
+            return MessageDigest.isEqual(credential.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8));
+        }
+        int iterationsEnd = credential.indexOf('$', PREFIX.length());
+        int saltEnd = iterationsEnd < 0 ? -1 : credential.indexOf('$', iterationsEnd + 1);
+        if (saltEnd < 0) {
+            return false;
+        }
+        try {
+            int count = Integer.parseInt(credential, PREFIX.length(), iterationsEnd, 10);
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] salt = base64.decode(credential.substring(iterationsEnd + 1, saltEnd));
+            byte[] expected = base64.decode(credential.substring(saltEnd + 1));
+            return count > 0 && MessageDigest.isEqual(expected, derive(password, salt, count));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Burns one verification's worth of time for an unknown username
+    public static void verifyDecoy(String password) {
+        String current = decoy;
+        if (current == null) {
+            current = hash("");
+            decoy = current;
+        }
+        verify(current, password);
+    }
+
+    public static boolean isHashed(String credential) {
+        return credential.startsWith(PREFIX);
+    }
+
+    // True for plaintext and for hashes made with another iteration count
+    public static boolean needsRehash(String credential) {
+        return !credential.startsWith(PREFIX + iterations + "$");
+    }
+
+    static byte[] derive(String password, byte[] salt, int count) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, count, HASH_BYTES * 8);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static SecretKeyFactory newFactory() {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", e);
+        }
+    }
+}
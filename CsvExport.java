@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+// CsvExport class
+// Streaming export of rosters and gradebooks in the row format CsvImport reads:
+// per course a course row, its students' enroll rows in enrollment order and
+// its grade rows, then the teachers' enroll rows. Accounts are left out, so
+// credentials never end up in a spreadsheet; the target system needs the
+// users already. Rows go straight to the writer, one course at a time.
+class CsvExport {
+    private CsvExport() {
+    }
+
+    // Returns the number of rows written
+    public static long write(Admin admin, Writer out) throws IOException {
+        long rows = 0;
+        for (Course course : admin.courses) {
+            List<Meeting> meetings = course.getMeetings();
+            out.write("course,");
+            field(out, course.getName());
+            out.write(',');
+            out.write(course.getCapacity() == Course.UNLIMITED ? "" : Integer.toString(course.getCapacity()));
+            if (!meetings.isEmpty()) {
+                out.write(',');
+                field(out, Meeting.format(meetings));
+            }
+            out.write('\n');
+            rows++;
+            for (Student student : course.getStudents()) {
+                row(out, "enroll", student.getUsername(), course.getName());
+                rows++;
+            }
+            int[][] table = course.getGradeTable();
+            for (int i = 0; i < table[0].length; i++) {
+                User student = admin.findUser(table[0][i]);
+                if (student != null) {
+                    out.write("grade,");
+                    field(out, course.getName());
+                    out.write(',');
+                    field(out, student.getUsername());
+                    out.write(',');
+                    out.write(Integer.toString(table[1][i]));
+                    out.write('\n');
+                    rows++;
+                }
+            }
+        }
+        for (Teacher teacher : admin.teachers) {
+            for (Course course : teacher.getCourses()) {
+                row(out, "enroll", teacher.getUsername(), course.getName());
+                rows++;
+            }
+        }
+        out.flush();
+        return rows;
+    }
+
+    private static void row(Writer out, String kind, String first, String second) throws IOException {
+        out.write(kind);
+        out.write(',');
+        field(out, first);
+        out.write(',');
+        field(out, second);
+        out.write('\n');
+    }
+
+    // Quotes only fields that need it, doubling embedded quotes
+    private static void field(Writer out, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.Consumer;
+
+// CsvImport class
+// Streaming bulk load for onboarding a term. Each row starts with its kind:
+//
+//   student,name,username,password
+//   teacher,name,username,password
+//   course,name[,capacity[,meetings]]  (meetings as "MON 09:00-10:15 R101, ...")
+//   enroll,username,course        (students take a seat or join the waitlist)
+//   grade,course,username,grade
+//
+// An optional header row starting with "kind" is skipped. Rows are applied in
+// file order, BATCH_SIZE at a time; a bad row is reported and skipped without
+// stopping the batch. Grades are buffered per course and written with one
+// Course.setGrades call per batch, and the journal is synced once per batch.
+// Memory stays bounded by the read chunk and one batch of grades. Account
+// passwords are hashed as they are read, one Credentials hash per account row,
+// so account-heavy files are bound by sms.kdf.iterations.
+class CsvImport {
+    static final int BATCH_SIZE = 10_000;
+    // Error lines kept per batch report; the rest are only counted
+    static final int MAX_ERRORS = 100;
+
+    // Outcome of one batch of rows
+    static final class BatchReport {
+        final int batch;
+        final long firstLine;
+        long lastLine;
+        int applied;
+        int failed;
+        final List<String> errors = new ArrayList<>();
+
+        BatchReport(int batch, long firstLine) {
+            this.batch = batch;
+            this.firstLine = firstLine;
+        }
+
+        void fail(long line, String message) {
+            if (failed++ < MAX_ERRORS) {
+                errors.add("line " + line + ": " + message);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Batch " + batch + " (lines " + firstLine + "-" + lastLine + "): "
+                    + applied + " applied, " + failed + " failed";
+        }
+    }
+
+    private final Admin admin;
+    private final Map<Course, GradeBuffer> grades = new LinkedHashMap<>();
+    private long applied;
+    private long failed;
+
+    public CsvImport(Admin admin) {
+        this.admin = admin;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    // Reads every row from in; reports receives each batch once it is applied
+    public void run(Reader in, Consumer<BatchReport> reports) throws IOException {
+        // Each batch ends in one sync instead of one durability wait per row
+        Journal journal = Journal.current();
+        journal.defer();
+        try (CsvReader csv = new CsvReader(in)) {
+            boolean first = true;
+            BatchReport report = null;
+            int batch = 0;
+            int rows = 0;
+            while (csv.next()) {
+                if (first && csv.is(0, "kind")) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if (report == null) {
+                    report = new BatchReport(++batch, csv.getLine());
+                }
+                report.lastLine = csv.getLine();
+                try {
+                    apply(csv, report);
+                } catch (RuntimeException e) {
+                    report.fail(csv.getLine(), e.getMessage());
+                }
+                if (++rows == BATCH_SIZE) {
+                    finish(report, reports);
+                    report = null;
+                    rows = 0;
+                }
+            }
+            if (report != null) {
+                finish(report, reports);
+            }
+        } finally {
+            journal.awaitDeferred();
+        }
+    }
+
+    private void apply(CsvReader csv, BatchReport report) {
+        long line = csv.getLine();
+        if (csv.is(0, "student") || csv.is(0, "teacher")) {
+            String name = field(csv, 1);
+            String username = field(csv, 2);
+            String password = csv.get(3);
+            if (name.isEmpty() || username.isEmpty()) {
+                report.fail(line, "name and username are required");
+                return;
+            }
+            if (admin.findUser(username) != null) {
+                report.fail(line, "username already exists: " + username);
+                return;
+            }
+            User user = csv.is(0, "student")
+                    ? admin.addStudent(name, username, password)
+                    : admin.addTeacher(name, username, password);
+            if (user == null) {
+                report.fail(line, "username already exists: " + username);
+                return;
+            }
+        } else if (csv.is(0, "course")) {
+            String name = field(csv, 1);
+            int capacity = csv.size() > 2 && !field(csv, 2).isEmpty() ? csv.getInt(2) : Course.UNLIMITED;
+            if (name.isEmpty() || capacity < 0) {
+                report.fail(line, name.isEmpty() ? "course name is required" : "invalid capacity " + capacity);
+                return;
+            }
+            if (admin.findCourse(name) != null) {
+                report.fail(line, "course already exists: " + name);
+                return;
+            }
+            List<Meeting> meetings;
+            try {
+                meetings = Meeting.checked(Meeting.parseAll(csv.size() > 3 ? field(csv, 3) : ""));
+            } catch (IllegalArgumentException e) {
+                report.fail(line, e.getMessage());
+                return;
+            }
+            Course course = admin.addCourse(name);
+            if (capacity != Course.UNLIMITED) {
+                course.setCapacity(capacity);
+            }
+            Course taken = meetings.isEmpty() ? null : admin.schedule(course, meetings);
+            if (taken != null) {
+                // Rooms are only checked once the course exists, so a rejected row takes it away again
+                admin.deleteCourses(List.of(course));
+                report.fail(line, "a room is taken by " + taken.getName() + "; " + name + " was not created");
+                return;
+            }
+        } else if (csv.is(0, "enroll")) {
+            User user = admin.findUser(field(csv, 1));
+            Course course = course(csv, 2, report);
+            if (course == null) {
+                return;
+            }
+            Course.Admission admission;
+            if (user instanceof Student) {
+                admission = ((Student) user).admit(course);
+            } else if (user instanceof Teacher) {
+                admission = ((Teacher) user).assign(course);
+            } else {
+                report.fail(line, "no such user: " + field(csv, 1));
+                return;
+            }
+            if (admission == Course.Admission.CLOSED) {
+                report.fail(line, "cannot enroll in " + course.getName());
+                return;
+            }
+            if (admission == Course.Admission.CONFLICT) {
+                Course conflict = user.findConflict(course);
+                report.fail(line, course.getName() + " meets at the same time as "
+                        + (conflict == null ? "another course" : conflict.getName()));
+                return;
+            }
+        } else if (csv.is(0, "grade")) {
+            Course course = course(csv, 1, report);
+            if (course == null) {
+                return;
+            }
+            User user = admin.findUser(field(csv, 2));
+            int grade = csv.getInt(3);
+            if (!(user instanceof Student) || !course.getStudents().contains(user)) {
+                report.fail(line, "no student " + field(csv, 2) + " in " + course.getName());
+                return;
+            }
+            if (grade < 0) {
+                report.fail(line, "invalid grade " + grade);
+                return;
+            }
+            grades.computeIfAbsent(course, c -> new GradeBuffer()).add((Student) user, grade);
+        } else {
+            report.fail(line, "unknown row kind: " + csv.get(0));
+            return;
+        }
+        report.applied++;
+    }
+
+    private Course course(CsvReader csv, int field, BatchReport report) {
+        String name = field(csv, field);
+        // Course names are not unique in Admin; this is the oldest course with the name
+        Course course = admin.findCourse(name);
+        if (course == null) {
+            report.fail(csv.getLine(), "no such course: " + name);
+            return null;
+        }
+        return course;
+    }
+
+    private void finish(BatchReport report, Consumer<BatchReport> reports) {
+        for (Map.Entry<Course, GradeBuffer> entry : grades.entrySet()) {
+            GradeBuffer buffer = entry.getValue();
+            entry.getKey().setGrades(buffer.students, buffer.grades, buffer.size);
+        }
+        grades.clear();
+        try {
+            Journal.current().sync();
+        } catch (IOException e) {
+            report.fail(report.lastLine, "journal sync failed: " + e.getMessage());
+        }
+        applied += report.applied;
+        failed += report.failed;
+        reports.accept(report);
+    }
+
+    private static String field(CsvReader csv, int field) {
+        return csv.get(field).trim();
+    }
+
+    private static final class GradeBuffer {
+        Student[] students = new Student[16];
+        int[] grades = new int[16];
+        int size;
+
+        void add(Student student, int grade) {
+            if (size == students.length) {
+                students = Arrays.copyOf(students, size * 2);
+                grades = Arrays.copyOf(grades, size * 2);
+            }
+            students[size] = student;
+            grades[size] = grade;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+// CsvReader class
+// Streaming RFC 4180 reader. Input is read in fixed chunks into one char
+// buffer and each record is scanned in place: a field is only a pair of
+// offsets until get() or getInt() asks for it, so rows are never split into
+// String arrays. Quoted fields may hold commas, doubled quotes and line breaks.
+// The buffer grows only when a single record is larger than a chunk.
+class CsvReader implements Closeable {
+    static final int CHUNK = 64 * 1024;
+
+    private final Reader in;
+    private char[] buffer = new char[CHUNK];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    // Field i spans [starts[i], ends[i]) in buffer, without its quotes
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int size;
+    private long line;
+    private long nextLine = 1;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    // Advances to the next non-blank record; false at end of input
+    public boolean next() throws IOException {
+        while (true) {
+            int end = scan();
+            if (end < 0) {
+                if (eof) {
+                    return false;
+                }
+                fill();
+                continue;
+            }
+            position = end;
+            if (size == 1 && starts[0] == ends[0] && !quoted[0]) {
+                continue;
+            }
+            return true;
+        }
+    }
+
+    // Line number the current record starts on
+    public long getLine() {
+        return line;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int field) {
+        check(field);
+        int start = starts[field];
+        int end = ends[field];
+        if (!quoted[field]) {
+            return new String(buffer, start, end - start);
+        }
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            value.append(buffer[i]);
+            if (buffer[i] == '"') {
+                i++;
+            }
+        }
+        return value.toString();
+    }
+
+    // Parses a decimal field straight from the buffer; surrounding blanks are ignored
+    public int getInt(int field) {
+        check(field);
+        int i = starts[field];
+        int end = ends[field];
+        while (i < end && buffer[i] == ' ') {
+            i++;
+        }
+        while (end > i && buffer[end - 1] == ' ') {
+            end--;
+        }
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative || (i < end && buffer[i] == '+')) {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            throw new NumberFormatException("Not a number: \"" + get(field) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number: \"" + get(field) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value != (int) value) {
+            throw new NumberFormatException("Out of range: \"" + get(field) + "\"");
+        }
+        return (int) value;
+    }
+
+    // Case-insensitive comparison without copying the field
+    public boolean is(int field, String value) {
+        check(field);
+        if (quoted[field]) {
+            return get(field).equalsIgnoreCase(value);
+        }
+        int start = starts[field];
+        int length = ends[field] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(buffer[start + i]) != Character.toLowerCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void check(int field) {
+        if (field < 0 || field >= size) {
+            throw new IndexOutOfBoundsException("Line " + line + " has no field " + (field + 1));
+        }
+    }
+
+    // Scans one record from position; returns the offset just past it, or -1
+    // if the buffer ends first and more input may follow
+    private int scan() {
+        int i = position;
+        long lines = 0;
+        size = 0;
+        if (i >= limit) {
+            return -1;
+        }
+        while (true) {
+            int start;
+            int end;
+            boolean isQuoted = i < limit && buffer[i] == '"';
+            if (isQuoted) {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        return -1;
+                    }
+                    char c = buffer[i];
+                    if (c == '"') {
+                        if (i + 1 >= limit && !eof) {
+                            return -1;
+                        }
+                        if (i + 1 < limit && buffer[i + 1] == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    if (c == '\n') {
+                        lines++;
+                    }
+                    i++;
+                }
+                end = i++;
+                // Anything between the closing quote and the separator is dropped
+                while (i < limit && buffer[i] != ',' && buffer[i] != '\n' && buffer[i] != '\r') {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < limit && buffer[i] != ',' && buffer[i] != '\n' && buffer[i] != '\r') {
+                    i++;
+                }
+                end = i;
+            }
+            if (i >= limit && !eof) {
+                return -1;
+            }
+            add(start, end, isQuoted);
+            if (i >= limit) {
+                break;
+            }
+            char c = buffer[i++];
+            if (c == ',') {
+                continue;
+            }
+            if (c == '\r') {
+                if (i >= limit && !eof) {
+                    return -1;
+                }
+                if (i < limit && buffer[i] == '\n') {
+                    i++;
+                }
+            }
+            lines++;
+            break;
+        }
+        line = nextLine;
+        nextLine += lines;
+        return i;
+    }
+
+    private void add(int start, int end, boolean isQuoted) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            quoted = Arrays.copyOf(quoted, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        quoted[size] = isQuoted;
+        size++;
+    }
+
+    // Moves the unread tail to the front and reads the next chunk after it
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// EnrollmentBenchmark class
+// Registration-window load on EnrollmentEngine: every student requests one of a
+// few hot, capped courses at the same moment, from many submitting threads,
+// with a live journal. Prints the engine report and the sustained rate.
+//
+//   java EnrollmentBenchmark [students] [courses] [capacity] [submitters]
+public class EnrollmentBenchmark {
+    public static void main(String[] args) throws Exception {
+        int studentCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int courseCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        int submitters = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+        // Fixtures create accounts by the thousand; the password hash is not what this measures
+        Credentials.setIterations(1);
+        Admin admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        for (int i = 0; i < courseCount; i++) {
+            admin.createCourse("Hot " + i);
+        }
+        for (int i = 0; i < studentCount; i++) {
+            admin.createStudent("Student " + i, "s" + i, "pw");
+        }
+        Output.unbind();
+        Course[] courses = admin.courses.toArray(new Course[0]);
+        for (Course course : courses) {
+            course.setCapacity(capacity);
+        }
+        Student[] students = admin.students.toArray(new Student[0]);
+
+        Path journalPath = Files.createTempFile("enrollment-bench", ".wal");
+        Journal journal = Journal.open(journalPath, 0, 64, 20);
+        Journal.install(journal);
+        try (EnrollmentEngine engine = new EnrollmentEngine()) {
+            for (int round = 1; round <= 3; round++) {
+                run(engine, students, courses, submitters);
+                System.out.println("Round " + round + ": " + engine.report());
+                for (Student student : students) {
+                    for (Course course : courses) {
+                        student.leave(course);
+                    }
+                }
+                engine.resetWindow();
+            }
+        } finally {
+            Journal.install(null);
+            journal.close();
+            Files.deleteIfExists(journalPath);
+        }
+    }
+
+    private static void run(EnrollmentEngine engine, Student[] students, Course[] courses, int submitters)
+            throws InterruptedException {
+        AtomicReferenceArray<CompletableFuture<Course.Admission>> results =
+                new AtomicReferenceArray<>(students.length);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[submitters];
+        for (int t = 0; t < submitters; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = first; i < students.length; i += submitters) {
+                    results.set(i, engine.submit(students[i], courses[i % courses.length]));
+                }
+            });
+            threads[t].start();
+        }
+        engine.resetWindow();
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < students.length; i++) {
+            results.get(i).join();
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+
+        long seated = 0;
+        long waiting = 0;
+        for (Course course : courses) {
+            if (course.getCapacity() != Course.UNLIMITED && course.getStudents().size() > course.getCapacity()) {
+                throw new IllegalStateException(course.getName() + " is over capacity");
+            }
+            seated += course.getStudents().size();
+            waiting += course.getWaitlist().size();
+        }
+        System.out.printf("%d requests in %.3f s (%.0f requests/s): %d seated, %d waitlisted%n",
+                students.length, seconds, students.length / seconds, seated, waiting);
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// EnrollmentEngine class
+// Registration-window front end for Student.admit. Requests queue per course
+// and return at once; a worker drains a course's queue in arrival order, up to
+// BATCH_SIZE requests per turn, so only one thread at a time competes for a
+// hot course's monitor instead of every caller. Seats are filled in order and
+// the overflow goes to the course waitlist. A batch is one journal group: its
+// admissions defer their durability waits and the worker waits once, with no
+// monitor held, before completing the batch's futures. Each admission still
+// takes the student's monitor and then the course's, since holding the
+// course across the batch would invert that lock order. Courses with work
+// are scheduled round-robin on the executor, so one hot course cannot starve
+// the rest. close() fails whatever is still queued.
+class EnrollmentEngine implements AutoCloseable {
+    static final int BATCH_SIZE = 256;
+
+    private final ConcurrentHashMap<Course, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder enrolled = new LongAdder();
+    private final LongAdder waitlisted = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile long windowStart = System.nanoTime();
+    private volatile long windowBase;
+
+    public EnrollmentEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EnrollmentEngine(int threads) {
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "enrollment");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Queues one request; the future completes once the request is admitted,
+    // waitlisted or refused
+    public CompletableFuture<Course.Admission> submit(Student student, Course course) {
+        Request request = new Request(student);
+        Lane lane = lanes.computeIfAbsent(course, Lane::new);
+        lane.queue.add(request);
+        submitted.increment();
+        schedule(lane);
+        return request.result;
+    }
+
+    private void schedule(Lane lane) {
+        if (!lane.queue.isEmpty() && lane.scheduled.compareAndSet(false, true)) {
+            try {
+                workers.execute(() -> drain(lane));
+            } catch (RejectedExecutionException e) {
+                lane.scheduled.set(false);
+                failAll(lane, e);
+            }
+        }
+    }
+
+    private void drain(Lane lane) {
+        Request[] batch = new Request[BATCH_SIZE];
+        Course.Admission[] admissions = new Course.Admission[BATCH_SIZE];
+        RuntimeException[] errors = new RuntimeException[BATCH_SIZE];
+        int n = 0;
+        Request request;
+        Journal journal = Journal.current();
+        journal.defer();
+        try {
+            while (n < BATCH_SIZE && (request = lane.queue.poll()) != null) {
+                batch[n] = request;
+                try {
+                    admissions[n] = request.student.admit(lane.course);
+                } catch (RuntimeException e) {
+                    errors[n] = e;
+                }
+                n++;
+            }
+        } finally {
+            try {
+                journal.awaitDeferred();
+            } catch (RuntimeException e) {
+                // Not durable, so none of the batch is acknowledged
+                for (int i = 0; i < n; i++) {
+                    if (errors[i] == null) {
+                        errors[i] = e;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (errors[i] != null) {
+                batch[i].result.completeExceptionally(errors[i]);
+            } else {
+                count(admissions[i]);
+                batch[i].result.complete(admissions[i]);
+            }
+        }
+        batches.increment();
+        lane.scheduled.set(false);
+        // Requests that arrived after the last poll, or past the batch limit
+        schedule(lane);
+        if (lane.queue.isEmpty() && lane.course.isDeleted()) {
+            lanes.remove(lane.course, lane);
+        }
+    }
+
+    private void count(Course.Admission admission) {
+        switch (admission) {
+            case ENROLLED:
+                enrolled.increment();
+                break;
+            case WAITLISTED:
+                waitlisted.increment();
+                break;
+            default:
+                refused.increment();
+                break;
+        }
+    }
+
+    private static void failAll(Lane lane, Exception e) {
+        Request request;
+        while ((request = lane.queue.poll()) != null) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    // Requests finished, whatever their outcome
+    public long getCompleted() {
+        return enrolled.sum() + waitlisted.sum() + refused.sum();
+    }
+
+    // Completed requests per second since the engine started or the last resetWindow()
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - windowStart) / 1e9;
+        return seconds > 0 ? (getCompleted() - windowBase) / seconds : 0;
+    }
+
+    public void resetWindow() {
+        windowBase = getCompleted();
+        windowStart = System.nanoTime();
+    }
+
+    public String report() {
+        long done = getCompleted();
+        long turns = batches.sum();
+        return String.format("%d submitted, %d enrolled, %d waitlisted, %d refused, "
+                        + "%.1f requests per batch, %.0f requests/s",
+                getSubmitted(), enrolled.sum(), waitlisted.sum(), refused.sum(),
+                turns == 0 ? 0.0 : (double) done / turns, getThroughput());
+    }
+
+    // Stops the workers after their current batches; anything still queued then fails
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        RejectedExecutionException closed = new RejectedExecutionException("Enrollment engine closed");
+        for (Lane lane : lanes.values()) {
+            failAll(lane, closed);
+        }
+    }
+
+    private static final class Lane {
+        final Course course;
+        final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Lane(Course course) {
+            this.course = course;
+        }
+    }
+
+    private static final class Request {
+        final Student student;
+        final CompletableFuture<Course.Admission> result = new CompletableFuture<>();
+
+        Request(Student student) {
+            this.student = student;
+        }
+    }
+}
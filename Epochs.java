@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Epochs class
+// Logical clock behind PointInTime views. A change to the domain objects runs
+// between enter() and exit(), entered once it holds every monitor it will take,
+// and is tagged with the epoch it entered in; nested enters (a join inside an
+// enroll) share the outermost tag. Since conflicting changes hold a common
+// monitor, tags never decrease along any object's history.
+//
+// open() registers a view one epoch ahead, moves the clock there and waits
+// for the writers still inside the previous epoch to leave. From then on the
+// view sees exactly the changes tagged below its epoch. Writers never wait; a
+// writer that races with open() only re-reads the clock. Writers count
+// themselves in one of two counters by epoch parity, which is enough because
+// opens are serialized and each one drains the parity it leaves behind.
+final class Epochs {
+    private static final AtomicLong clock = new AtomicLong(1);
+    private static final AtomicLong[] writers = {new AtomicLong(), new AtomicLong()};
+    private static final ThreadLocal<Writer> current = ThreadLocal.withInitial(Writer::new);
+    // Epochs of the open views, ascending, with repeats; replaced under Epochs.class
+    private static volatile long[] open = new long[0];
+
+    private static final class Writer {
+        int depth;
+        long epoch;
+    }
+
+    private Epochs() {
+    }
+
+    // Starts or joins the calling thread's change and returns its tag
+    static long enter() {
+        Writer writer = current.get();
+        if (writer.depth++ > 0) {
+            return writer.epoch;
+        }
+        while (true) {
+            long epoch = clock.get();
+            AtomicLong count = writers[(int) epoch & 1];
+            count.incrementAndGet();
+            if (clock.get() == epoch) {
+                writer.epoch = epoch;
+                return epoch;
+            }
+            count.decrementAndGet();
+        }
+    }
+
+    static void exit() {
+        Writer writer = current.get();
+        if (--writer.depth == 0) {
+            writers[(int) writer.epoch & 1].decrementAndGet();
+        }
+    }
+
+    // Tag of the calling thread's change. Loading and replay write without
+    // entering, before anyone can open a view, and get the current epoch.
+    static long writeEpoch() {
+        Writer writer = current.get();
+        return writer.depth > 0 ? writer.epoch : clock.get();
+    }
+
+    // Opens a view and returns its epoch
+    static long open() {
+        if (current.get().depth > 0) {
+            throw new IllegalStateException("Cannot open a view inside a change");
+        }
+        long epoch;
+        synchronized (Epochs.class) {
+            epoch = clock.get() + 1;
+            long[] views = Arrays.copyOf(open, open.length + 1);
+            views[views.length - 1] = epoch;
+            open = views;
+            clock.set(epoch);
+            AtomicLong previous = writers[(int) (epoch - 1) & 1];
+            while (previous.get() != 0) {
+                Thread.yield();
+            }
+        }
+        return epoch;
+    }
+
+    static void close(long epoch) {
+        synchronized (Epochs.class) {
+            long[] views = open;
+            int i = Arrays.binarySearch(views, epoch);
+            if (i < 0) {
+                return;
+            }
+            long[] remaining = new long[views.length - 1];
+            System.arraycopy(views, 0, remaining, 0, i);
+            System.arraycopy(views, i + 1, remaining, i, remaining.length - i);
+            open = remaining;
+        }
+    }
+
+    // True if an open view falls in (from, until], so it needs the state an
+    // object had from epoch from until a write tagged until replaced it
+    static boolean needed(long from, long until) {
+        long[] views = open;
+        if (views.length == 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(views, from + 1);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < views.length && views[i] <= until;
+    }
+
+    // Epoch of the oldest open view; Long.MAX_VALUE if none
+    static long oldest() {
+        long[] views = open;
+        return views.length == 0 ? Long.MAX_VALUE : views[0];
+    }
+
+    static long now() {
+        return clock.get();
+    }
+
+    static int openViews() {
+        return open.length;
+    }
+}
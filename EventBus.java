@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// EventBus class
+// In-process stream of domain changes for asynchronous subscribers such as
+// AuditLog. Changes are published where they are journaled, with the same
+// monitors held, so each user's and each course's events arrive in the order
+// their changes were made. Replay publishes nothing: like the journal, the bus
+// is a disabled no-op until install().
+//
+// Events go through a ring of capacity preallocated slots. A publisher claims
+// a sequence with one compare-and-set on the cursor, fills the slot and
+// publishes it with a volatile write of its sequence; it allocates nothing
+// and takes no lock. Each subscriber has its own thread and position and
+// takes every published slot past its position as one batch. A slot is
+// reused only after every subscriber has passed it. When a slow subscriber
+// leaves the ring full, publishers drop the event and count it under
+// "events.dropped" instead of waiting: changes never stall on their readers.
+// Idle subscribers poll every IDLE_NANOS, so publishing needs no wake-up.
+// Events are stamped from a clock the first subscriber's thread advances as
+// it polls, since reading the system clock would cost more than the rest of
+// a publish; stamps are accurate to about IDLE_NANOS.
+final class EventBus implements Closeable {
+    enum Type {
+        USER_CREATED, USER_DELETED, COURSE_CREATED, COURSE_DELETED,
+        ENROLLED, WAITLISTED, DROPPED, GRADE_ASSIGNED
+    }
+
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    // Id fields an event does not use
+    static final int NONE = -1;
+
+    private static final long IDLE_NANOS = 1_000_000L;
+    private static final int IDLE_SPINS = 100;
+
+    private static final Metrics.Counter DROPPED_EVENTS = Metrics.counter("events.dropped");
+
+    private static final EventBus DISABLED = new EventBus();
+    private static volatile EventBus current = DISABLED;
+
+    // Receives a batch one event at a time on the subscriber's own thread
+    interface Subscriber {
+        // event is a slot of the ring, valid only during the call
+        void onEvent(Event event, boolean endOfBatch) throws IOException;
+
+        // Called on the subscriber's thread once the bus is closed and drained
+        default void close() throws IOException {
+        }
+    }
+
+    // One slot of the ring; published once sequence holds the slot's own
+    static final class Event {
+        private volatile long sequence = -1;
+        private Type type;
+        private long time;
+        private int userId;
+        private int courseId;
+        private int grade;
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        // Milliseconds since the epoch, about when the change was published
+        public long getTime() {
+            return time;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public int getCourseId() {
+            return courseId;
+        }
+
+        // The grade assigned; GradeStore.NO_GRADE clears it, NONE for other types
+        public int getGrade() {
+            return grade;
+        }
+    }
+
+    private final Event[] slots;
+    private final int mask;
+    // Next sequence to claim
+    private final AtomicLong cursor = new AtomicLong();
+    private final Reader[] readers;
+    // Lowest reader position seen, refreshed only when the ring looks full
+    private volatile long gate;
+    private volatile long clock = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    private EventBus() {
+        this.slots = null;
+        this.mask = 0;
+        this.readers = new Reader[0];
+    }
+
+    // capacity is rounded up to a power of two
+    EventBus(int capacity, List<? extends Subscriber> subscribers) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Event[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event();
+        }
+        this.mask = size - 1;
+        this.readers = new Reader[subscribers.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Reader(subscribers.get(i), "event-subscriber-" + i, i == 0);
+        }
+        for (Reader reader : readers) {
+            reader.thread.start();
+        }
+    }
+
+    // The bus changes are published to; a disabled no-op until install()
+    static EventBus current() {
+        return current;
+    }
+
+    static void install(EventBus bus) {
+        current = bus == null ? DISABLED : bus;
+    }
+
+    public void userCreated(User user) {
+        publish(Type.USER_CREATED, user.getId(), NONE, NONE);
+    }
+
+    public void usersDeleted(List<? extends User> users) {
+        for (User user : users) {
+            publish(Type.USER_DELETED, user.getId(), NONE, NONE);
+        }
+    }
+
+    public void courseCreated(Course course) {
+        publish(Type.COURSE_CREATED, NONE, course.getId(), NONE);
+    }
+
+    public void coursesDeleted(List<Course> courses) {
+        for (Course course : courses) {
+            publish(Type.COURSE_DELETED, NONE, course.getId(), NONE);
+        }
+    }
+
+    public void enrolled(User user, Course course) {
+        publish(Type.ENROLLED, user.getId(), course.getId(), NONE);
+    }
+
+    public void waitlisted(Student student, Course course) {
+        publish(Type.WAITLISTED, student.getId(), course.getId(), NONE);
+    }
+
+    public void dropped(User user, Course course) {
+        publish(Type.DROPPED, user.getId(), course.getId(), NONE);
+    }
+
+    public void gradeAssigned(Course course, Student student, int grade) {
+        publish(Type.GRADE_ASSIGNED, student.getId(), course.getId(), grade);
+    }
+
+    public void gradesAssigned(Course course, int[] studentIds, int[] grades, int count) {
+        for (int i = 0; i < count; i++) {
+            publish(Type.GRADE_ASSIGNED, studentIds[i], course.getId(), grades[i]);
+        }
+    }
+
+    // Sequences claimed so far, dropped events excluded
+    public long published() {
+        return cursor.get();
+    }
+
+    // Events published that the slowest subscriber has not taken yet
+    public long backlog() {
+        return slots == null ? 0 : cursor.get() - slowest();
+    }
+
+    private void publish(Type type, int userId, int courseId, int grade) {
+        if (slots == null) {
+            return;
+        }
+        long next;
+        do {
+            next = cursor.get();
+            if (next - gate >= slots.length) {
+                gate = slowest();
+                if (next - gate >= slots.length) {
+                    DROPPED_EVENTS.increment();
+                    return;
+                }
+            }
+        } while (!cursor.compareAndSet(next, next + 1));
+        Event slot = slots[(int) next & mask];
+        slot.type = type;
+        slot.time = clock;
+        slot.userId = userId;
+        slot.courseId = courseId;
+        slot.grade = grade;
+        slot.sequence = next;
+    }
+
+    private long slowest() {
+        long lowest = cursor.get();
+        for (Reader reader : readers) {
+            lowest = Math.min(lowest, reader.position);
+        }
+        return lowest;
+    }
+
+    // Lets the subscribers take what is published and waits for them to
+    // finish. Uninstall the bus first; events published meanwhile may be lost.
+    @Override
+    public void close() {
+        closed = true;
+        for (Reader reader : readers) {
+            LockSupport.unpark(reader.thread);
+        }
+        for (Reader reader : readers) {
+            try {
+                reader.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // One subscriber's thread and position
+    private final class Reader implements Runnable {
+        private final Subscriber subscriber;
+        private final Thread thread;
+        private final boolean ticks;
+        // First sequence not yet taken
+        private volatile long position;
+
+        Reader(Subscriber subscriber, String name, boolean ticks) {
+            this.subscriber = subscriber;
+            this.thread = new Thread(this, name);
+            this.ticks = ticks;
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                if (ticks) {
+                    clock = System.currentTimeMillis();
+                }
+                long from = position;
+                long end = from;
+                while (slots[(int) end & mask].sequence == end) {
+                    end++;
+                }
+                if (end > from) {
+                    for (long sequence = from; sequence < end; sequence++) {
+                        deliver(slots[(int) sequence & mask], sequence == end - 1);
+                    }
+                    position = end;
+                    idle = 0;
+                } else if (closed && cursor.get() == from) {
+                    break;
+                } else if (++idle < IDLE_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            try {
+                subscriber.close();
+            } catch (IOException e) {
+                System.out.println("Error closing event subscriber: " + e.getMessage());
+            }
+        }
+
+        private void deliver(Event event, boolean endOfBatch) {
+            try {
+                subscriber.onEvent(event, endOfBatch);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error in event subscriber: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// GradeAnalytics class
+// Dashboard queries over grades that are kept up to date as grades change,
+// so nothing rescans the gradebooks. Each course keeps a GradeStats and each
+// student keeps running GPA totals. This class keeps every graded student in
+// a skip list ordered by GPA, which makes the honor roll and the top-n list
+// O(log n + k). Students update their own entry under their grade-totals
+// lock, so the list never holds two entries for one student.
+class GradeAnalytics {
+    static final double HONOR_ROLL_GPA = 3.5;
+
+    private final ConcurrentSkipListSet<Ranking> ranking = new ConcurrentSkipListSet<>();
+
+    // Grade points on the 4.0 scale for one course grade
+    static int points(int grade) {
+        if (grade >= 90) {
+            return 4;
+        } else if (grade >= 80) {
+            return 3;
+        } else if (grade >= 70) {
+            return 2;
+        } else if (grade >= 60) {
+            return 1;
+        }
+        return 0;
+    }
+
+    // Called by Student with its totals lock held; NaN means not ranked
+    void update(Student student, double before, double after) {
+        if (!Double.isNaN(before)) {
+            ranking.remove(new Ranking(before, student));
+        }
+        if (!Double.isNaN(after)) {
+            ranking.add(new Ranking(after, student));
+        }
+    }
+
+    public GradeStats getCourseStats(Course course) {
+        return course.getGradeStats();
+    }
+
+    // Students with at least minGpa, best first
+    public List<Student> getHonorRoll(double minGpa) {
+        List<Student> students = new ArrayList<>();
+        for (Ranking entry : ranking) {
+            if (entry.gpa < minGpa) {
+                break;
+            }
+            students.add(entry.student);
+        }
+        return students;
+    }
+
+    public List<Student> getHonorRoll() {
+        return getHonorRoll(HONOR_ROLL_GPA);
+    }
+
+    public List<Student> getTopStudents(int n) {
+        List<Student> students = new ArrayList<>(Math.min(n, 1024));
+        for (Ranking entry : ranking) {
+            if (students.size() == n) {
+                break;
+            }
+            students.add(entry.student);
+        }
+        return students;
+    }
+
+    // Students with at least one grade
+    public int getRankedCount() {
+        return ranking.size();
+    }
+
+    // Highest GPA first, then lowest id
+    private static final class Ranking implements Comparable<Ranking> {
+        final double gpa;
+        final Student student;
+
+        Ranking(double gpa, Student student) {
+            this.gpa = gpa;
+            this.student = student;
+        }
+
+        @Override
+        public int compareTo(Ranking other) {
+            int byGpa = Double.compare(other.gpa, gpa);
+            return byGpa != 0 ? byGpa : Integer.compare(student.getId(), other.student.getId());
+        }
+    }
+}
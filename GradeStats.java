@@ -0,0 +1,119 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+// GradeStats class
+// Running aggregates over one course's grades: count, sum and a histogram
+// with one bucket per grade from 0 to 100. Min, max and percentiles are
+// derived from the histogram in at most 101 steps. Grades outside 0..100 are
+// rare, so they are kept exactly in a small sorted map instead. Course updates
+// this under its own monitor whenever a grade changes; the monitor here is a
+// leaf lock that only makes reads consistent.
+class GradeStats {
+    static final int MAX_BUCKET = 100;
+
+    private final int[] histogram = new int[MAX_BUCKET + 1];
+    private final TreeMap<Integer, Integer> outliers = new TreeMap<>();
+    private int count;
+    private long sum;
+
+    // Either side may be GradeStore.NO_GRADE, for an added or removed grade
+    synchronized void replace(int previous, int grade) {
+        if (previous != GradeStore.NO_GRADE) {
+            remove(previous);
+        }
+        if (grade != GradeStore.NO_GRADE) {
+            add(grade);
+        }
+    }
+
+    private void add(int grade) {
+        if (grade >= 0 && grade <= MAX_BUCKET) {
+            histogram[grade]++;
+        } else {
+            outliers.merge(grade, 1, Integer::sum);
+        }
+        count++;
+        sum += grade;
+    }
+
+    private void remove(int grade) {
+        if (grade >= 0 && grade <= MAX_BUCKET) {
+            histogram[grade]--;
+        } else {
+            outliers.computeIfPresent(grade, (key, n) -> n == 1 ? null : n - 1);
+        }
+        count--;
+        sum -= grade;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    // NaN when there are no grades
+    public synchronized double getAverage() {
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    // GradeStore.NO_GRADE when there are no grades
+    public synchronized int getMin() {
+        return count == 0 ? GradeStore.NO_GRADE : rank(1);
+    }
+
+    public synchronized int getMax() {
+        return count == 0 ? GradeStore.NO_GRADE : rank(count);
+    }
+
+    // Nearest-rank percentile, 0 < p <= 100; GradeStore.NO_GRADE when empty
+    public synchronized int getPercentile(double p) {
+        if (p <= 0 || p > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + p);
+        }
+        return count == 0 ? GradeStore.NO_GRADE : rank((int) Math.ceil(p / 100 * count));
+    }
+
+    // Number of grades in [from, to]
+    public synchronized int countBetween(int from, int to) {
+        int n = 0;
+        for (int grade = Math.max(0, from); grade <= Math.min(MAX_BUCKET, to); grade++) {
+            n += histogram[grade];
+        }
+        for (int outlier : outliers.subMap(from, true, to, true).values()) {
+            n += outlier;
+        }
+        return n;
+    }
+
+    // Copy of the 0..100 buckets
+    public synchronized int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    // The grade holding the given 1-based rank in ascending order
+    private int rank(int rank) {
+        int seen = 0;
+        for (Map.Entry<Integer, Integer> entry : outliers.headMap(0).entrySet()) {
+            seen += entry.getValue();
+            if (seen >= rank) {
+                return entry.getKey();
+            }
+        }
+        for (int grade = 0; grade <= MAX_BUCKET; grade++) {
+            seen += histogram[grade];
+            if (seen >= rank) {
+                return grade;
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : outliers.tailMap(MAX_BUCKET, false).entrySet()) {
+            seen += entry.getValue();
+            if (seen >= rank) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Rank " + rank + " of " + count);
+    }
+}
@@ -0,0 +1,287 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+// GradeStore class
+// Open-addressing int -> int map from student id to grade. Keys and values live
+// in two packed int columns, so a grade costs a few bytes instead of a boxed
+// Integer plus a HashMap node, and lookups never depend on object identity.
+// Writers take a StampedLock; readers probe optimistically and only fall back
+// to the read lock if a write overlapped them.
+//
+// Columns of at least -Dsms.grades.offHeapSlots slots (16384 by default, a
+// course with over 8192 grades; 0 keeps every column on the heap) are
+// allocated off the heap, so the gradebooks of very large courses add nothing
+// to the heap the collector copies and scans. Smaller columns stay on the
+// heap, where allocating is cheaper than direct memory. Their memory counts
+// against -XX:MaxDirectMemorySize and is released when a rehash or a removed
+// course drops the column. LinkStore keeps rosters, waitlists and enrollment
+// links in columns from the same allocator.
+class GradeStore {
+    public static final int NO_GRADE = -1;
+    static final int OFF_HEAP_SLOTS = Integer.getInteger("sms.grades.offHeapSlots", 1 << 14);
+
+    private static final int FREE = -1;
+    private static final int MIN_CAPACITY = 8;
+
+    private final StampedLock lock = new StampedLock();
+    private IntBuffer keys;
+    private IntBuffer values;
+    private int size;
+
+    public GradeStore() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public GradeStore(int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int result = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    public int get(int studentId) {
+        long stamp = lock.tryOptimisticRead();
+        int result = probe(keys, values, studentId);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = probe(keys, values, studentId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    public boolean contains(int studentId) {
+        return get(studentId) != NO_GRADE;
+    }
+
+    // Storing NO_GRADE is the same as removing the entry. Returns the grade
+    // it replaced, or NO_GRADE
+    public int put(int studentId, int grade) {
+        if (studentId < 0) {
+            throw new IllegalArgumentException("Invalid student id: " + studentId);
+        }
+        long stamp = lock.writeLock();
+        try {
+            return grade == NO_GRADE ? delete(studentId) : insert(studentId, grade);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int insert(int studentId, int grade) {
+        int mask = keys.capacity() - 1;
+        int slot = mix(studentId) & mask;
+        int key;
+        while ((key = keys.get(slot)) != FREE) {
+            if (key == studentId) {
+                int previous = values.get(slot);
+                values.put(slot, grade);
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys.put(slot, studentId);
+        values.put(slot, grade);
+        if (++size * 4 > keys.capacity() * 3) {
+            rehash(keys.capacity() * 2);
+        }
+        return NO_GRADE;
+    }
+
+    // Returns the removed grade, or NO_GRADE if the student had none
+    public int remove(int studentId) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(studentId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int delete(int studentId) {
+        int slot = find(studentId);
+        if (slot < 0) {
+            return NO_GRADE;
+        }
+        int removed = values.get(slot);
+        int mask = keys.capacity() - 1;
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        int key;
+        while ((key = keys.get(next)) != FREE) {
+            int home = mix(key) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys.put(gap, key);
+                values.put(gap, values.get(next));
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys.put(gap, FREE);
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            fill(keys, FREE);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Bulk read: out[i] receives the grade of studentIds[i], or NO_GRADE
+    public void getAll(int[] studentIds, int[] out) {
+        for (int i = 0; i < studentIds.length; i++) {
+            out[i] = get(studentIds[i]);
+        }
+    }
+
+    // Bulk write of the first count pairs, growing the table at most once.
+    // If previous is not null, previous[i] receives the grade pair i replaced.
+    public void putAll(int[] studentIds, int[] grades, int count, int[] previous) {
+        long stamp = lock.writeLock();
+        try {
+            int needed = capacityFor(size + count);
+            if (needed > keys.capacity()) {
+                rehash(needed);
+            }
+            for (int i = 0; i < count; i++) {
+                if (studentIds[i] < 0) {
+                    throw new IllegalArgumentException("Invalid student id: " + studentIds[i]);
+                }
+                int replaced = grades[i] == NO_GRADE ? delete(studentIds[i]) : insert(studentIds[i], grades[i]);
+                if (previous != null) {
+                    previous[i] = replaced;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Consistent copy of every entry: result[0] holds student ids, result[1] grades
+    public int[][] toArrays() {
+        long stamp = lock.readLock();
+        try {
+            int[] studentIds = new int[size];
+            int[] grades = new int[size];
+            int n = 0;
+            for (int slot = 0; slot < keys.capacity(); slot++) {
+                int key = keys.get(slot);
+                if (key != FREE) {
+                    studentIds[n] = key;
+                    grades[n] = values.get(slot);
+                    n++;
+                }
+            }
+            return new int[][] {studentIds, grades};
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Tolerates columns torn by a concurrent rehash: the caller validates the
+    // stamp and retries, so this only has to terminate without throwing
+    private static int probe(IntBuffer keys, IntBuffer values, int studentId) {
+        if (keys == null || values == null || keys.capacity() != values.capacity()) {
+            return NO_GRADE;
+        }
+        int mask = keys.capacity() - 1;
+        int slot = mix(studentId) & mask;
+        for (int i = 0; i <= mask; i++) {
+            int key = keys.get(slot);
+            if (key == studentId) {
+                return values.get(slot);
+            }
+            if (key == FREE) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_GRADE;
+    }
+
+    private int find(int studentId) {
+        int mask = keys.capacity() - 1;
+        int slot = mix(studentId) & mask;
+        int key;
+        while ((key = keys.get(slot)) != FREE) {
+            if (key == studentId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        IntBuffer oldKeys = keys;
+        IntBuffer oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.capacity(); i++) {
+            int key = oldKeys.get(i);
+            if (key != FREE) {
+                int slot = mix(key) & mask;
+                while (keys.get(slot) != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys.put(slot, key);
+                values.put(slot, oldValues.get(i));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = column(capacity);
+        values = column(capacity);
+        fill(keys, FREE);
+    }
+
+    static IntBuffer column(int capacity) {
+        if (OFF_HEAP_SLOTS > 0 && capacity >= OFF_HEAP_SLOTS) {
+            return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return IntBuffer.allocate(capacity);
+    }
+
+    private static void fill(IntBuffer column, int value) {
+        for (int i = 0; i < column.capacity(); i++) {
+            column.put(i, value);
+        }
+    }
+
+    private static int capacityFor(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expected * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Ids are dense and sequential, so spread them before masking
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.List;
+
+// IntervalIndex class
+// Immutable set of weekly time intervals, each tagged with an owner, that
+// answers "does anything overlap [start, end)?" in O(log n). Intervals are
+// kept sorted by start, next to a running maximum of their ends: the ones
+// starting before end are a prefix, and one of them overlaps exactly when the
+// largest end in that prefix is past start. Overlapping intervals are allowed
+// in the index (a timetable loaded as it was), and the query still finds one.
+//
+// Changes return a new index, so readers need no lock; the index is small
+// (one user's week or one room's) and changes are rare next to the checks.
+final class IntervalIndex<T> {
+    private static final IntervalIndex<Object> EMPTY =
+            new IntervalIndex<>(new int[0], new int[0], new Object[0]);
+
+    private final int[] starts;
+    private final int[] ends;
+    private final Object[] owners;
+    // reach[i] is the interval with the largest end among 0..i
+    private final int[] reach;
+
+    private IntervalIndex(int[] starts, int[] ends, Object[] owners) {
+        this.starts = starts;
+        this.ends = ends;
+        this.owners = owners;
+        this.reach = new int[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            reach[i] = i == 0 || ends[i] > ends[reach[i - 1]] ? i : reach[i - 1];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> IntervalIndex<T> empty() {
+        return (IntervalIndex<T>) EMPTY;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    // An owner of an interval overlapping [start, end), or null
+    @SuppressWarnings("unchecked")
+    public T conflict(int start, int end) {
+        int i = lastStartBefore(end);
+        return i >= 0 && ends[reach[i]] > start ? (T) owners[reach[i]] : null;
+    }
+
+    // An owner of an interval overlapping any of the meetings, or null
+    public T conflict(List<Meeting> meetings) {
+        for (Meeting meeting : meetings) {
+            T owner = conflict(meeting.weekStart(), meeting.weekEnd());
+            if (owner != null) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    // The index with owner's intervals replaced by the meetings' (owners
+    // compare by identity)
+    public IntervalIndex<T> with(T owner, List<Meeting> meetings) {
+        int kept = 0;
+        for (Object o : owners) {
+            kept += o == owner ? 0 : 1;
+        }
+        int n = kept + meetings.size();
+        if (meetings.isEmpty() && kept == owners.length) {
+            return this;
+        }
+        if (n == 0) {
+            return empty();
+        }
+        // Merges the kept intervals with the new ones, both in start order
+        int[][] bounds = new int[2][meetings.size()];
+        for (int i = 0; i < bounds[0].length; i++) {
+            bounds[0][i] = meetings.get(i).weekStart();
+            bounds[1][i] = meetings.get(i).weekEnd();
+        }
+        sortByStart(bounds);
+        int[] newStarts = new int[n];
+        int[] newEnds = new int[n];
+        Object[] newOwners = new Object[n];
+        int a = 0;
+        int b = 0;
+        for (int k = 0; k < n; k++) {
+            while (a < owners.length && owners[a] == owner) {
+                a++;
+            }
+            if (b < bounds[0].length && (a == owners.length || bounds[0][b] < starts[a])) {
+                newStarts[k] = bounds[0][b];
+                newEnds[k] = bounds[1][b++];
+                newOwners[k] = owner;
+            } else {
+                newStarts[k] = starts[a];
+                newEnds[k] = ends[a];
+                newOwners[k] = owners[a++];
+            }
+        }
+        return new IntervalIndex<>(newStarts, newEnds, newOwners);
+    }
+
+    public IntervalIndex<T> without(T owner) {
+        return with(owner, List.of());
+    }
+
+    // Last interval starting before time, or -1
+    private int lastStartBefore(int time) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    // Sorts the (start, end) pairs of one timetable by start; timetables are short
+    private static void sortByStart(int[][] bounds) {
+        long[] pairs = new long[bounds[0].length];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = (long) bounds[0][i] << 32 | bounds[1][i];
+        }
+        Arrays.sort(pairs);
+        for (int i = 0; i < pairs.length; i++) {
+            bounds[0][i] = (int) (pairs[i] >>> 32);
+            bounds[1][i] = (int) pairs[i];
+        }
+    }
+}
@@ -0,0 +1,904 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Journal class
+// Write-ahead log of every mutation made since the last snapshot. Appends are
+// encoded into an in-memory batch, and by default an append returns only once
+// its record is fsynced, so an acknowledged change survives a crash. The
+// first waiter writes the batch and everyone appending meanwhile waits for
+// the next one, so concurrent mutations share one fsync (group commit). A
+// thread can defer() its waits, make changes under its monitors, and then
+// wait once in awaitDeferred() with no monitor held. Opened with
+// waitForDurable false, appends return at once and a flusher thread writes
+// the batch once syncEvery records are pending or syncMillis have passed; a
+// crash then loses what was acknowledged but not yet written. On startup the
+// journal is replayed on top of the snapshot, and a checkpoint keeps it
+// short: mark(), write a snapshot while sessions keep running, then
+// discardThrough() the mark.
+//
+// A failed write is final: the file is cut back to the last whole batch and
+// nothing more is written, since replay could not reach records past a gap.
+// Waiters whose records were lost get the failure as an UncheckedIOException,
+// and from then on every append throws it too, as do sync(), checkpoints and
+// close(), until the journal is reopened. A change is never acknowledged as
+// saved when it is not.
+//
+// Record layout: bodyLength, then body = (sequence, type, fields...), then a
+// CRC32C of the body. Replay stops at the first torn or corrupt record. User
+// records carry a Credentials hash; journals from before SET_CREDENTIAL carry
+// the plaintext password there, which Credentials still accepts. A
+// SET_MEETINGS record holds a course's whole timetable: course id, count,
+// then (day, start, end, room) per meeting. A term close is a BEGIN_TERM
+// record with the term name, a TERM_ROW (student, course, grade) per seat or
+// grade it moved out of the courses, and a CLOSE_TERM record with the name
+// once the term's segment is written. Replay removes each row as it comes,
+// and writes the segment from the rows if a crash left it missing. A
+// CLOSE_TERM with no BEGIN_TERM before it, from an older journal, empties
+// the rosters of the archived term again.
+class Journal implements Closeable {
+    static final byte CREATE_STUDENT = 1;
+    static final byte CREATE_TEACHER = 2;
+    static final byte CREATE_COURSE = 3;
+    static final byte DELETE_STUDENT = 4;
+    static final byte DELETE_TEACHER = 5;
+    static final byte DELETE_COURSE = 6;
+    static final byte ENROLL = 7;
+    static final byte DROP = 8;
+    static final byte SET_GRADE = 9;
+    static final byte SET_CAPACITY = 10;
+    static final byte WAITLIST = 11;
+    static final byte SET_CREDENTIAL = 12;
+    static final byte SET_MEETINGS = 13;
+    static final byte CLOSE_TERM = 14;
+    static final byte BEGIN_TERM = 15;
+    static final byte TERM_ROW = 16;
+
+    // User id SET_CREDENTIAL records use for the administrator login
+    static final int ADMINISTRATOR_ID = -1;
+
+    // One sync is one batch written and forced to disk
+    private static final Metrics.Timer SYNC = Metrics.exactTimer("journal.sync");
+    private static final Metrics.Counter RECORDS = Metrics.counter("journal.records");
+    private static final Metrics.Counter BYTES = Metrics.counter("journal.bytes");
+    private static final Metrics.Timer REPLAY = Metrics.exactTimer("journal.replay");
+
+    private static final Journal DISABLED = new Journal();
+    private static volatile Journal current = DISABLED;
+
+    private final Path path;
+    private FileChannel channel;
+    private final int syncEvery;
+    private final long syncNanos;
+    private final boolean waitForDurable;
+    private final ThreadLocal<Deferral> deferrals = ThreadLocal.withInitial(Deferral::new);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private final Thread flusher;
+    private final CRC32C crc = new CRC32C();
+
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private int pendingRecords;
+    private int recordStart;
+    private boolean writing;
+    private long sequence;
+    private long durableSequence;
+    private long fileSize;
+    private long inFlight;
+    private boolean closed;
+    // The first write failure; set once and never cleared
+    private IOException failed;
+
+    private Journal() {
+        this.path = null;
+        this.channel = null;
+        this.syncEvery = 0;
+        this.syncNanos = 0;
+        this.waitForDurable = false;
+        this.flusher = null;
+    }
+
+    private Journal(Path path, FileChannel channel, long lastSequence, int syncEvery, long syncMillis,
+            boolean waitForDurable) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.syncEvery = Math.max(1, syncEvery);
+        this.syncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, syncMillis));
+        this.waitForDurable = waitForDurable;
+        this.pending = ByteBuffer.allocate(64 * 1024);
+        this.spare = ByteBuffer.allocate(64 * 1024);
+        this.sequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.fileSize = channel.size();
+        channel.position(fileSize);
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // The journal mutations are recorded to; a disabled no-op until install()
+    static Journal current() {
+        return current;
+    }
+
+    static void install(Journal journal) {
+        current = journal == null ? DISABLED : journal;
+    }
+
+    // Opens for appending after lastSequence, the highest sequence already
+    // applied; appends wait until their records are durable
+    public static Journal open(Path path, long lastSequence, int syncEvery, long syncMillis) throws IOException {
+        return open(path, lastSequence, syncEvery, syncMillis, true);
+    }
+
+    // With waitForDurable false, appends return before their records are written
+    public static Journal open(Path path, long lastSequence, int syncEvery, long syncMillis,
+            boolean waitForDurable) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Journal(path, channel, lastSequence, syncEvery, syncMillis, waitForDurable);
+    }
+
+    // Applies every intact record newer than admin.getJournalSequence(), cuts off
+    // a torn tail left by a crash, and returns the last sequence seen. Must run
+    // before install(), so the replayed operations are not journaled again.
+    public static long replay(Admin admin, Path path) throws IOException {
+        long start = REPLAY.start();
+        try {
+            return replayRecords(admin, path);
+        } finally {
+            REPLAY.record(start);
+        }
+    }
+
+    private static long replayRecords(Admin admin, Path path) throws IOException {
+        long last = admin.getJournalSequence();
+        if (!Files.exists(path)) {
+            return last;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large to map: " + channel.size() + " bytes");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C check = new CRC32C();
+            int good = 0;
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.getInt();
+                if (length < Long.BYTES + 1 || length > in.remaining() - Integer.BYTES) {
+                    break;
+                }
+                ByteBuffer body = in.slice();
+                body.limit(length);
+                check.reset();
+                check.update(body.duplicate());
+                in.position(in.position() + length);
+                if ((int) check.getValue() != in.getInt()) {
+                    break;
+                }
+                long sequence = body.getLong();
+                if (sequence > last) {
+                    apply(admin, body);
+                    last = sequence;
+                }
+                good = in.position();
+            }
+            if (good < channel.size()) {
+                channel.truncate(good);
+            }
+        }
+        admin.finishReplayedClose();
+        admin.restoreJournalSequence(last);
+        return last;
+    }
+
+    public void createStudent(Student student) {
+        createUser(CREATE_STUDENT, student);
+    }
+
+    public void createTeacher(Teacher teacher) {
+        createUser(CREATE_TEACHER, teacher);
+    }
+
+    public void createCourse(Course course) {
+        if (channel == null) {
+            return;
+        }
+        byte[] name = utf8(course.getName());
+        lock.lock();
+        try {
+            ByteBuffer out = begin(CREATE_COURSE, Integer.BYTES * 2 + name.length);
+            out.putInt(course.getId());
+            putBytes(out, name);
+            end(out);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    // Batch deletes append one record per entity under one lock acquisition
+    // and wait for durability once
+    public void deleteStudents(List<Student> students) {
+        int[] ids = new int[students.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = students.get(i).getId();
+        }
+        records(DELETE_STUDENT, ids);
+    }
+
+    public void deleteTeachers(List<Teacher> teachers) {
+        int[] ids = new int[teachers.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = teachers.get(i).getId();
+        }
+        records(DELETE_TEACHER, ids);
+    }
+
+    public void deleteCourses(List<Course> courses) {
+        int[] ids = new int[courses.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = courses.get(i).getId();
+        }
+        records(DELETE_COURSE, ids);
+    }
+
+    public void enroll(User user, Course course) {
+        record(ENROLL, user.getId(), course.getId(), 0, 2);
+    }
+
+    public void drop(User user, Course course) {
+        record(DROP, user.getId(), course.getId(), 0, 2);
+    }
+
+    public void setGrade(Course course, Student student, int grade) {
+        record(SET_GRADE, course.getId(), student.getId(), grade, 3);
+    }
+
+    public void setCapacity(Course course, int capacity) {
+        record(SET_CAPACITY, course.getId(), capacity, 0, 2);
+    }
+
+    public void waitlist(Student student, Course course) {
+        record(WAITLIST, student.getId(), course.getId(), 0, 2);
+    }
+
+    // Written before the first row of a term close (see Admin.closeTerm)
+    public void beginTerm(String term) {
+        termRecord(BEGIN_TERM, term);
+    }
+
+    // One seat or grade a term close archived and removed
+    public void termRow(Student student, Course course, int grade) {
+        record(TERM_ROW, student.getId(), course.getId(), grade, 3);
+    }
+
+    // Written once the term's segment is durable
+    public void closeTerm(String term) {
+        termRecord(CLOSE_TERM, term);
+    }
+
+    private void termRecord(byte type, String term) {
+        if (channel == null) {
+            return;
+        }
+        byte[] name = utf8(term);
+        lock.lock();
+        try {
+            ByteBuffer out = begin(type, Integer.BYTES + name.length);
+            putBytes(out, name);
+            end(out);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    public void setCredential(int userId, String credential) {
+        if (channel == null) {
+            return;
+        }
+        byte[] bytes = utf8(credential);
+        lock.lock();
+        try {
+            ByteBuffer out = begin(SET_CREDENTIAL, Integer.BYTES * 2 + bytes.length);
+            out.putInt(userId);
+            putBytes(out, bytes);
+            end(out);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    // One record per course with its current meetings, under one lock
+    // acquisition and one wait for durability
+    public void setMeetings(List<Course> courses) {
+        if (channel == null || courses.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (Course course : courses) {
+                List<Meeting> meetings = course.getMeetings();
+                byte[][] rooms = new byte[meetings.size()][];
+                int payload = Integer.BYTES * 2;
+                for (int i = 0; i < rooms.length; i++) {
+                    rooms[i] = utf8(meetings.get(i).getRoom());
+                    payload += Integer.BYTES * 4 + rooms[i].length;
+                }
+                ByteBuffer out = begin(SET_MEETINGS, payload);
+                out.putInt(course.getId());
+                out.putInt(meetings.size());
+                for (int i = 0; i < rooms.length; i++) {
+                    Meeting meeting = meetings.get(i);
+                    out.putInt(meeting.getDay());
+                    out.putInt(meeting.getStart());
+                    out.putInt(meeting.getEnd());
+                    putBytes(out, rooms[i]);
+                }
+                end(out);
+            }
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    public void setGrades(Course course, int[] studentIds, int[] grades, int count) {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer out = begin(SET_GRADE, Integer.BYTES * 3);
+                out.putInt(course.getId());
+                out.putInt(studentIds[i]);
+                out.putInt(grades[i]);
+                end(out);
+            }
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    // Until the matching awaitDeferred(), this thread's appends return
+    // without waiting for durability. Calls nest; the outermost one waits.
+    public void defer() {
+        if (channel == null) {
+            return;
+        }
+        deferrals.get().depth++;
+    }
+
+    // Waits once for the newest record this thread appended since defer().
+    // Call it with no monitor held, before reporting the changes as done.
+    public void awaitDeferred() {
+        if (channel == null) {
+            return;
+        }
+        Deferral deferral = deferrals.get();
+        if (deferral.depth > 0 && --deferral.depth > 0) {
+            return;
+        }
+        long target = deferral.owed;
+        deferral.owed = 0;
+        if (waitForDurable && target > 0) {
+            awaitDurable(target);
+        }
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bytes on disk plus bytes still waiting in the current batch
+    public long size() {
+        if (channel == null) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            return fileSize + pending.position();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes and fsyncs everything appended so far
+    public void sync() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeBatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Position of the newest record, taken just before a checkpoint snapshot
+    public Mark mark() {
+        if (channel == null) {
+            return new Mark(0, 0);
+        }
+        lock.lock();
+        try {
+            return new Mark(sequence, fileSize + inFlight + pending.position());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops every record up to the mark once a snapshot covering it is
+    // durable. Records appended after the mark are copied into a fresh file
+    // that atomically replaces the journal; appenders wait only for that copy.
+    public void discardThrough(Mark mark) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeBatch();
+            while (writing) {
+                durable.awaitUninterruptibly();
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            FileChannel fresh = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long position = mark.offset;
+                while (position < fileSize) {
+                    position += channel.transferTo(position, fileSize - position, fresh);
+                }
+                fresh.force(true);
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                fresh.close();
+                throw e;
+            }
+            channel.close();
+            channel = fresh;
+            fileSize = channel.size();
+            channel.position(fileSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signalAll();
+            durable.signalAll();
+            writeBatch();
+        } finally {
+            lock.unlock();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    private static void apply(Admin admin, ByteBuffer body) throws IOException {
+        byte type = body.get();
+        switch (type) {
+            case CREATE_STUDENT:
+            case CREATE_TEACHER: {
+                int id = body.getInt();
+                String name = getString(body);
+                String username = getString(body);
+                String credential = getString(body);
+                if (admin.findUser(id) == null && admin.findUser(username) == null) {
+                    if (type == CREATE_STUDENT) {
+                        admin.restoreStudent(new Student(id, name, username, credential));
+                    } else {
+                        admin.restoreTeacher(new Teacher(id, name, username, credential));
+                    }
+                }
+                break;
+            }
+            case CREATE_COURSE: {
+                int id = body.getInt();
+                String name = getString(body);
+                if (admin.findCourse(id) == null) {
+                    admin.restoreCourse(new Course(id, name));
+                }
+                break;
+            }
+            case DELETE_STUDENT:
+            case DELETE_TEACHER: {
+                User user = admin.findUser(body.getInt());
+                if (user instanceof Student) {
+                    admin.removeStudent((Student) user);
+                } else if (user instanceof Teacher) {
+                    admin.removeTeacher((Teacher) user);
+                }
+                break;
+            }
+            case DELETE_COURSE: {
+                Course course = admin.findCourse(body.getInt());
+                if (course != null) {
+                    admin.removeCourse(course);
+                }
+                break;
+            }
+            case ENROLL:
+            case DROP: {
+                User user = admin.findUser(body.getInt());
+                Course course = admin.findCourse(body.getInt());
+                if (user != null && course != null) {
+                    if (type == ENROLL) {
+                        user.join(course);
+                    } else {
+                        user.leave(course);
+                    }
+                }
+                break;
+            }
+            case SET_GRADE: {
+                Course course = admin.findCourse(body.getInt());
+                User user = admin.findUser(body.getInt());
+                int grade = body.getInt();
+                if (course != null && user instanceof Student) {
+                    course.setGrade((Student) user, grade);
+                }
+                break;
+            }
+            case SET_CAPACITY: {
+                Course course = admin.findCourse(body.getInt());
+                int capacity = body.getInt();
+                if (course != null) {
+                    course.restoreCapacity(capacity);
+                }
+                break;
+            }
+            case WAITLIST: {
+                User user = admin.findUser(body.getInt());
+                Course course = admin.findCourse(body.getInt());
+                if (user instanceof Student && course != null) {
+                    ((Student) user).joinWaitlist(course);
+                }
+                break;
+            }
+            case SET_CREDENTIAL: {
+                int id = body.getInt();
+                String credential = getString(body);
+                User user = admin.findUser(id);
+                if (id == ADMINISTRATOR_ID) {
+                    admin.restoreAdministratorCredential(credential);
+                } else if (user != null) {
+                    user.setCredential(credential);
+                }
+                break;
+            }
+            case SET_MEETINGS: {
+                Course course = admin.findCourse(body.getInt());
+                List<Meeting> meetings = new ArrayList<>();
+                for (int i = body.getInt(); i > 0; i--) {
+                    int day = body.getInt();
+                    int start = body.getInt();
+                    int end = body.getInt();
+                    meetings.add(new Meeting(day, start, end, getString(body)));
+                }
+                if (course != null) {
+                    admin.restoreMeetings(course, Collections.unmodifiableList(meetings));
+                }
+                break;
+            }
+            case BEGIN_TERM:
+                admin.replayBeginTerm(getString(body));
+                break;
+            case TERM_ROW: {
+                int student = body.getInt();
+                int course = body.getInt();
+                admin.replayTermRow(student, course, body.getInt());
+                break;
+            }
+            case CLOSE_TERM:
+                admin.replayCloseTerm(getString(body));
+                break;
+            default:
+                // Written by a newer version; skipping keeps older records usable
+                break;
+        }
+    }
+
+    private void createUser(byte type, User user) {
+        if (channel == null) {
+            return;
+        }
+        byte[] name = utf8(user.getName());
+        byte[] username = utf8(user.getUsername());
+        byte[] credential = utf8(user.getCredential());
+        lock.lock();
+        try {
+            ByteBuffer out = begin(type, Integer.BYTES * 4 + name.length + username.length + credential.length);
+            out.putInt(user.getId());
+            putBytes(out, name);
+            putBytes(out, username);
+            putBytes(out, credential);
+            end(out);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    private void record(byte type, int a, int b, int c, int fields) {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            ByteBuffer out = begin(type, Integer.BYTES * fields);
+            out.putInt(a);
+            if (fields > 1) {
+                out.putInt(b);
+            }
+            if (fields > 2) {
+                out.putInt(c);
+            }
+            end(out);
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    // One single-field record of the given type per id
+    private void records(byte type, int[] ids) {
+        if (channel == null || ids.length == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (int id : ids) {
+                ByteBuffer out = begin(type, Integer.BYTES);
+                out.putInt(id);
+                end(out);
+            }
+        } finally {
+            lock.unlock();
+        }
+        acknowledge();
+    }
+
+    // Reserves room for one record and writes its header; caller holds the lock.
+    // The flusher may have swapped buffers, so callers write through the result
+    private ByteBuffer begin(byte type, int payload) {
+        if (failed != null) {
+            throw new UncheckedIOException("Journal failed earlier", failed);
+        }
+        if (closed) {
+            throw new UncheckedIOException(new IOException("Journal is closed"));
+        }
+        int body = Long.BYTES + 1 + payload;
+        int needed = Integer.BYTES * 2 + body;
+        if (pending.remaining() < needed) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        recordStart = pending.position();
+        pending.putInt(body);
+        pending.putLong(++sequence);
+        pending.put(type);
+        return pending;
+    }
+
+    private void end(ByteBuffer out) {
+        ByteBuffer body = out.duplicate();
+        body.flip();
+        body.position(recordStart + Integer.BYTES);
+        crc.reset();
+        crc.update(body);
+        out.putInt((int) crc.getValue());
+        deferrals.get().owed = sequence;
+        // Wake the flusher to start the batch timer, and again when the batch is full
+        if (++pendingRecords == 1 || pendingRecords >= syncEvery) {
+            batchReady.signal();
+        }
+    }
+
+    // Waits for this thread's newest record unless its waits are deferred
+    private void acknowledge() {
+        Deferral deferral = deferrals.get();
+        if (deferral.depth > 0) {
+            return;
+        }
+        long target = deferral.owed;
+        deferral.owed = 0;
+        if (waitForDurable) {
+            awaitDurable(target);
+        }
+    }
+
+    // Group commit: with no batch being written, the waiter writes the pending
+    // one itself; otherwise it waits, and the records appended meanwhile go in
+    // the next batch
+    private void awaitDurable(long target) {
+        lock.lock();
+        try {
+            while (durableSequence < target && !closed && failed == null) {
+                if (writing) {
+                    durable.awaitUninterruptibly();
+                } else {
+                    writeBatch();
+                }
+            }
+            if (durableSequence < target && failed != null) {
+                throw new UncheckedIOException("Journal write failed", failed);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal write failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (!closed) {
+                while (!closed && pendingRecords == 0) {
+                    batchReady.await();
+                }
+                long deadline = System.nanoTime() + syncNanos;
+                while (!closed && pendingRecords < syncEvery) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    batchReady.awaitNanos(wait);
+                }
+                if (failed != null) {
+                    // Already reported; nothing more is written
+                    discardPending();
+                } else if (pendingRecords > 0) {
+                    try {
+                        writeBatch();
+                    } catch (IOException e) {
+                        System.out.println("Error writing journal: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Swaps in the spare buffer so appenders keep going while this batch is
+    // written and forced; caller holds the lock, which is released for the I/O
+    private void writeBatch() throws IOException {
+        while (writing) {
+            durable.awaitUninterruptibly();
+        }
+        if (failed != null) {
+            discardPending();
+            throw new IOException("Journal failed earlier: " + failed, failed);
+        }
+        if (pendingRecords == 0) {
+            return;
+        }
+        ByteBuffer batch = pending;
+        long batchSequence = sequence;
+        int records = pendingRecords;
+        pending = spare;
+        spare = null;
+        pendingRecords = 0;
+        writing = true;
+        batch.flip();
+        long written = batch.remaining();
+        inFlight = written;
+        FileChannel target = channel;
+        lock.unlock();
+        long start = SYNC.start();
+        IOException failure = null;
+        boolean done = false;
+        try {
+            while (batch.hasRemaining()) {
+                target.write(batch);
+            }
+            target.force(false);
+            SYNC.record(start);
+            RECORDS.add(records);
+            BYTES.add(written);
+            done = true;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.lock();
+            writing = false;
+            batch.clear();
+            spare = batch;
+            inFlight = 0;
+            if (done) {
+                fileSize += written;
+                durableSequence = Math.max(durableSequence, batchSequence);
+            } else {
+                failed = failure != null ? failure : new IOException("Journal write did not complete");
+                discardPending();
+                // Best effort: a torn batch at the end is skipped by replay anyway
+                try {
+                    target.truncate(fileSize);
+                } catch (IOException e) {
+                    failed.addSuppressed(e);
+                }
+            }
+            durable.signalAll();
+        }
+    }
+
+    // Drops records appended after a failure; caller holds the lock
+    private void discardPending() {
+        pending.clear();
+        pendingRecords = 0;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A thread's defer() depth and the newest record it appended since
+    private static final class Deferral {
+        int depth;
+        long owed;
+    }
+
+    // A checkpoint boundary: the newest sequence and the journal length at that point
+    static final class Mark {
+        final long sequence;
+        final long offset;
+
+        Mark(long sequence, long offset) {
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+    }
+}
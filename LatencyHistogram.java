@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// LatencyHistogram class
+// Concurrent histogram of durations in nanoseconds, laid out like an HDR
+// histogram: values below 128 get a bucket each, and every power of two above
+// that is split into 64 buckets, so any recorded value is known to within
+// 1/64 (under 2%) from 1 ns up to MAX_VALUE, in 2240 buckets. Recording is
+// one atomic increment (plus a rare compare-and-set for a new maximum) and
+// allocates nothing; larger values count as MAX_VALUE. Percentiles come from a
+// Snapshot, which copies the counts once.
+final class LatencyHistogram {
+    // About 18 minutes
+    static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_HALF = 1 << SUB_BITS;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        counts.getAndIncrement(index(value));
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, max.get());
+    }
+
+    // Values v < 128 map to v; above, the top 7 significant bits pick the bucket
+    static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_HALF + (int) (value >>> shift);
+    }
+
+    // Largest value that maps to bucket i
+    static long highestIn(int i) {
+        int shift = Math.max(0, i / SUB_HALF - 1);
+        long sub = i - (long) shift * SUB_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    static long lowestIn(int i) {
+        int shift = Math.max(0, i / SUB_HALF - 1);
+        return (i - (long) shift * SUB_HALF) << shift;
+    }
+
+    // Counts as of one moment; recording meanwhile may have moved some along
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+        private final double mean;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long total = 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                sum += counts[i] * ((lowestIn(i) + highestIn(i)) / 2.0);
+            }
+            this.count = total;
+            this.max = max;
+            this.mean = total == 0 ? Double.NaN : sum / total;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        // Bucket midpoints, so within the bucket error
+        public double getMean() {
+            return mean;
+        }
+
+        // The value at or below which percentile % of the records fall,
+        // reported as the top of its bucket but never above the maximum; 0
+        // if nothing was recorded
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        // This snapshot less an earlier one of the same histogram: what was
+        // recorded in between (the maximum is this snapshot's)
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta, max);
+        }
+    }
+}
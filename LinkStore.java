@@ -0,0 +1,412 @@
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ToIntFunction;
+
+// LinkStore class
+// Insertion-ordered set of students or courses that stores only their ids,
+// for the enrollment links: rosters, waitlists and a user's courses. The ids
+// live in packed int columns, like GradeStore's: an open-addressing hash
+// column for membership, with each id's place in an order column that keeps
+// insertion order. A removal leaves a hole in the order column, which the
+// next append that finds it full squeezes out into a new column. Elements are
+// views resolved through the admin's Table of that kind, bound when the owner
+// is registered; ids the table no longer holds are skipped.
+//
+// Writers take a StampedLock; contains() and size() read optimistically.
+// Iteration takes no lock: it walks the order column it started on, which is
+// only ever appended to or punched with holes, so it is weakly consistent
+// like ConcurrentOrderedSet's. Columns go off the heap at the same size as
+// GradeStore's (-Dsms.grades.offHeapSlots).
+class LinkStore<E> extends AbstractSet<E> {
+    private static final int FREE = -1;
+    private static final int MIN_CAPACITY = 8;
+    private static final Order EMPTY = new Order(0);
+
+    // Dense id -> entity map of one admin, shared by every store of a kind
+    static final class Table<E> {
+        private final Class<E> type;
+        private final ToIntFunction<E> ids;
+        private volatile AtomicReferenceArray<E> entities = new AtomicReferenceArray<>(64);
+
+        Table(Class<E> type, ToIntFunction<E> ids) {
+            this.type = type;
+            this.ids = ids;
+        }
+
+        E get(int id) {
+            AtomicReferenceArray<E> current = entities;
+            return id >= 0 && id < current.length() ? current.get(id) : null;
+        }
+
+        // Called before the entity goes into the admin's id maps, so anyone
+        // who can link it can also resolve it
+        synchronized void put(E entity) {
+            int id = ids.applyAsInt(entity);
+            AtomicReferenceArray<E> current = entities;
+            if (id >= current.length()) {
+                AtomicReferenceArray<E> grown = new AtomicReferenceArray<>(Math.max(id + 1, current.length() * 2));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                entities = grown;
+                current = grown;
+            }
+            current.set(id, entity);
+        }
+
+        synchronized void remove(E entity) {
+            entities.compareAndSet(ids.applyAsInt(entity), entity, null);
+        }
+
+        int idOf(Object element) {
+            return type.isInstance(element) ? ids.applyAsInt(type.cast(element)) : FREE;
+        }
+    }
+
+    // Ids in insertion order, FREE where one was removed. Only [head, end)
+    // can hold ids; a full column is replaced, never rewritten in place.
+    private static final class Order {
+        final IntBuffer ids;
+        volatile int head;
+        volatile int end;
+
+        Order(int capacity) {
+            ids = GradeStore.column(capacity);
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table<E> table;
+    // Allocated on the first add; slots of keys hold ids, the same slots of
+    // positions their index in the order column
+    private IntBuffer keys;
+    private IntBuffer positions;
+    private int size;
+    private volatile Order order = EMPTY;
+
+    // Owners call this once, when the admin registers them or reads them
+    // from a snapshot, before any element is added
+    void bind(Table<E> table) {
+        this.table = table;
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int result = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        Table<E> current = table;
+        int id = current == null ? FREE : current.idOf(element);
+        return id != FREE && containsId(id);
+    }
+
+    public boolean containsId(int id) {
+        long stamp = lock.tryOptimisticRead();
+        boolean result = probe(keys, id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = probe(keys, id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean add(E element) {
+        Table<E> current = table;
+        if (current == null) {
+            throw new IllegalStateException("Link store is not bound to a table");
+        }
+        int id = current.idOf(element);
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid id: " + id);
+        }
+        long stamp = lock.writeLock();
+        try {
+            return insert(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean insert(int id) {
+        if (keys == null) {
+            keys = GradeStore.column(MIN_CAPACITY);
+            positions = GradeStore.column(MIN_CAPACITY);
+            fill(keys, FREE);
+        } else if (find(id) >= 0) {
+            return false;
+        }
+        Order current = order;
+        int end = current.end;
+        if (end == current.ids.capacity()) {
+            current = compact(current);
+            end = current.end;
+        }
+        int mask = keys.capacity() - 1;
+        int slot = mix(id) & mask;
+        while (keys.get(slot) != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        keys.put(slot, id);
+        positions.put(slot, end);
+        current.ids.put(end, id);
+        // Publishes the id to iterators already walking this column
+        current.end = end + 1;
+        if (++size * 4 > keys.capacity() * 3) {
+            rehash(keys.capacity() * 2);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        Table<E> current = table;
+        int id = current == null ? FREE : current.idOf(element);
+        return id != FREE && removeId(id);
+    }
+
+    public boolean removeId(int id) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean delete(int id) {
+        int slot = keys == null ? -1 : find(id);
+        if (slot < 0) {
+            return false;
+        }
+        Order current = order;
+        int position = positions.get(slot);
+        current.ids.put(position, FREE);
+        if (position == current.head) {
+            int head = position + 1;
+            while (head < current.end && current.ids.get(head) == FREE) {
+                head++;
+            }
+            current.head = head;
+        }
+        int mask = keys.capacity() - 1;
+        // Backward-shift deletion, as in GradeStore
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        int key;
+        while ((key = keys.get(next)) != FREE) {
+            int home = mix(key) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys.put(gap, key);
+                positions.put(gap, positions.get(next));
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys.put(gap, FREE);
+        size--;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            keys = null;
+            positions = null;
+            size = 0;
+            order = EMPTY;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // The oldest element, or null; what a waitlist promotes next
+    public E first() {
+        Table<E> current = table;
+        Order o = order;
+        int end = o.end;
+        for (int i = o.head; i < end; i++) {
+            int id = o.ids.get(i);
+            E element = id == FREE || current == null ? null : current.get(id);
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    // Consistent copy of the ids in insertion order, for snapshots
+    public int[] ids() {
+        long stamp = lock.readLock();
+        try {
+            Order o = order;
+            int[] result = new int[size];
+            int n = 0;
+            for (int i = o.head; i < o.end; i++) {
+                int id = o.ids.get(i);
+                if (id != FREE) {
+                    result[n++] = id;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Table<E> current = table;
+        Order o = order;
+        return new Iterator<E>() {
+            private int index = o.head;
+            private E next;
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && current != null && index < o.end) {
+                    int id = o.ids.get(index++);
+                    if (id != FREE) {
+                        next = current.get(id);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = null;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                LinkStore.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    // Moves the live ids of a full order column to the front of a new one,
+    // twice as large if they filled more than half of it, and points the
+    // hash column at their new places
+    private Order compact(Order full) {
+        int capacity = Math.max(MIN_CAPACITY, full.ids.capacity());
+        if (size * 2 > capacity) {
+            capacity *= 2;
+        }
+        Order fresh = new Order(capacity);
+        int end = 0;
+        for (int i = full.head; i < full.end; i++) {
+            int id = full.ids.get(i);
+            if (id != FREE) {
+                fresh.ids.put(end, id);
+                positions.put(find(id), end);
+                end++;
+            }
+        }
+        fresh.end = end;
+        order = fresh;
+        return fresh;
+    }
+
+    // Tolerates columns torn by a concurrent rehash: the caller validates the
+    // stamp and retries, so this only has to terminate without throwing
+    private static boolean probe(IntBuffer keys, int id) {
+        if (keys == null) {
+            return false;
+        }
+        int mask = keys.capacity() - 1;
+        int slot = mix(id) & mask;
+        for (int i = 0; i <= mask; i++) {
+            int key = keys.get(slot);
+            if (key == id) {
+                return true;
+            }
+            if (key == FREE) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private int find(int id) {
+        int mask = keys.capacity() - 1;
+        int slot = mix(id) & mask;
+        int key;
+        while ((key = keys.get(slot)) != FREE) {
+            if (key == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        IntBuffer oldKeys = keys;
+        IntBuffer oldPositions = positions;
+        keys = GradeStore.column(capacity);
+        positions = GradeStore.column(capacity);
+        fill(keys, FREE);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.capacity(); i++) {
+            int key = oldKeys.get(i);
+            if (key != FREE) {
+                int slot = mix(key) & mask;
+                while (keys.get(slot) != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys.put(slot, key);
+                positions.put(slot, oldPositions.get(i));
+            }
+        }
+    }
+
+    private static void fill(IntBuffer column, int value) {
+        for (int i = 0; i < column.capacity(); i++) {
+            column.put(i, value);
+        }
+    }
+
+    // Ids are dense and sequential, so spread them before masking
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// LinkStressTest class
+// Checks the concurrent link structures under contention. First many threads
+// add and remove overlapping elements of one ConcurrentOrderedSet, which must
+// end with its hash and its order agreeing, and the same of a LinkStore, whose
+// iterators and head reads run alongside the writers. Then dozens of threads enroll,
+// drop and delete students and courses in small capped courses, replacing
+// what they delete, and once they stop every link must be there from both
+// sides, nothing deleted may still be linked, no roster may be over its
+// capacity and nobody may wait for a free seat. A check deletes the only
+// student of a full course and expects the head of its waitlist to move up.
+// The term checks close a term and then admit, close terms while threads
+// enroll, drop and grade (the journal must replay to the same courses), and
+// replay a close that a crash cut short before its segment was written.
+// Prints each broken invariant and exits with 1 if there was any.
+//
+//   java LinkStressTest [threads] [seconds] [students] [courses] [capacity]
+public class LinkStressTest {
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int studentCount = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        int courseCount = args.length > 3 ? Integer.parseInt(args[3]) : 24;
+        int capacity = args.length > 4 ? Integer.parseInt(args[4]) : 12;
+
+        // Fixtures create accounts by the hundred; the password hash is not what this checks
+        Credentials.setIterations(1);
+        orderedSet(threads);
+        linkStore(threads);
+        links(threads, seconds, studentCount, courseCount, capacity);
+        deletePromotes();
+        Path dir = Files.createTempDirectory("link-stress");
+        closeThenAdmit(dir);
+        closeDuringChurn(dir, threads, seconds, studentCount, courseCount, capacity);
+        closeCutShort(dir);
+
+        if (failures.isEmpty()) {
+            System.out.println("All invariants hold.");
+        } else {
+            for (String failure : failures.subList(0, Math.min(50, failures.size()))) {
+                System.out.println("FAIL " + failure);
+            }
+            System.out.println(failures.size() + " invariants broken.");
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            synchronized (failures) {
+                failures.add(what);
+            }
+        }
+    }
+
+    // Every thread adds and removes the same small range of keys
+    private static void orderedSet(int threads) throws InterruptedException {
+        ConcurrentOrderedSet<Integer> set = new ConcurrentOrderedSet<>();
+        run(threads, index -> {
+            SplittableRandom random = new SplittableRandom(index);
+            for (int i = 0; i < 200_000; i++) {
+                Integer key = random.nextInt(64);
+                if (random.nextBoolean()) {
+                    set.add(key);
+                } else {
+                    set.remove(key);
+                }
+            }
+        });
+        Set<Integer> seen = new HashSet<>();
+        for (Integer key : set) {
+            check(seen.add(key), "ordered set iterates " + key + " twice");
+            check(set.contains(key), "ordered set iterates " + key + " but does not contain it");
+        }
+        check(seen.size() == set.size(), "ordered set has size " + set.size() + " but iterates " + seen.size());
+        System.out.println("Ordered set: " + set.size() + " keys left.");
+    }
+
+    // As orderedSet, with every fourth thread iterating instead; then a
+    // single thread checks that holes keep insertion order
+    private static void linkStore(int threads) throws InterruptedException {
+        LinkStore.Table<Integer> table = new LinkStore.Table<>(Integer.class, Integer::intValue);
+        for (int key = 0; key < 1000; key++) {
+            table.put(key);
+        }
+        LinkStore<Integer> store = new LinkStore<>();
+        store.bind(table);
+        run(threads, index -> {
+            SplittableRandom random = new SplittableRandom(index);
+            for (int i = 0; i < 200_000; i++) {
+                if (index % 4 == 0) {
+                    // A key removed and added again mid-walk may show up
+                    // twice, as in ConcurrentOrderedSet; only its range is checked
+                    for (Integer key : store) {
+                        check(key >= 0 && key < 64, "link store iterates " + key + ", never added");
+                    }
+                    Integer first = store.first();
+                    check(first == null || first < 64, "link store head " + first + " was never added");
+                    i += 1000;
+                    continue;
+                }
+                Integer key = random.nextInt(64);
+                if (random.nextBoolean()) {
+                    store.add(key);
+                } else {
+                    store.remove(key);
+                }
+            }
+        });
+        Set<Integer> seen = new HashSet<>();
+        for (Integer key : store) {
+            check(seen.add(key), "link store iterates " + key + " twice");
+            check(store.contains(key), "link store iterates " + key + " but does not contain it");
+        }
+        check(seen.size() == store.size(), "link store has size " + store.size() + " but iterates " + seen.size());
+        check(store.ids().length == store.size(), "link store has size " + store.size()
+                + " but holds " + store.ids().length + " ids");
+        int left = store.size();
+
+        store.clear();
+        for (int key = 0; key < 1000; key++) {
+            store.add(key);
+        }
+        for (int key = 0; key < 1000; key += 2) {
+            store.remove(key);
+        }
+        store.add(0);
+        List<Integer> expected = new ArrayList<>();
+        for (int key = 1; key < 1000; key += 2) {
+            expected.add(key);
+        }
+        expected.add(0);
+        check(new ArrayList<>(store).equals(expected), "link store lost insertion order across holes");
+        check(Integer.valueOf(1).equals(store.first()), "link store head is " + store.first() + ", not 1");
+        System.out.println("Link store: " + left + " keys left.");
+    }
+
+    private static void links(int threads, int seconds, int studentCount, int courseCount, int capacity)
+            throws InterruptedException {
+        Admin admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        AtomicReferenceArray<Student> students = new AtomicReferenceArray<>(studentCount);
+        AtomicReferenceArray<Course> courses = new AtomicReferenceArray<>(courseCount);
+        AtomicInteger created = new AtomicInteger();
+        for (int i = 0; i < studentCount; i++) {
+            students.set(i, admin.addStudent("Student " + i, "s" + created.getAndIncrement(), "pw"));
+        }
+        for (int i = 0; i < courseCount; i++) {
+            courses.set(i, cappedCourse(admin, "Course " + i, capacity));
+        }
+        Output.unbind();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicInteger operations = new AtomicInteger();
+        run(threads, index -> {
+            Output.bind(new Render(OutputStream.nullOutputStream()));
+            SplittableRandom random = new SplittableRandom(1000 + index);
+            while (System.nanoTime() < deadline) {
+                for (int n = 0; n < 100; n++) {
+                    int slot = random.nextInt(studentCount);
+                    Student student = students.get(slot);
+                    int courseSlot = random.nextInt(courseCount);
+                    Course course = courses.get(courseSlot);
+                    int roll = random.nextInt(100);
+                    if (roll < 50) {
+                        student.admit(course);
+                    } else if (roll < 90) {
+                        student.drop(course);
+                    } else if (roll < 98) {
+                        // Replaced first, so other threads go on finding a live one
+                        Student replacement = admin.addStudent("Student " + slot, "s" + created.getAndIncrement(), "pw");
+                        if (students.compareAndSet(slot, student, replacement)) {
+                            admin.deleteStudents(List.of(student));
+                        } else {
+                            admin.deleteStudents(List.of(replacement));
+                        }
+                    } else {
+                        Course replacement = cappedCourse(admin, "Course " + courseSlot, capacity);
+                        if (courses.compareAndSet(courseSlot, course, replacement)) {
+                            admin.deleteCourses(List.of(course));
+                        } else {
+                            admin.deleteCourses(List.of(replacement));
+                        }
+                    }
+                }
+                operations.addAndGet(100);
+            }
+        });
+        System.out.printf("Links: %d operations on %d threads, %d students created.%n",
+                operations.get(), threads, created.get());
+
+        checkLinks(admin);
+    }
+
+    // Both sides of every link agree, nothing deleted is linked, and no
+    // course is over capacity or has a free seat while someone waits
+    private static void checkLinks(Admin admin) {
+        for (Student student : admin.students) {
+            check(!student.isDeleted(), student.getUsername() + " is deleted but listed");
+            for (Course course : student.getCourses()) {
+                check(!course.isDeleted(), student.getUsername() + " holds deleted " + course.getName());
+                check(course.getStudents().contains(student),
+                        student.getUsername() + " holds " + course.getName() + " without a roster entry");
+            }
+            for (Course course : student.getWaitlisted()) {
+                check(course.getWaitlist().contains(student),
+                        student.getUsername() + " waits for " + course.getName() + " without a waitlist entry");
+                check(!course.getStudents().contains(student),
+                        student.getUsername() + " both holds and waits for " + course.getName());
+            }
+        }
+        for (Course course : admin.courses) {
+            check(!course.isDeleted(), course.getName() + " is deleted but listed");
+            int seated = 0;
+            for (Student student : course.getStudents()) {
+                seated++;
+                check(!student.isDeleted(), course.getName() + " seats deleted " + student.getUsername());
+                check(student.getCourses().contains(course),
+                        course.getName() + " seats " + student.getUsername() + " without the student's link");
+            }
+            check(seated == course.getStudents().size(), course.getName() + " roster size disagrees with iteration");
+            check(seated <= course.getCapacity(), course.getName() + " seats " + seated + " of " + course.getCapacity());
+            check(course.getWaitlist().isEmpty() || !course.hasOpenSeat(),
+                    course.getName() + " has a free seat and " + course.getWaitlist().size() + " waiting");
+            for (Student student : course.getWaitlist()) {
+                check(!student.isDeleted(), course.getName() + " waitlists deleted " + student.getUsername());
+                check(student.getWaitlisted().contains(course),
+                        course.getName() + " waitlists " + student.getUsername() + " without the student's link");
+            }
+        }
+    }
+
+    // The seat a deleted student held goes to the head of the waitlist
+    private static void deletePromotes() {
+        Admin admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        Course course = cappedCourse(admin, "Full", 1);
+        Student seated = admin.addStudent("Seated", "seated", "pw");
+        Student first = admin.addStudent("First", "first", "pw");
+        Student second = admin.addStudent("Second", "second", "pw");
+        seated.admit(course);
+        first.admit(course);
+        second.admit(course);
+        admin.deleteStudents(List.of(seated));
+        Output.unbind();
+        check(course.getStudents().equals(Set.of(first)) && first.getCourses().contains(course),
+                "deleting the seated student did not promote the head of the waitlist");
+        check(course.getWaitlist().equals(Set.of(second)), "the rest of the waitlist did not stay");
+    }
+
+    // A close empties the rosters and seats the waitlists, and every admit
+    // afterwards reports the outcome it had
+    private static void closeThenAdmit(Path dir) throws IOException {
+        Admin admin = new Admin();
+        admin.setTerms(TermArchive.open(dir.resolve("admit")));
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        Course course = cappedCourse(admin, "Full", 2);
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(admin.addStudent("Student " + i, "admit" + i, "pw"));
+            students.get(i).admit(course);
+        }
+        course.setGrade(students.get(0), 90);
+        TermSegment term = admin.closeTerm("Spring");
+        check(term != null && term.getRowCount() == 2, "the close did not archive both seats");
+        check(course.getGrade(students.get(0)) == GradeStore.NO_GRADE, "an archived grade stayed in the course");
+        check(course.getStudents().equals(Set.of(students.get(2), students.get(3))),
+                "the close did not seat the head of the waitlist");
+        check(course.getWaitlist().equals(Set.of(students.get(4))), "the rest of the waitlist did not stay");
+        for (int i = 0; i < 3; i++) {
+            Student late = admin.addStudent("Late " + i, "late" + i, "pw");
+            Course.Admission admission = late.admit(course);
+            check((admission == Course.Admission.ENROLLED) == course.getStudents().contains(late),
+                    "admit after a close returned " + admission + " for " + late.getUsername());
+            students.get(2 + i % 2).drop(course);
+        }
+        Output.unbind();
+        checkLinks(admin);
+    }
+
+    // Terms close while threads enroll, drop and grade; afterwards the
+    // journal must replay to the same courses and grades
+    private static void closeDuringChurn(Path dir, int threads, int seconds, int studentCount, int courseCount,
+            int capacity) throws Exception {
+        Path terms = dir.resolve("churn");
+        Path journalPath = dir.resolve("churn.wal");
+        Admin admin = new Admin();
+        admin.setTerms(TermArchive.open(terms));
+        Journal journal = Journal.open(journalPath, 0, 64, 5, false);
+        Journal.install(journal);
+        AtomicInteger closed = new AtomicInteger();
+        try {
+            Output.bind(new Render(OutputStream.nullOutputStream()));
+            Student[] students = new Student[studentCount];
+            Course[] courses = new Course[courseCount];
+            for (int i = 0; i < studentCount; i++) {
+                students[i] = admin.addStudent("Student " + i, "churn" + i, "pw");
+            }
+            for (int i = 0; i < courseCount; i++) {
+                courses[i] = cappedCourse(admin, "Course " + i, capacity);
+            }
+            Output.unbind();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            run(threads + 1, index -> {
+                Output.bind(new Render(OutputStream.nullOutputStream()));
+                if (index == threads) {
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            check(admin.closeTerm("Term " + closed.incrementAndGet()) != null, "a close was refused");
+                            Thread.sleep(50);
+                        } catch (IOException | InterruptedException e) {
+                            check(false, "closing a term threw " + e);
+                            return;
+                        }
+                    }
+                    return;
+                }
+                SplittableRandom random = new SplittableRandom(2000 + index);
+                while (System.nanoTime() < deadline) {
+                    Student student = students[random.nextInt(studentCount)];
+                    Course course = courses[random.nextInt(courseCount)];
+                    int roll = random.nextInt(100);
+                    if (roll < 50) {
+                        student.admit(course);
+                    } else if (roll < 75) {
+                        student.drop(course);
+                    } else {
+                        course.setGrade(student, random.nextInt(101));
+                    }
+                }
+            });
+            journal.sync();
+        } finally {
+            Journal.install(null);
+            journal.close();
+        }
+        System.out.println("Terms: " + closed.get() + " closed while " + threads + " threads changed courses.");
+        checkLinks(admin);
+
+        Admin replayed = new Admin();
+        replayed.setTerms(TermArchive.open(terms));
+        Journal.replay(replayed, journalPath);
+        check(state(replayed).equals(state(admin)), "the journal does not replay to the courses after the closes");
+    }
+
+    // A crash after a close's rows are journaled but before its segment is
+    // written: replay removes the rows and writes the segment
+    private static void closeCutShort(Path dir) throws IOException {
+        Path journalPath = dir.resolve("cut.wal");
+        Admin admin = new Admin();
+        admin.setTerms(TermArchive.open(dir.resolve("cut")));
+        Journal journal = Journal.open(journalPath, 0, 64, 5);
+        Journal.install(journal);
+        try {
+            Output.bind(new Render(OutputStream.nullOutputStream()));
+            Course course = admin.addCourse("Open");
+            for (int i = 0; i < 10; i++) {
+                Student student = admin.addStudent("Student " + i, "cut" + i, "pw");
+                student.admit(course);
+                course.setGrade(student, 50 + i);
+            }
+            Output.unbind();
+            admin.closeTerm("Fall");
+        } finally {
+            Journal.install(null);
+            journal.close();
+        }
+        // Cut the CLOSE_TERM record, the last one: length, sequence, type, name, CRC
+        int name = "Fall".getBytes(StandardCharsets.UTF_8).length;
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - (Integer.BYTES + Long.BYTES + 1 + Integer.BYTES + name + Integer.BYTES));
+        }
+        Admin replayed = new Admin();
+        replayed.setTerms(TermArchive.open(dir.resolve("cut-replayed")));
+        Journal.replay(replayed, journalPath);
+        TermSegment term = replayed.getTerms().find("Fall");
+        check(term != null && term.getRowCount() == 10, "replay did not write the segment of a cut-short close");
+        check(state(replayed).equals(state(admin)), "replay of a cut-short close left other courses");
+    }
+
+    // Seats, waitlist order and grades of every course, by course id
+    private static String state(Admin admin) {
+        Map<Integer, String> courses = new TreeMap<>();
+        for (Course course : admin.courses) {
+            int[] seated = course.getStudents().stream().mapToInt(Student::getId).sorted().toArray();
+            int[] waiting = course.getWaitlist().stream().mapToInt(Student::getId).toArray();
+            int[][] table = course.getGradeTable();
+            Map<Integer, Integer> grades = new TreeMap<>();
+            for (int i = 0; i < table[0].length; i++) {
+                grades.put(table[0][i], table[1][i]);
+            }
+            courses.put(course.getId(), Arrays.toString(seated) + " " + Arrays.toString(waiting) + " " + grades);
+        }
+        return courses.toString();
+    }
+
+    private static Course cappedCourse(Admin admin, String name, int capacity) {
+        Course course = admin.addCourse(name);
+        course.setCapacity(capacity);
+        return course;
+    }
+
+    interface Task {
+        void run(int index);
+    }
+
+    // Runs task on that many threads, started together, and waits for them
+    private static void run(int threads, Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.run(index);
+                } catch (RuntimeException e) {
+                    check(false, "thread " + index + " threw " + e);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// LoadGenerator class
+// Synthetic production load for capacity planning and comparing builds. First
+// generates a school from a seed, so every run with the same arguments gets
+// the same data: students, teachers and courses, with course popularity
+// following a Zipf distribution (a few courses are very full, most are small)
+// and most enrollments graded around a B. Then worker threads drive a weighted
+// mix of operations against the domain core for a warm-up and a measured
+// period, and it reports the throughput and latency percentiles of each.
+//
+//   login       a username lookup and password check
+//   enroll      a student enrolls in a course picked by popularity
+//   drop        a student drops one of their courses
+//   grade       the course's teacher grades one of its students
+//   roster      a teacher lists a course picked by popularity
+//   transcript  a student lists their grades
+//
+// By default every worker runs operations back to back (a closed loop). With
+// -rate the workers together start that many operations per second on a fixed
+// schedule, and latency counts from each operation's scheduled start, so time
+// spent queued behind a slow operation is not hidden. -journal adds the cost
+// of a live journal.
+//
+// Generating goes through the same Admin calls as production, indexes and
+// analytics included, so a million students take minutes. -snapshot saves
+// the generated school (SchoolManagementSystem can load it like data.snap)
+// and -load runs on a saved one instead of generating; course popularity then
+// follows course id. Give the JVM a fixed heap (make bench does), or growing
+// it shows up as latency.
+//
+//   java LoadGenerator [-users n] [-courses n] [-teachers n] [-per n] [-skew s]
+//                      [-graded fraction] [-seed n] [-kdf iterations]
+//                      [-snapshot path | -load path] [-threads n]
+//                      [-warmup seconds] [-duration seconds] [-rate ops/s]
+//                      [-mix op=weight,...] [-journal] [-o results.csv]
+public class LoadGenerator {
+    enum Op {
+        LOGIN, ENROLL, DROP, GRADE, ROSTER, TRANSCRIPT
+    }
+
+    private static final String PASSWORD = "password";
+    private static final long SPIN_NANOS = 200_000L;
+    private static final String[] SUBJECTS = {
+        "Mathematics", "Science", "History", "Literature", "Physics", "Chemistry", "Biology",
+        "Economics", "Philosophy", "Art", "Music", "Geography", "Computing", "Statistics"
+    };
+
+    // Consumed results, so the JIT cannot drop the measured work
+    static volatile int sink;
+
+    private int users = 100_000;
+    private int courses = 2_000;
+    private int teachers = -1;
+    private int perStudent = 4;
+    private double skew = 0.8;
+    private double graded = 0.8;
+    private long seed = 42;
+    private int kdfIterations = 1;
+    private int threads = 8;
+    private int warmupSeconds = 5;
+    private int durationSeconds = 20;
+    private double rate;
+    private final int[] weights = {10, 15, 15, 20, 15, 25};
+    private boolean journaled;
+    private Path snapshot;
+    private Path saved;
+    private Path output;
+
+    private Admin admin;
+    private Student[] students;
+    private Zipf popularity;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "-users":
+                    generator.users = count(value);
+                    break;
+                case "-courses":
+                    generator.courses = Math.max(1, count(value));
+                    break;
+                case "-teachers":
+                    generator.teachers = Math.max(1, count(value));
+                    break;
+                case "-per":
+                    generator.perStudent = count(value);
+                    break;
+                case "-skew":
+                    generator.skew = Double.parseDouble(value);
+                    break;
+                case "-graded":
+                    generator.graded = Double.parseDouble(value);
+                    break;
+                case "-seed":
+                    generator.seed = Long.parseLong(value);
+                    break;
+                case "-kdf":
+                    generator.kdfIterations = count(value);
+                    break;
+                case "-threads":
+                    generator.threads = Math.max(1, count(value));
+                    break;
+                case "-warmup":
+                    generator.warmupSeconds = count(value);
+                    break;
+                case "-duration":
+                    generator.durationSeconds = count(value);
+                    break;
+                case "-rate":
+                    generator.rate = Double.parseDouble(value);
+                    break;
+                case "-mix":
+                    generator.mix(value);
+                    break;
+                case "-journal":
+                    generator.journaled = true;
+                    continue;
+                case "-snapshot":
+                    generator.snapshot = Path.of(value);
+                    break;
+                case "-load":
+                    generator.saved = Path.of(value);
+                    break;
+                case "-o":
+                    generator.output = Path.of(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        // Hashing a password per account at full strength would take hours at
+        // this scale; logins would also rehash a loaded school at any other count
+        Credentials.setIterations(generator.kdfIterations);
+        if (generator.saved != null) {
+            generator.load();
+        } else {
+            generator.generate();
+        }
+        if (generator.durationSeconds > 0) {
+            generator.drive();
+        }
+    }
+
+    private static int count(String value) {
+        return Integer.parseInt(value.trim().replace("_", ""));
+    }
+
+    // "enroll=30,drop=30"; operations left out keep their default weight
+    private void mix(String spec) {
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + pair);
+            }
+            weights[Op.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)).ordinal()] = count(parts[1]);
+        }
+    }
+
+    // Builds the school quietly, without journaling it
+    private void generate() throws IOException {
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+        admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        int teacherCount = teachers > 0 ? teachers : Math.max(1, courses / 2);
+        Teacher[] staff = new Teacher[teacherCount];
+        for (int i = 0; i < teacherCount; i++) {
+            staff[i] = admin.addTeacher("Teacher " + i, "t" + i, PASSWORD);
+        }
+        Course[] catalogue = new Course[courses];
+        for (int i = 0; i < courses; i++) {
+            catalogue[i] = admin.addCourse(SUBJECTS[i % SUBJECTS.length] + " " + (100 + i / SUBJECTS.length));
+            staff[i % teacherCount].assign(catalogue[i]);
+        }
+        popularity = new Zipf(catalogue, skew);
+        students = new Student[users];
+        long enrollments = 0;
+        for (int i = 0; i < users; i++) {
+            Student student = admin.addStudent("Student " + i, "s" + i, PASSWORD);
+            students[i] = student;
+            // Between 1 and 2 * perStudent - 1 picks, perStudent on average
+            int picks = perStudent == 0 ? 0 : 1 + random.nextInt(2 * perStudent - 1);
+            for (int n = 0; n < picks; n++) {
+                Course course = popularity.next(random.nextDouble());
+                if (student.admit(course) == Course.Admission.ENROLLED) {
+                    enrollments++;
+                    if (random.nextDouble() < graded) {
+                        course.setGrade(student, grade(random.nextGaussian()));
+                    }
+                }
+            }
+        }
+        Output.unbind();
+        System.out.printf("Generated %d students, %d teachers, %d courses and %d enrollments in %.1f s%n",
+                users, teacherCount, courses, enrollments, (System.nanoTime() - start) / 1e9);
+        if (snapshot != null) {
+            SnapshotFile.write(admin, 0, snapshot);
+            System.out.println("Saved to " + snapshot + ".");
+        }
+    }
+
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        admin = SnapshotFile.read(saved);
+        students = admin.students.toArray(new Student[0]);
+        Course[] catalogue = admin.courses.toArray(new Course[0]);
+        Arrays.sort(catalogue, Comparator.comparingInt(Course::getId));
+        if (students.length == 0 || catalogue.length == 0) {
+            throw new IOException("No students or courses in " + saved);
+        }
+        popularity = new Zipf(catalogue, skew);
+        System.out.printf("Loaded %d students and %d courses from %s in %.1f s%n",
+                students.length, catalogue.length, saved, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Mean 78, standard deviation 12, within 0..100
+    private static int grade(double gaussian) {
+        return (int) Math.max(0, Math.min(100, Math.round(78 + 12 * gaussian)));
+    }
+
+    private void drive() throws Exception {
+        LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        LongAdder failures = new LongAdder();
+        Path journalPath = null;
+        Journal journal = null;
+        if (journaled) {
+            journalPath = Files.createTempFile("load", ".wal");
+            journal = Journal.open(journalPath, 0, 64, 20);
+            Journal.install(journal);
+        }
+        Worker[] workers = new Worker[threads];
+        try {
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Worker(t, latencies, failures);
+                workers[t].thread.start();
+            }
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+            LatencyHistogram.Snapshot[] before = snapshots(latencies);
+            long failedBefore = failures.sum();
+            long began = System.nanoTime();
+            TimeUnit.SECONDS.sleep(durationSeconds);
+            LatencyHistogram.Snapshot[] after = snapshots(latencies);
+            double seconds = (System.nanoTime() - began) / 1e9;
+            long failed = failures.sum() - failedBefore;
+            for (Worker worker : workers) {
+                worker.stop = true;
+            }
+            for (Worker worker : workers) {
+                worker.thread.join();
+            }
+            report(before, after, seconds, failed);
+        } finally {
+            for (Worker worker : workers) {
+                if (worker != null) {
+                    worker.stop = true;
+                }
+            }
+            if (journal != null) {
+                Journal.install(null);
+                journal.close();
+                Files.deleteIfExists(journalPath);
+            }
+        }
+    }
+
+    private static LatencyHistogram.Snapshot[] snapshots(LatencyHistogram[] latencies) {
+        LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            snapshots[i] = latencies[i].snapshot();
+        }
+        return snapshots;
+    }
+
+    private void report(LatencyHistogram.Snapshot[] before, LatencyHistogram.Snapshot[] after,
+            double seconds, long failed) throws IOException {
+        System.out.printf("%d threads, %s, %.1f s measured after %d s warm-up%n", threads,
+                rate > 0 ? String.format("%.0f ops/s offered", rate) : "closed loop", seconds, warmupSeconds);
+        System.out.printf("%-12s %10s %10s %10s %10s %10s %10s %10s %10s%n", "Operation", "ops", "ops/s",
+                "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        StringBuilder csv = new StringBuilder("operation,ops,ops_per_s,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+        long total = 0;
+        for (Op op : Op.values()) {
+            LatencyHistogram.Snapshot measured = after[op.ordinal()].since(before[op.ordinal()]);
+            if (measured.getCount() == 0) {
+                continue;
+            }
+            total += measured.getCount();
+            String name = op.name().toLowerCase(Locale.ROOT);
+            double[] row = {measured.getCount() / seconds, measured.getMean() / 1e3,
+                measured.getPercentile(50) / 1e3, measured.getPercentile(90) / 1e3, measured.getPercentile(99) / 1e3,
+                measured.getPercentile(99.9) / 1e3, measured.getMax() / 1e3};
+            System.out.printf("%-12s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    name, measured.getCount(), row[0], row[1], row[2], row[3], row[4], row[5], row[6]);
+            csv.append(name).append(',').append(measured.getCount());
+            for (double value : row) {
+                csv.append(',').append(String.format(Locale.ROOT, "%.3f", value));
+            }
+            csv.append('\n');
+        }
+        System.out.printf("%-12s %10d %10.0f%n", "total", total, total / seconds);
+        if (failed > 0) {
+            System.out.println(failed + " operations failed.");
+        }
+        System.out.println("(sink " + sink + ")");
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output))) {
+                out.print(csv);
+            }
+        }
+    }
+
+    // Course picks by popularity rank: rank r (from 1) is chosen in
+    // proportion to 1 / r^skew
+    static final class Zipf {
+        private final Course[] courses;
+        private final double[] cumulative;
+
+        Zipf(Course[] courses, double skew) {
+            this.courses = courses;
+            this.cumulative = new double[courses.length];
+            double sum = 0;
+            for (int i = 0; i < courses.length; i++) {
+                sum += 1 / Math.pow(i + 1, skew);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < courses.length; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        // uniform is in [0, 1)
+        Course next(double uniform) {
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] <= uniform) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return courses[low];
+        }
+    }
+
+    // One simulated client thread with its own random stream and output
+    private final class Worker implements Runnable {
+        final Thread thread;
+        private final SplittableRandom random;
+        private final LatencyHistogram[] latencies;
+        private final LongAdder failures;
+        private final int totalWeight;
+        // Nanoseconds between this worker's scheduled starts; 0 for a closed loop
+        private final long interval;
+        volatile boolean stop;
+
+        Worker(int index, LatencyHistogram[] latencies, LongAdder failures) {
+            this.thread = new Thread(this, "load-" + index);
+            this.random = new SplittableRandom(seed * 31 + index);
+            this.latencies = latencies;
+            this.failures = failures;
+            int sum = 0;
+            for (int weight : weights) {
+                sum += weight;
+            }
+            this.totalWeight = sum;
+            this.interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Output.bind(new Render(OutputStream.nullOutputStream()));
+            // Workers start spread over one interval rather than all at once
+            long scheduled = System.nanoTime() + (interval == 0 ? 0 : random.nextLong(interval));
+            while (!stop) {
+                Op op = pick();
+                long start;
+                if (interval > 0) {
+                    // Parking oversleeps by tens of microseconds, which would
+                    // count as latency; the last stretch is spun instead
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > SPIN_NANOS) {
+                        LockSupport.parkNanos(wait - SPIN_NANOS);
+                    }
+                    while (System.nanoTime() < scheduled) {
+                        Thread.onSpinWait();
+                    }
+                    start = scheduled;
+                    scheduled += interval;
+                } else {
+                    start = System.nanoTime();
+                }
+                try {
+                    run(op);
+                } catch (RuntimeException e) {
+                    failures.increment();
+                }
+                latencies[op.ordinal()].record(System.nanoTime() - start);
+            }
+        }
+
+        private Op pick() {
+            int ticket = random.nextInt(totalWeight);
+            for (Op op : Op.values()) {
+                ticket -= weights[op.ordinal()];
+                if (ticket < 0) {
+                    return op;
+                }
+            }
+            return Op.LOGIN;
+        }
+
+        private void run(Op op) {
+            Student student = students[random.nextInt(students.length)];
+            switch (op) {
+                case LOGIN:
+                    sink += admin.authenticate(admin.findUser(student.getUsername()), PASSWORD) ? 1 : 0;
+                    break;
+                case ENROLL:
+                    view(() -> student.enroll(popularity.next(random.nextDouble())));
+                    break;
+                case DROP: {
+                    Course course = anyCourse(student);
+                    if (course != null) {
+                        view(() -> student.drop(course));
+                    }
+                    break;
+                }
+                case GRADE: {
+                    Course course = anyCourse(student);
+                    Teacher teacher = course == null ? null : course.getTeacher();
+                    if (teacher != null) {
+                        view(() -> teacher.assignGrade(student, course, grade(random.nextGaussian())));
+                    }
+                    break;
+                }
+                case ROSTER: {
+                    Course course = popularity.next(random.nextDouble());
+                    Teacher teacher = course.getTeacher();
+                    if (teacher != null) {
+                        view(() -> teacher.viewStudents(course));
+                    }
+                    break;
+                }
+                case TRANSCRIPT:
+                    view(student::checkGrades);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // A random one of the student's courses, or null if they have none
+        private Course anyCourse(Student student) {
+            int size = student.getCourses().size();
+            if (size == 0) {
+                return null;
+            }
+            Iterator<Course> courses = student.getCourses().iterator();
+            for (int skip = random.nextInt(size); skip > 0 && courses.hasNext(); skip--) {
+                courses.next();
+            }
+            return courses.hasNext() ? courses.next() : null;
+        }
+
+        // As one session request renders it: held, then written out
+        private void view(Runnable request) {
+            Render out = Output.out();
+            out.hold();
+            try {
+                request.run();
+            } finally {
+                out.release();
+            }
+        }
+    }
+}
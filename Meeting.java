@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+// Meeting class
+// One weekly meeting of a course: a day, a start and end time in minutes after
+// midnight, and a room. Meetings are immutable; a course's timetable is a list
+// of them, replaced as a whole. Written and parsed as "MON 09:00-10:15 R101",
+// and a timetable as such meetings separated by commas.
+final class Meeting {
+    static final String[] DAYS = {"MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN"};
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int day;
+    private final int start;
+    private final int end;
+    private final String room;
+
+    Meeting(int day, int start, int end, String room) {
+        if (day < 0 || day >= DAYS.length) {
+            throw new IllegalArgumentException("Invalid day: " + day);
+        }
+        if (start < 0 || end > MINUTES_PER_DAY || start >= end) {
+            throw new IllegalArgumentException("Invalid time: " + time(start) + "-" + time(end));
+        }
+        if (room.isEmpty() || room.indexOf(',') >= 0 || room.indexOf('|') >= 0) {
+            throw new IllegalArgumentException("Invalid room: \"" + room + "\"");
+        }
+        this.day = day;
+        this.start = start;
+        this.end = end;
+        this.room = room;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    // Minutes since Monday 00:00, the axis of IntervalIndex
+    int weekStart() {
+        return day * MINUTES_PER_DAY + start;
+    }
+
+    int weekEnd() {
+        return day * MINUTES_PER_DAY + end;
+    }
+
+    // Times are half-open, so back-to-back meetings do not overlap
+    boolean overlaps(Meeting other) {
+        return weekStart() < other.weekEnd() && other.weekStart() < weekEnd();
+    }
+
+    Meeting inRoom(String room) {
+        return new Meeting(day, start, end, room);
+    }
+
+    // "MON 09:00-10:15 R101"; the room is the rest of the text
+    static Meeting parse(String text) {
+        String[] parts = text.trim().split("\\s+", 3);
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Expected \"DAY HH:MM-HH:MM ROOM\": " + text.trim());
+        }
+        int day = List.of(DAYS).indexOf(parts[0].toUpperCase(Locale.ROOT));
+        int dash = parts[1].indexOf('-');
+        if (day < 0 || dash < 0) {
+            throw new IllegalArgumentException("Expected \"DAY HH:MM-HH:MM ROOM\": " + text.trim());
+        }
+        return new Meeting(day, minutes(parts[1].substring(0, dash)), minutes(parts[1].substring(dash + 1)),
+                parts[2]);
+    }
+
+    // Comma-separated meetings; an empty text is an empty timetable. Rejects
+    // meetings of one course that overlap each other.
+    static List<Meeting> parseAll(String text) {
+        List<Meeting> meetings = new ArrayList<>();
+        if (!text.trim().isEmpty()) {
+            for (String part : text.split(",")) {
+                meetings.add(parse(part));
+            }
+        }
+        return checked(meetings);
+    }
+
+    static List<Meeting> checked(List<Meeting> meetings) {
+        for (int i = 0; i < meetings.size(); i++) {
+            for (int j = i + 1; j < meetings.size(); j++) {
+                if (meetings.get(i).overlaps(meetings.get(j))) {
+                    throw new IllegalArgumentException("Meetings overlap: " + meetings.get(i)
+                            + ", " + meetings.get(j));
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(meetings));
+    }
+
+    static String format(List<Meeting> meetings) {
+        StringBuilder out = new StringBuilder();
+        for (Meeting meeting : meetings) {
+            out.append(out.length() == 0 ? "" : ", ").append(meeting);
+        }
+        return out.toString();
+    }
+
+    private static int minutes(String time) {
+        int colon = time.indexOf(':');
+        try {
+            int hours = Integer.parseInt(colon < 0 ? time : time.substring(0, colon));
+            int minutes = colon < 0 ? 0 : Integer.parseInt(time.substring(colon + 1));
+            if (hours < 0 || minutes < 0 || minutes >= 60) {
+                throw new IllegalArgumentException("Invalid time: " + time);
+            }
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+    }
+
+    private static String time(int minutes) {
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Meeting)) {
+            return false;
+        }
+        Meeting other = (Meeting) o;
+        return day == other.day && start == other.start && end == other.end && room.equals(other.room);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(day, start, end, room);
+    }
+
+    @Override
+    public String toString() {
+        return DAYS[day] + " " + time(start) + "-" + time(end) + " " + room;
+    }
+}
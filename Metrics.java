@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Metrics class
+// Process-wide counters, latency timers and gauges, named like
+// "student.enroll". Classes keep their metrics in static final fields, so the
+// recording path is a field load plus a LongAdder increment or a histogram
+// record, and allocates nothing. Gauges are read only when the metrics are
+// written, which is pull-based: text() for the METRICS command, or dump() to a
+// file on a timer. Recording is on unless -Dsms.metrics=false; ENABLED is a
+// constant, so when it is off the JIT drops the calls altogether.
+//
+// Timers of frequent operations time one call in SAMPLE_EVERY
+// (-Dsms.metrics.sampleEvery, a power of two, 16 by default), chosen at
+// random per call: two clock reads cost more than 1% of a small in-memory
+// operation, so timing every call would cost several percent. Their count is
+// the samples scaled back up, so it is an estimate; counters are exact. Slow
+// or rare operations (disk writes, password hashing) are timed every call.
+//
+// Text format, one metric per line, sorted by name; times in microseconds:
+//
+//   counter NAME VALUE
+//   gauge NAME VALUE
+//   timer NAME count=N mean=M p50=.. p90=.. p99=.. p999=.. max=..
+final class Metrics {
+    static final boolean ENABLED = !"false".equals(System.getProperty("sms.metrics"));
+    static final int SAMPLE_EVERY = sampleEvery();
+
+    private static final Map<String, Object> registry = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            if (ENABLED) {
+                value.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (ENABLED) {
+                value.add(n);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // Times an operation: long start = timer.start(); ... timer.record(start)
+    static final class Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final int sampleMask;
+
+        Timer(int sampleEvery) {
+            this.sampleMask = sampleEvery - 1;
+        }
+
+        // Start time for record; 0 when recording is off or this call is not
+        // sampled
+        public long start() {
+            if (!ENABLED || (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0)) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            return now == 0 ? 1 : now;
+        }
+
+        public void record(long start) {
+            if (ENABLED && start != 0) {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+
+        public LatencyHistogram.Snapshot snapshot() {
+            return histogram.snapshot();
+        }
+
+        // Estimated number of calls behind the samples in snapshot
+        public long count(LatencyHistogram.Snapshot snapshot) {
+            return snapshot.getCount() * (sampleMask + 1);
+        }
+    }
+
+    private static int sampleEvery() {
+        int every = Integer.getInteger("sms.metrics.sampleEvery", 16);
+        return every <= 1 ? 1 : Integer.highestOneBit(every);
+    }
+
+    // Registering a name twice returns the first metric
+    static Counter counter(String name) {
+        return register(name, new Counter(), Counter.class);
+    }
+
+    // Sampled, for frequent operations
+    static Timer timer(String name) {
+        return register(name, new Timer(SAMPLE_EVERY), Timer.class);
+    }
+
+    // Times every call, for slow or rare operations
+    static Timer exactTimer(String name) {
+        return register(name, new Timer(1), Timer.class);
+    }
+
+    // Replaces any gauge of that name, e.g. when Admin is reloaded
+    static void gauge(String name, LongSupplier value) {
+        registry.put(name, value);
+    }
+
+    private static <T> T register(String name, T metric, Class<T> type) {
+        Object existing = registry.putIfAbsent(name, metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (!type.isInstance(existing)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as another kind");
+        }
+        return type.cast(existing);
+    }
+
+    public static String text() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# metrics at ").append(Instant.now()).append(ENABLED ? "" : " (recording off)").append('\n');
+        for (Map.Entry<String, Object> entry : registry.entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                out.append("counter ").append(entry.getKey()).append(' ').append(((Counter) metric).get());
+            } else if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                LatencyHistogram.Snapshot snapshot = timer.snapshot();
+                out.append("timer ").append(entry.getKey()).append(" count=").append(timer.count(snapshot));
+                if (snapshot.getCount() > 0) {
+                    out.append(String.format(Locale.ROOT, " mean=%.1f p50=%.1f p90=%.1f p99=%.1f p999=%.1f max=%.1f",
+                            snapshot.getMean() / 1e3, snapshot.getPercentile(50) / 1e3,
+                            snapshot.getPercentile(90) / 1e3, snapshot.getPercentile(99) / 1e3,
+                            snapshot.getPercentile(99.9) / 1e3, snapshot.getMax() / 1e3));
+                }
+            } else {
+                long value;
+                try {
+                    value = ((LongSupplier) metric).getAsLong();
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                out.append("gauge ").append(entry.getKey()).append(' ').append(value);
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    // Writes text() to a sibling temp file and renames it over file, so
+    // readers never see half a dump
+    public static void dump(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, text().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,26 @@
+import java.nio.charset.Charset;
+
+// Output class
+// Where the domain's messages go for the calling thread: a Render over
+// System.out for the console, or over the connection of the network session
+// the thread is serving. Each thread gets its own Render, so the buffers are
+// never shared.
+final class Output {
+    private static final ThreadLocal<Render> current =
+            ThreadLocal.withInitial(() -> new Render(System.out, Charset.defaultCharset()));
+
+    private Output() {
+    }
+
+    static Render out() {
+        return current.get();
+    }
+
+    static void bind(Render out) {
+        current.set(out);
+    }
+
+    static void unbind() {
+        current.remove();
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.function.Consumer;
+
+// Paged class
+// Part of an object that a lazily loaded snapshot leaves on disk until first
+// use, and may drop again while it is unchanged (see SnapshotPages): a
+// course's roster and gradebook, a student's course links. get() returns the
+// value, paging it in if needed, and takes no lock once it is in memory.
+// Changes go between beginWrite() and endWrite(); a changed value stays in
+// memory until a checkpoint writes it and points it at the new snapshot.
+// Without -Dsms.lazyLoad the value is always in memory and the write brackets
+// cost nothing.
+//
+// The lock is this object, a leaf: paging in reads the mapped snapshot and
+// the admin's id maps and takes nothing else. Eviction takes only this lock,
+// not the owner's monitor; a writer has cleared block under it before its
+// change, so a value being changed is never dropped.
+final class Paged<T> {
+    // Reads a value from its block of a snapshot
+    interface Loader<T> {
+        T load(SnapshotPages.Block block);
+    }
+
+    // What a checkpoint writes: block to copy when unchanged, otherwise value;
+    // stamp is -1 while a change is under way
+    static final class Image<T> {
+        final SnapshotPages.Block block;
+        final T value;
+        final long stamp;
+
+        Image(SnapshotPages.Block block, T value, long stamp) {
+            this.block = block;
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+    private final Loader<T> loader;
+    private volatile T value;
+    // Where value can be read again; null once it changed since
+    private SnapshotPages.Block block;
+    // Changes begun and ended, guarded by this
+    private long begun;
+    private long ended;
+    // Set on use, cleared by the clock sweep
+    volatile boolean referenced;
+    // Clock queue membership, guarded by the SnapshotPages lock
+    boolean queued;
+    int queuedBytes;
+
+    Paged(T value, Loader<T> loader) {
+        this.value = value;
+        this.loader = loader;
+    }
+
+    public T get() {
+        T current = value;
+        if (current == null) {
+            return pageIn();
+        }
+        if (SnapshotPages.LAZY && !referenced) {
+            referenced = true;
+        }
+        return current;
+    }
+
+    // The value if it is in memory, or null; never pages in
+    T peek() {
+        return value;
+    }
+
+    // The value to change; pair with endWrite() in a finally block
+    T beginWrite() {
+        if (!SnapshotPages.LAZY) {
+            return value;
+        }
+        T current = get();
+        synchronized (this) {
+            if (value == null) {
+                value = current;
+            }
+            block = null;
+            begun++;
+            return value;
+        }
+    }
+
+    void endWrite() {
+        if (SnapshotPages.LAZY) {
+            synchronized (this) {
+                ended++;
+            }
+        }
+    }
+
+    // Runs action on the value only if it is in memory, excluding page-ins
+    // and evictions meanwhile; for state derived from the value
+    synchronized void ifResident(Consumer<T> action) {
+        T current = value;
+        if (current != null) {
+            action.accept(current);
+        }
+    }
+
+    // Loader only: leaves the value in block until first use
+    synchronized void restore(SnapshotPages.Block block) {
+        this.block = block;
+        this.value = null;
+    }
+
+    // Loader only, when everything is loaded up front
+    synchronized void restore(T value) {
+        this.block = null;
+        this.value = value;
+    }
+
+    synchronized Image<T> image() {
+        return new Image<>(block, block == null ? value : null, begun == ended ? begun : -1);
+    }
+
+    // After a checkpoint wrote image(): the value can be read from block
+    // from now on, unless it changed since. Returns the value if it is in
+    // memory and may now be evicted, otherwise null.
+    synchronized T repoint(long stamp, SnapshotPages.Block block) {
+        if (stamp < 0 || begun != stamp || ended != stamp) {
+            return null;
+        }
+        this.block = block;
+        return value;
+    }
+
+    // Drops the value if it can be read again; true if it was dropped
+    synchronized boolean evict() {
+        if (block == null || value == null) {
+            return false;
+        }
+        value = null;
+        return true;
+    }
+
+    private T pageIn() {
+        SnapshotPages.Block source;
+        T loaded;
+        synchronized (this) {
+            if (value != null) {
+                return value;
+            }
+            source = block;
+            loaded = loader.load(source);
+            value = loaded;
+            referenced = true;
+        }
+        source.pages().pagedIn(this, source);
+        return loaded;
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+// PointInTime class
+// Read-only view of the school as it stood at one moment, for reports and
+// other long reads while sessions keep changing things. Opening one costs
+// the same however large the school is: it takes the next epoch and waits
+// only for changes already under way (see Epochs). Reads go to the live
+// objects when nothing changed since, or else to the state the first later
+// change froze (see Versions), so writers never wait for readers.
+//
+// A view lists what existed at its epoch, deleted or not since, and hides
+// what was created after. A multi-step operation such as a delete cascade is
+// seen step by step, so links to an entity already deleted at the view's
+// epoch are left out. Close views when done: an open view keeps the frozen
+// state it needs alive.
+final class PointInTime implements AutoCloseable {
+    private final Admin admin;
+    private final long epoch;
+    private boolean closed;
+
+    PointInTime(Admin admin) {
+        this.admin = admin;
+        this.epoch = Epochs.open();
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // Id-ordered, like Admin's collections
+    public List<Student> students() {
+        return entities(admin.students, Student.class);
+    }
+
+    public List<Teacher> teachers() {
+        return entities(admin.teachers, Teacher.class);
+    }
+
+    public List<Course> courses() {
+        return entities(admin.courses, Course.class);
+    }
+
+    public boolean contains(User user) {
+        return user.versions().existsAt(epoch)
+                && !user.versions().read(epoch, user::isDeleted, state -> state.deleted);
+    }
+
+    public boolean contains(Course course) {
+        return course.versions().existsAt(epoch)
+                && !course.versions().read(epoch, course::isDeleted, state -> state.deleted);
+    }
+
+    // A user's courses in enrollment order
+    public List<Course> courses(User user) {
+        List<Course> courses = user.versions().read(epoch,
+                () -> new ArrayList<>(user.getCourses()), state -> Arrays.asList(state.courses));
+        List<Course> result = new ArrayList<>(courses.size());
+        for (Course course : courses) {
+            if (contains(course)) {
+                result.add(course);
+            }
+        }
+        return result;
+    }
+
+    public List<Student> students(Course course) {
+        return existing(course.versions().read(epoch,
+                () -> new ArrayList<>(course.getStudents()), state -> Arrays.asList(state.students)));
+    }
+
+    public List<Student> waitlist(Course course) {
+        return existing(course.versions().read(epoch,
+                () -> new ArrayList<>(course.getWaitlist()), state -> Arrays.asList(state.waitlist)));
+    }
+
+    public List<Teacher> teachers(Course course) {
+        return existing(course.versions().read(epoch,
+                () -> new ArrayList<>(course.getTeachers()), state -> Arrays.asList(state.teachers)));
+    }
+
+    // The longest-serving teacher, or null
+    public Teacher teacher(Course course) {
+        List<Teacher> teachers = teachers(course);
+        return teachers.isEmpty() ? null : teachers.get(0);
+    }
+
+    public int capacity(Course course) {
+        return course.versions().read(epoch, course::getCapacity, state -> state.capacity);
+    }
+
+    public int grade(Course course, Student student) {
+        return course.versions().read(epoch, () -> course.getGrade(student), state -> state.grade(student.getId()));
+    }
+
+    public int gradeCount(Course course) {
+        return course.versions().read(epoch,
+                () -> course.getGradeStats().getCount(), state -> state.gradedIds.length);
+    }
+
+    // Mean recorded grade; NaN if none
+    public double averageGrade(Course course) {
+        long[] countAndSum = course.versions().read(epoch, () -> {
+            GradeStats stats = course.getGradeStats();
+            return new long[] {stats.getCount(), stats.getSum()};
+        }, state -> new long[] {state.gradedIds.length, state.gradeSum});
+        return countAndSum[0] == 0 ? Double.NaN : (double) countAndSum[1] / countAndSum[0];
+    }
+
+    // Mean grade points over the graded courses the student is enrolled in,
+    // on the 4.0 scale; NaN if none
+    public double gpa(Student student) {
+        int graded = 0;
+        int points = 0;
+        for (Course course : courses(student)) {
+            int grade = grade(course, student);
+            if (grade != GradeStore.NO_GRADE) {
+                graded++;
+                points += GradeAnalytics.points(grade);
+            }
+        }
+        return graded == 0 ? Double.NaN : (double) points / graded;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            Epochs.close(epoch);
+            admin.pruneRetired();
+        }
+    }
+
+    private <T> List<T> existing(List<T> items) {
+        List<T> result = new ArrayList<>(items.size());
+        for (T item : items) {
+            if (item instanceof User ? contains((User) item) : contains((Course) item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    // The live entities that existed at the view's epoch, merged with the ones
+    // deleted and dropped from the id maps since. The maps are read first, so
+    // an entity dropped meanwhile is found among the retired.
+    private <T> List<T> entities(Collection<T> live, Class<T> type) {
+        List<T> result = existing(new ArrayList<>(live));
+        TreeMap<Integer, T> merged = null;
+        for (Admin.Retired entry : admin.getRetired()) {
+            if (type.isInstance(entry.entity)) {
+                T entity = type.cast(entry.entity);
+                if (existing(List.of(entity)).isEmpty()) {
+                    continue;
+                }
+                if (merged == null) {
+                    merged = new TreeMap<>();
+                    for (T item : result) {
+                        merged.put(id(item), item);
+                    }
+                }
+                merged.put(id(entity), entity);
+            }
+        }
+        return merged == null ? result : new ArrayList<>(merged.values());
+    }
+
+    private static int id(Object entity) {
+        return entity instanceof User ? ((User) entity).getId() : ((Course) entity).getId();
+    }
+}
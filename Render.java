@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Formatter;
+import java.util.Iterator;
+
+// Render class
+// Text output for one thread: views append into a reusable buffer and the
+// buffer goes to a Sink in pages instead of one write per line. Outside a
+// hold() every line is flushed as soon as it ends, so code that prints
+// between prompts behaves as before. Inside a hold() (one session request)
+// the buffer is flushed when it passes PAGE_CHARS and when the hold is
+// released. Listings go through list(), which can stop after a page of items
+// and leave a cursor that more() continues from.
+final class Render {
+    static final int PAGE_CHARS = 8 * 1024;
+    // Items per listing page; 0 shows every item
+    static final int UNLIMITED = 0;
+
+    // Where flushed text goes
+    interface Sink {
+        void write(CharSequence text) throws IOException;
+    }
+
+    // Appends one listing line, without the line break
+    interface Item<T> {
+        void render(T item, Render out);
+    }
+
+    private final Sink sink;
+    private final StringBuilder buffer = new StringBuilder(256);
+    private Formatter formatter;
+    private int holds;
+    private int pageSize = UNLIMITED;
+    private Cursor<?> cursor;
+    private boolean failed;
+
+    public Render(Sink sink) {
+        this.sink = sink;
+    }
+
+    public Render(OutputStream out) {
+        this(out, StandardCharsets.UTF_8);
+    }
+
+    public Render(OutputStream out, Charset charset) {
+        this(new StreamSink(out, charset));
+    }
+
+    public Render print(CharSequence text) {
+        buffer.append(text);
+        return this;
+    }
+
+    public Render print(char c) {
+        buffer.append(c);
+        return this;
+    }
+
+    public Render print(int value) {
+        buffer.append(value);
+        return this;
+    }
+
+    public Render print(long value) {
+        buffer.append(value);
+        return this;
+    }
+
+    public Render println(CharSequence text) {
+        buffer.append(text);
+        return println();
+    }
+
+    public Render println() {
+        buffer.append('\n');
+        lineEnded();
+        return this;
+    }
+
+    public Render printf(String format, Object... args) {
+        if (formatter == null) {
+            formatter = new Formatter(buffer);
+        }
+        formatter.format(format, args);
+        lineEnded();
+        return this;
+    }
+
+    // Buffers output until the matching release()
+    public void hold() {
+        holds++;
+    }
+
+    public void release() {
+        if (--holds == 0) {
+            flush();
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    // Prints header, one line per item and footer (either may be null). With
+    // a page size set, stops after a page and keeps the rest for more().
+    public <T> void list(CharSequence header, Iterable<T> items, Item<T> item, CharSequence footer) {
+        cursor = null;
+        hold();
+        try {
+            if (header != null) {
+                println(header);
+            }
+            page(new Cursor<>(items.iterator(), item, footer));
+        } finally {
+            release();
+        }
+    }
+
+    public <T> void list(CharSequence header, Iterable<T> items, Item<T> item) {
+        list(header, items, item, null);
+    }
+
+    // Prints the next page of the last listing; false if nothing is left
+    public boolean more() {
+        Cursor<?> next = cursor;
+        if (next == null) {
+            return false;
+        }
+        cursor = null;
+        hold();
+        try {
+            page(next);
+        } finally {
+            release();
+        }
+        return true;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+
+    public void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        try {
+            sink.write(buffer);
+        } catch (IOException e) {
+            // Like PrintStream: remembered, not thrown at the view
+            failed = true;
+        }
+        buffer.setLength(0);
+    }
+
+    public boolean checkError() {
+        return failed;
+    }
+
+    private <T> void page(Cursor<T> next) {
+        int shown = 0;
+        while (next.items.hasNext()) {
+            if (pageSize != UNLIMITED && shown == pageSize) {
+                cursor = next;
+                println("-- more (MORE for the next page) --");
+                return;
+            }
+            next.item.render(next.items.next(), this);
+            println();
+            shown++;
+        }
+        if (next.footer != null) {
+            println(next.footer);
+        }
+    }
+
+    private void lineEnded() {
+        if (holds == 0 || buffer.length() >= PAGE_CHARS) {
+            flush();
+        }
+    }
+
+    // The rest of a listing; the iterators of the concurrent collections are
+    // weakly consistent, so a cursor stays valid while others edit them
+    private static final class Cursor<T> {
+        final Iterator<T> items;
+        final Item<T> item;
+        final CharSequence footer;
+
+        Cursor(Iterator<T> items, Item<T> item, CharSequence footer) {
+            this.items = items;
+            this.item = item;
+            this.footer = footer;
+        }
+    }
+
+    // Encodes pages through one reusable byte buffer and writes them to a
+    // stream, flushing it once per page
+    static final class StreamSink implements Sink {
+        private final OutputStream out;
+        private final CharsetEncoder encoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(PAGE_CHARS);
+
+        StreamSink(OutputStream out, Charset charset) {
+            this.out = out;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            while (encoder.encode(chars, bytes, true).isOverflow()) {
+                drain();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+// ReportBenchmark class
+// Transcript generation at term-end scale, once per pool size, to show how
+// Reports scales with cores. Also checks that every pool size writes the
+// same bytes.
+//
+//   java ReportBenchmark [students] [courses] [courses per student] [pool sizes...]
+public class ReportBenchmark {
+    public static void main(String[] args) throws Exception {
+        // Fixtures create accounts by the thousand; the password hash is not what this measures
+        Credentials.setIterations(1);
+        int studentCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int courseCount = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int perStudent = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int[] poolSizes = args.length > 3
+                ? Arrays.stream(args, 3, args.length).mapToInt(Integer::parseInt).toArray()
+                : defaultPoolSizes();
+
+        Admin admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        for (int i = 0; i < courseCount; i++) {
+            admin.addCourse("Course " + i);
+        }
+        for (int i = 0; i < studentCount; i++) {
+            admin.addStudent("Student " + i, "s" + i, "pw");
+        }
+        Course[] courses = admin.courses.toArray(new Course[0]);
+        Random random = new Random(7);
+        for (Student student : admin.students) {
+            for (int i = 0; i < perStudent; i++) {
+                Course course = courses[random.nextInt(courses.length)];
+                student.admit(course);
+                course.setGrade(student, 40 + random.nextInt(61));
+            }
+        }
+        Output.unbind();
+
+        Path file = Files.createTempFile("transcripts", ".txt");
+        try {
+            byte[] expected = null;
+            double baseline = 0;
+            for (int poolSize : poolSizes) {
+                try (Reports reports = new Reports(poolSize)) {
+                    reports.writeTranscripts(admin, file);
+                    long best = Long.MAX_VALUE;
+                    long bytes = 0;
+                    for (int round = 0; round < 5; round++) {
+                        long start = System.nanoTime();
+                        bytes = reports.writeTranscripts(admin, file);
+                        best = Math.min(best, System.nanoTime() - start);
+                    }
+                    byte[] content = Files.readAllBytes(file);
+                    if (expected == null) {
+                        expected = content;
+                    } else if (!Arrays.equals(expected, content)) {
+                        throw new IllegalStateException("Pool size " + poolSize + " wrote different output");
+                    }
+                    double seconds = best / 1e9;
+                    baseline = baseline == 0 ? seconds * poolSizes[0] : baseline;
+                    System.out.printf("pool %2d: %d transcripts, %d MB in %.3f s (%.0f/s, speedup %.2f)%n",
+                            poolSize, studentCount, bytes >> 20, seconds, studentCount / seconds,
+                            baseline / seconds);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static int[] defaultPoolSizes() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int n = 0;
+        int[] sizes = new int[32];
+        for (int size = 1; size < cores; size <<= 1) {
+            sizes[n++] = size;
+        }
+        sizes[n++] = cores;
+        return Arrays.copyOf(sizes, n);
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Reports class
+// Term-end reports (student transcripts, course gradebooks, teacher load)
+// rendered in parallel. The entities are cut into blocks of BLOCK; a window of
+// blocks is rendered on a ForkJoinPool, one block per task, each into its own
+// reusable slot (a StringBuilder and a direct byte buffer). The window is then
+// written in order with one gathering write, so the file matches a sequential
+// run byte for byte. Blocks share nothing, so the work scales with the pool's
+// parallelism. Everything is read through one PointInTime view, so the
+// reports agree with each other even while sessions keep changing things.
+class Reports implements AutoCloseable {
+    static final int BLOCK = 512;
+    // Blocks in flight per parallel worker, to even out uneven blocks
+    static final int BLOCKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    private final Slot[] slots;
+
+    public Reports() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Reports(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.slots = new Slot[pool.getParallelism() * BLOCKS_PER_WORKER];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    // Renders one entity as text
+    interface Renderer<T> {
+        void render(T item, StringBuilder out);
+    }
+
+    // Writes transcripts.txt, gradebooks.txt and teacher-load.txt into dir,
+    // all three as of the same moment
+    public void writeAll(Admin admin, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        try (PointInTime view = admin.openView()) {
+            writeTranscripts(view, dir.resolve("transcripts.txt"));
+            writeGradebooks(view, dir.resolve("gradebooks.txt"));
+            writeTeacherLoad(view, dir.resolve("teacher-load.txt"));
+        }
+    }
+
+    // Each write method returns the number of bytes written
+    public long writeTranscripts(Admin admin, Path file) throws IOException {
+        try (PointInTime view = admin.openView()) {
+            return writeTranscripts(view, file);
+        }
+    }
+
+    public long writeTranscripts(PointInTime view, Path file) throws IOException {
+        return write(view.students().toArray(new Student[0]),
+                (student, out) -> transcript(view, student, out), file);
+    }
+
+    public long writeGradebooks(PointInTime view, Path file) throws IOException {
+        return write(view.courses().toArray(new Course[0]),
+                (course, out) -> gradebook(view, course, out), file);
+    }
+
+    public long writeTeacherLoad(PointInTime view, Path file) throws IOException {
+        return write(view.teachers().toArray(new Teacher[0]),
+                (teacher, out) -> teacherLoad(view, teacher, out), file);
+    }
+
+    static void transcript(PointInTime view, Student student, StringBuilder out) {
+        out.append("Transcript: ").append(student.getName())
+                .append(" (").append(student.getUsername()).append(")\n");
+        int graded = 0;
+        int points = 0;
+        for (Course course : view.courses(student)) {
+            int grade = view.grade(course, student);
+            out.append("  ").append(course.getName()).append(": ");
+            appendGrade(out, grade);
+            out.append('\n');
+            if (grade != GradeStore.NO_GRADE) {
+                graded++;
+                points += GradeAnalytics.points(grade);
+            }
+        }
+        // The GPA of the grades above, as PointInTime.gpa() would give it
+        out.append("  GPA: ");
+        appendFixed2(out, graded == 0 ? Double.NaN : (double) points / graded);
+        out.append("\n\n");
+    }
+
+    static void gradebook(PointInTime view, Course course, StringBuilder out) {
+        Teacher teacher = view.teacher(course);
+        out.append("Gradebook: ").append(course.getName());
+        if (teacher != null) {
+            out.append(" (").append(teacher.getName()).append(')');
+        }
+        out.append('\n');
+        for (Student student : view.students(course)) {
+            out.append("  ").append(student.getName()).append(": ");
+            appendGrade(out, view.grade(course, student));
+            out.append('\n');
+        }
+        out.append("  Graded: ").append(view.gradeCount(course)).append(", average: ");
+        appendFixed2(out, view.averageGrade(course));
+        out.append("\n\n");
+    }
+
+    static void teacherLoad(PointInTime view, Teacher teacher, StringBuilder out) {
+        int courses = 0;
+        int students = 0;
+        int graded = 0;
+        for (Course course : view.courses(teacher)) {
+            courses++;
+            students += view.students(course).size();
+            graded += view.gradeCount(course);
+        }
+        out.append(teacher.getName()).append(" (").append(teacher.getUsername()).append("): ")
+                .append(courses).append(" courses, ").append(students).append(" students, ")
+                .append(graded).append(" grades\n");
+    }
+
+    private static void appendGrade(StringBuilder out, int grade) {
+        if (grade == GradeStore.NO_GRADE) {
+            out.append('-');
+        } else {
+            out.append(grade);
+        }
+    }
+
+    // Two decimals without going through Formatter; "-" for NaN
+    private static void appendFixed2(StringBuilder out, double value) {
+        if (Double.isNaN(value)) {
+            out.append('-');
+            return;
+        }
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            out.append('-');
+            hundredths = -hundredths;
+        }
+        long fraction = hundredths % 100;
+        out.append(hundredths / 100).append('.').append(fraction < 10 ? "0" : "").append(fraction);
+    }
+
+    // One report at a time: the slots are shared
+    private synchronized <T> long write(T[] items, Renderer<T> renderer, Path file) throws IOException {
+        long written = 0;
+        ByteBuffer[] window = new ByteBuffer[slots.length];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int start = 0; start < items.length; start += BLOCK * slots.length) {
+                int blocks = Math.min(slots.length, (items.length - start + BLOCK - 1) / BLOCK);
+                pool.invoke(new RenderTask<>(items, renderer, start, 0, blocks));
+                for (int i = 0; i < blocks; i++) {
+                    window[i] = slots[i].bytes;
+                }
+                long remaining = 0;
+                for (int i = 0; i < blocks; i++) {
+                    remaining += window[i].remaining();
+                }
+                while (remaining > 0) {
+                    long n = channel.write(window, 0, blocks);
+                    remaining -= n;
+                    written += n;
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // Renders blocks [from, to) of the current window, splitting down to one block per task
+    private final class RenderTask<T> extends RecursiveAction {
+        private final T[] items;
+        private final Renderer<T> renderer;
+        private final int start;
+        private final int from;
+        private final int to;
+
+        RenderTask(T[] items, Renderer<T> renderer, int start, int from, int to) {
+            this.items = items;
+            this.renderer = renderer;
+            this.start = start;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int first = start + from * BLOCK;
+                slots[from].render(items, first, Math.min(items.length, first + BLOCK), renderer);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RenderTask<>(items, renderer, start, from, middle),
+                    new RenderTask<>(items, renderer, start, middle, to));
+        }
+    }
+
+    // Reusable per-block render state; one task uses a slot at a time
+    private static final class Slot {
+        final StringBuilder text = new StringBuilder(64 * 1024);
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+
+        <T> void render(T[] items, int from, int to, Renderer<T> renderer) {
+            text.setLength(0);
+            for (int i = from; i < to; i++) {
+                renderer.render(items[i], text);
+            }
+            while (true) {
+                bytes.clear();
+                encoder.reset();
+                CharBuffer chars = CharBuffer.wrap(text);
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (!result.isOverflow()) {
+                    result = encoder.flush(bytes);
+                }
+                if (!result.isOverflow()) {
+                    break;
+                }
+                bytes = ByteBuffer.allocateDirect(bytes.capacity() * 2);
+            }
+            bytes.flip();
+        }
+    }
+}
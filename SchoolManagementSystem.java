@@ -1,18 +1,87 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 // Abstract User class
-abstract class User implements Serializable {
+// The domain objects are shared by every session. Reads (course lists,
+// rosters, grades) never lock. A change to the student-course link holds the
+// user's monitor and then the course's monitor, always in that order, so
+// both sides change together and enrollments into different courses never
+// contend. Each change enters an epoch once it holds its monitors, and users
+// and courses keep what PointInTime views need of their old state (see
+// Epochs and Versions).
+abstract class User implements Serializable, Versions.Owner<User.State> {
+    // What a PointInTime view reads of a user
+    static final class State {
+        final Course[] courses;
+        final boolean deleted;
+
+        State(Course[] courses, boolean deleted) {
+            this.courses = courses;
+            this.deleted = deleted;
+        }
+    }
+
+    private final int id;
     private final String name;
     private final String username;
-    private final String password;
-    private List<Course> courses;
+    // A user's side of the course links, paged as a whole for students when
+    // the snapshot is loaded lazily (see Paged). Courses and the reverse
+    // indexes keep them in step: the student's waitlist places and the
+    // courses holding a grade for the student, which a teacher never has.
+    static final class Links {
+        // Course ids in packed columns (see LinkStore); insertion-ordered so
+        // listings keep enrollment order, with O(1) membership
+        final LinkStore<Course> courses = new LinkStore<>();
+        final LinkStore<Course> waitlisted = new LinkStore<>();
+        final LinkStore<Course> graded = new LinkStore<>();
+        // Weekly meetings of the courses holding a place, for conflict
+        // checks. Replaced as a whole under the Paged lock whenever a link
+        // or a course's meetings change (see refreshTimetable).
+        volatile IntervalIndex<Course> timetable = IntervalIndex.empty();
+
+        // A waitlist place keeps its slot free, so a promotion never clashes
+        boolean holdsSlot(Course course) {
+            return courses.contains(course) || waitlisted.contains(course);
+        }
 
-    public User(String name, String username, String password) {
+        void bind(LinkStore.Table<Course> table) {
+            courses.bind(table);
+            waitlisted.bind(table);
+            graded.bind(table);
+        }
+    }
+
+    // A Credentials hash (plaintext in data from before version 4)
+    private volatile String credential;
+    // Bumped when the password changes, not when the same one is rehashed;
+    // login tokens are tied to it (see SessionTokens)
+    private volatile int passwordVersion;
+    private final Paged<Links> links = new Paged<>(new Links(), SnapshotFile::readLinks);
+    private volatile boolean deleted;
+    private final Versions<State> versions = new Versions<>();
+    // Bumped after every change of the links or grades a transcript shows
+    // (see ViewCache); grade changes bump it under a course monitor only
+    private final AtomicLong viewGeneration = new AtomicLong();
+
+    public User(int id, String name, String username, String credential) {
+        this.id = id;
         this.name = name;
         this.username = username;
-        this.password = password;
-        this.courses = new ArrayList<>();
+        this.credential = credential;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getName() {
@@ -23,284 +92,2027 @@ abstract class User implements Serializable {
         return username;
     }
 
-    public String getPassword() {
-        return password;
+    public String getCredential() {
+        return credential;
+    }
+
+    // Callers hold this user's monitor, so journal order matches
+    void setCredential(String credential) {
+        this.credential = credential;
+    }
+
+    // setCredential for a new password, which also ends this user's tokens
+    void changeCredential(String credential) {
+        this.credential = credential;
+        passwordVersion++;
+    }
+
+    public int getPasswordVersion() {
+        return passwordVersion;
+    }
+
+    public Set<Course> getCourses() {
+        return Collections.unmodifiableSet(links.get().courses);
+    }
+
+    Paged<Links> getLinkPages() {
+        return links;
+    }
+
+    // Admin binds the links to its courses when it registers this user
+    void bind(LinkStore.Table<Course> courses) {
+        links.get().bind(courses);
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public long getViewGeneration() {
+        return viewGeneration.get();
     }
 
-    public List<Course> getCourses() {
-        return courses;
+    void viewChanged() {
+        viewGeneration.incrementAndGet();
     }
 
     public abstract void enroll(Course course);
 
     public abstract void drop(Course course);
 
+    // Link changes behind enroll/drop, without journaling or printing
+    abstract boolean join(Course course);
+
+    abstract boolean leave(Course course);
+
+    // Callers hold this user's monitor
+    boolean addCourse(Course course) {
+        versions.beforeWrite(this);
+        boolean added;
+        try {
+            added = links.beginWrite().courses.add(course);
+        } finally {
+            links.endWrite();
+        }
+        refreshTimetable(course);
+        viewChanged();
+        return added;
+    }
+
+    boolean removeCourse(Course course) {
+        if (!links.get().courses.contains(course)) {
+            return false;
+        }
+        versions.beforeWrite(this);
+        try {
+            links.beginWrite().courses.remove(course);
+        } finally {
+            links.endWrite();
+        }
+        refreshTimetable(course);
+        viewChanged();
+        return true;
+    }
+
+    // True if the course holds a place in this user's week
+    boolean holdsSlot(Course course) {
+        return links.get().holdsSlot(course);
+    }
+
+    // Re-reads whether and when the course meets for this user. Every link
+    // change and every change of the course's meetings ends with a call, so
+    // the last call under the lock sees the latest of both. Links that are
+    // paged out are skipped; paging them in builds the week afresh.
+    void refreshTimetable(Course course) {
+        links.ifResident(current -> current.timetable = current.holdsSlot(course)
+                ? current.timetable.with(course, course.getMeetings())
+                : current.timetable.without(course));
+    }
+
+    // One of this user's other courses that meets at the same time as course,
+    // or null; exact for a course the user holds no place in yet. O(log n) in
+    // the meetings of the user's week per meeting of course.
+    public Course findConflict(Course course) {
+        Course conflict = links.get().timetable.conflict(course.getMeetings());
+        return conflict == course ? null : conflict;
+    }
+
+    void markDeleted() {
+        versions.beforeWrite(this);
+        deleted = true;
+    }
+
+    Versions<State> versions() {
+        return versions;
+    }
+
+    // Callers hold this user's monitor
+    @Override
+    public State freeze() {
+        return new State(links.get().courses.toArray(new Course[0]), deleted);
+    }
+
     public void viewCourses() {
-        System.out.println("Courses enrolled in:");
-        for (Course course : courses) {
-            System.out.println("- " + course.getName());
+        Output.out().list("Courses enrolled in:", getCourses(), (course, out) -> course.printSummary(out));
+    }
+
+    static void reportConflict(User user, Course course) {
+        Course conflict = user.findConflict(course);
+        Output.out().println(course.getName() + " meets at the same time as "
+                + (conflict == null ? "another of your courses" : conflict.getName()) + ".");
+    }
+}
+
+// Student class
+class Student extends User {
+    private static final Metrics.Timer ENROLL = Metrics.timer("student.enroll");
+    private static final Metrics.Timer DROP = Metrics.timer("student.drop");
+    // admit() outcomes, by Course.Admission ordinal
+    private static final Metrics.Counter[] ADMISSIONS = new Metrics.Counter[Course.Admission.values().length];
+
+    static {
+        for (Course.Admission admission : Course.Admission.values()) {
+            ADMISSIONS[admission.ordinal()] = Metrics.counter("student.enroll."
+                    + admission.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // Running GPA totals over this student's grades. Courses update them with
+    // their monitor held; gradeTotals is a leaf lock that guards the totals
+    // and this student's GradeAnalytics entry
+    private final Object gradeTotals = new Object();
+    private int gradedCourses;
+    private long gradeSum;
+    private int gradePoints;
+    private GradeAnalytics analytics;
+
+    public Student(int id, String name, String username, String credential) {
+        super(id, name, username, credential);
+    }
+
+    @Override
+    public void enroll(Course course) {
+        reportAdmission(course, admit(course));
+    }
+
+    void reportAdmission(Course course, Course.Admission admission) {
+        switch (admission) {
+            case ENROLLED:
+                Output.out().println("Successfully enrolled in " + course.getName());
+                break;
+            case WAITLISTED:
+                Output.out().println(course.getName() + " is full; you are on the waitlist.");
+                break;
+            case ALREADY_ENROLLED:
+                Output.out().println("Already enrolled in " + course.getName());
+                break;
+            case CONFLICT:
+                reportConflict(this, course);
+                break;
+            default:
+                Output.out().println("Cannot enroll in " + course.getName());
+                break;
+        }
+    }
+
+    // Takes a seat if one is free and nobody is ahead on the waitlist,
+    // otherwise joins the waitlist. Journaled under both monitors like drop.
+    Course.Admission admit(Course course) {
+        long start = ENROLL.start();
+        Course.Admission admission;
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    admission = admitLocked(course);
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+        // A seat can be open behind a stale head (a deleted student), and the
+        // promotion may seat this student, which the caller must hear
+        if (admission == Course.Admission.WAITLISTED) {
+            course.promoteWaitlist();
+            if (getCourses().contains(course)) {
+                admission = Course.Admission.ENROLLED;
+            }
+        }
+        ENROLL.record(start);
+        ADMISSIONS[admission.ordinal()].increment();
+        return admission;
+    }
+
+    // admit() with both monitors held
+    private Course.Admission admitLocked(Course course) {
+        if (isDeleted() || course.isDeleted()) {
+            return Course.Admission.CLOSED;
+        }
+        if (getCourses().contains(course) && course.getStudents().contains(this)) {
+            return Course.Admission.ALREADY_ENROLLED;
+        }
+        // A half-made link or a waitlist place was checked when it was taken
+        if (!holdsSlot(course) && !course.getStudents().contains(this) && findConflict(course) != null) {
+            return Course.Admission.CONFLICT;
+        }
+        if (getCourses().contains(course) || course.getStudents().contains(this) || course.canAdmit(this)) {
+            join(course);
+            Journal.current().enroll(this, course);
+            EventBus.current().enrolled(this, course);
+            return Course.Admission.ENROLLED;
+        }
+        if (course.addToWaitlist(this)) {
+            Journal.current().waitlist(this, course);
+            EventBus.current().waitlisted(this, course);
+        }
+        return Course.Admission.WAITLISTED;
+    }
+
+    @Override
+    public void drop(Course course) {
+        long start = DROP.start();
+        boolean dropped;
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    dropped = leave(course);
+                    if (dropped) {
+                        Journal.current().drop(this, course);
+                        EventBus.current().dropped(this, course);
+                    }
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+        if (dropped) {
+            course.promoteWaitlist();
+        }
+        DROP.record(start);
+        if (dropped) {
+            Output.out().println("Successfully dropped " + course.getName());
+        } else {
+            Output.out().println("Not enrolled in " + course.getName());
+        }
+    }
+
+    // Promotion step of Course.promoteWaitlist: takes the seat only if this
+    // student still heads the waitlist and a seat is still open
+    void promote(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                if (course.firstWaiting() != this) {
+                    return;
+                }
+                Epochs.enter();
+                try {
+                    if (isDeleted()) {
+                        course.removeFromWaitlist(this);
+                    } else if (course.hasOpenSeat() && join(course)) {
+                        Journal.current().enroll(this, course);
+                        EventBus.current().enrolled(this, course);
+                    }
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    // Term close: ends the seat and the grade but keeps a waitlist place.
+    // Callers hold both monitors.
+    boolean endTerm(Course course) {
+        boolean linked = removeCourse(course);
+        boolean listed = course.removeStudent(this);
+        return linked || listed;
+    }
+
+    // Replay side of a journaled waitlist entry
+    boolean joinWaitlist(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    return !isDeleted() && !course.isDeleted() && !course.getStudents().contains(this)
+                            && course.addToWaitlist(this);
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    // Both sides are updated independently, so replaying a journaled change
+    // over a snapshot taken mid-change repairs whichever side was missed.
+    // That makes join/leave plain assignments to the pair's state, which is
+    // what lets replay start from a fuzzy snapshot.
+    @Override
+    boolean join(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                if (isDeleted() || course.isDeleted()) {
+                    return false;
+                }
+                Epochs.enter();
+                try {
+                    boolean linked = addCourse(course);
+                    boolean listed = course.addStudent(this);
+                    return linked || listed;
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean leave(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    boolean linked = removeCourse(course);
+                    boolean listed = course.removeStudent(this);
+                    boolean waiting = course.removeFromWaitlist(this);
+                    return linked || listed || waiting;
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    // The transcript is cached until this student's links or grades change
+    public void checkGrades() {
+        ViewCache.shared().get(ViewCache.Kind.TRANSCRIPT, this, getViewGeneration(), () -> {
+            double gpa = getGpa();
+            return ViewCache.render("Grades:", getCourses(),
+                    (course, out) -> out.print(course.getName()).print(": ").print(course.getGrade(this)),
+                    Double.isNaN(gpa) ? null : String.format("GPA: %.2f", gpa));
+        }).print(Output.out());
+    }
+
+    // Mean grade points over graded courses on the 4.0 scale; NaN if none
+    public double getGpa() {
+        synchronized (gradeTotals) {
+            return gpa();
+        }
+    }
+
+    // Mean grade over graded courses; NaN if none
+    public double getAverageGrade() {
+        synchronized (gradeTotals) {
+            return gradedCourses == 0 ? Double.NaN : (double) gradeSum / gradedCourses;
+        }
+    }
+
+    public int getGradedCourseCount() {
+        synchronized (gradeTotals) {
+            return gradedCourses;
+        }
+    }
+
+    private double gpa() {
+        return gradedCourses == 0 ? Double.NaN : (double) gradePoints / gradedCourses;
+    }
+
+    // Loader only, before the student is attached: totals the snapshot
+    // worked out from its gradebooks, which may still be paged out
+    void restoreGradeTotals(int gradedCourses, long gradeSum, int gradePoints) {
+        synchronized (gradeTotals) {
+            this.gradedCourses = gradedCourses;
+            this.gradeSum = gradeSum;
+            this.gradePoints = gradePoints;
+        }
+    }
+
+    // Reverse indexes of the course-side links that getCourses() does not
+    // cover: waitlists this student is on, and courses holding a grade for
+    // this student. Courses keep them in step under their own monitor.
+    public Set<Course> getWaitlisted() {
+        return Collections.unmodifiableSet(getLinkPages().get().waitlisted);
+    }
+
+    public Set<Course> getGradedCourses() {
+        return Collections.unmodifiableSet(getLinkPages().get().graded);
+    }
+
+    // Called by Course with its monitor held
+    void waitlistChanged(Course course, boolean waiting) {
+        Paged<Links> links = getLinkPages();
+        try {
+            if (waiting) {
+                links.beginWrite().waitlisted.add(course);
+            } else {
+                links.beginWrite().waitlisted.remove(course);
+            }
+        } finally {
+            links.endWrite();
+        }
+        refreshTimetable(course);
+    }
+
+    // Called by Course with its monitor held; either grade may be NO_GRADE
+    void gradeChanged(Course course, int previous, int grade) {
+        if (previous == GradeStore.NO_GRADE || grade == GradeStore.NO_GRADE) {
+            Paged<Links> links = getLinkPages();
+            try {
+                if (previous == GradeStore.NO_GRADE) {
+                    links.beginWrite().graded.add(course);
+                } else {
+                    links.beginWrite().graded.remove(course);
+                }
+            } finally {
+                links.endWrite();
+            }
+        }
+        synchronized (gradeTotals) {
+            double before = gpa();
+            if (previous != GradeStore.NO_GRADE) {
+                gradedCourses--;
+                gradeSum -= previous;
+                gradePoints -= GradeAnalytics.points(previous);
+            }
+            if (grade != GradeStore.NO_GRADE) {
+                gradedCourses++;
+                gradeSum += grade;
+                gradePoints += GradeAnalytics.points(grade);
+            }
+            if (analytics != null) {
+                analytics.update(this, before, gpa());
+            }
+        }
+        viewChanged();
+    }
+
+    // Admin registers and unregisters the student with its analytics
+    void attach(GradeAnalytics analytics) {
+        synchronized (gradeTotals) {
+            this.analytics = analytics;
+            analytics.update(this, Double.NaN, gpa());
+        }
+    }
+
+    void detach() {
+        synchronized (gradeTotals) {
+            if (analytics != null) {
+                analytics.update(this, gpa(), Double.NaN);
+                analytics = null;
+            }
+        }
+    }
+}
+
+// Teacher class
+class Teacher extends User {
+    private static final Metrics.Timer ASSIGN = Metrics.timer("teacher.assign");
+    private static final Metrics.Timer DROP = Metrics.timer("teacher.drop");
+
+    public Teacher(int id, String name, String username, String credential) {
+        super(id, name, username, credential);
+    }
+
+    @Override
+    public void enroll(Course course) {
+        switch (assign(course)) {
+            case ENROLLED:
+                Output.out().println("Successfully enrolled in " + course.getName());
+                break;
+            case ALREADY_ENROLLED:
+                Output.out().println("Already enrolled in " + course.getName());
+                break;
+            case CONFLICT:
+                reportConflict(this, course);
+                break;
+            default:
+                Output.out().println("Cannot enroll in " + course.getName());
+                break;
+        }
+    }
+
+    @Override
+    public void drop(Course course) {
+        long start = DROP.start();
+        boolean dropped;
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    dropped = leave(course);
+                    if (dropped) {
+                        Journal.current().drop(this, course);
+                        EventBus.current().dropped(this, course);
+                    }
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+        DROP.record(start);
+        if (dropped) {
+            Output.out().println("Successfully dropped " + course.getName());
+        } else {
+            Output.out().println("Not enrolled in " + course.getName());
+        }
+    }
+
+    // Quiet form of enroll; never WAITLISTED
+    Course.Admission assign(Course course) {
+        long start = ASSIGN.start();
+        try {
+            synchronized (this) {
+                synchronized (course) {
+                    if (isDeleted() || course.isDeleted()) {
+                        return Course.Admission.CLOSED;
+                    }
+                    if (getCourses().contains(course) && course.getTeachers().contains(this)) {
+                        return Course.Admission.ALREADY_ENROLLED;
+                    }
+                    if (!holdsSlot(course) && findConflict(course) != null) {
+                        return Course.Admission.CONFLICT;
+                    }
+                    Epochs.enter();
+                    try {
+                        join(course);
+                        Journal.current().enroll(this, course);
+                        EventBus.current().enrolled(this, course);
+                        return Course.Admission.ENROLLED;
+                    } finally {
+                        Epochs.exit();
+                    }
+                }
+            }
+        } finally {
+            ASSIGN.record(start);
+        }
+    }
+
+    // Both sides change independently, as in Student.join/leave
+    @Override
+    boolean join(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                if (isDeleted() || course.isDeleted()) {
+                    return false;
+                }
+                Epochs.enter();
+                try {
+                    boolean linked = addCourse(course);
+                    boolean listed = course.addTeacher(this);
+                    return linked || listed;
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean leave(Course course) {
+        synchronized (this) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    boolean linked = removeCourse(course);
+                    boolean listed = course.removeTeacher(this);
+                    return linked || listed;
+                } finally {
+                    Epochs.exit();
+                }
+            }
+        }
+    }
+
+    public void addStudent(Student student, Course course) {
+        if (getCourses().contains(course)) {
+            student.enroll(course);
+        } else {
+            Output.out().println("You are not enrolled in " + course.getName());
+        }
+    }
+
+    public void removeStudent(Student student, Course course) {
+        if (getCourses().contains(course)) {
+            student.drop(course);
+        } else {
+            Output.out().println("You are not enrolled in " + course.getName());
+        }
+    }
+
+    public void assignGrade(Student student, Course course, int grade) {
+        if (getCourses().contains(course)) {
+            course.setGrade(student, grade);
+        } else {
+            Output.out().println("You are not enrolled in " + course.getName());
+        }
+    }
+
+    public void viewStudents(Course course) {
+        if (getCourses().contains(course)) {
+            ViewCache.shared().get(ViewCache.Kind.ROSTER, course, course.getRosterGeneration(),
+                    () -> ViewCache.render("Students enrolled in " + course.getName() + ":", course.getStudents(),
+                            (student, out) -> out.print("- ").print(student.getName()), null))
+                    .print(Output.out());
+        } else {
+            Output.out().println("You are not enrolled in " + course.getName());
+        }
+    }
+}
+
+// Course class
+// A course may cap its seats. Once it is full, further enrollments queue on a
+// first-come waitlist, and a drop (or a raised cap) promotes from its head.
+// Its weekly meetings are set through Admin.schedule, which keeps rooms from
+// being booked twice; seats and waitlist places are refused when they clash
+// with the user's other courses (see User.findConflict).
+class Course implements Serializable, Versions.Owner<Course.State> {
+    public static final int UNLIMITED = 0;
+
+    private static final Metrics.Timer SET_GRADE = Metrics.timer("course.setGrade");
+    private static final Metrics.Timer SET_GRADES = Metrics.timer("course.setGrades");
+    private static final Metrics.Counter GRADES_WRITTEN = Metrics.counter("course.grades.written");
+    private static final Metrics.Timer SET_CAPACITY = Metrics.timer("course.setCapacity");
+
+    // Outcome of a seat request; CONFLICT when the course meets at the same
+    // time as one the user already holds a place in
+    enum Admission { ENROLLED, WAITLISTED, ALREADY_ENROLLED, CONFLICT, CLOSED }
+
+    // What a PointInTime view reads of a course; grades sorted by student id
+    static final class State {
+        final Student[] students;
+        final Student[] waitlist;
+        final Teacher[] teachers;
+        final int[] gradedIds;
+        final int[] grades;
+        final long gradeSum;
+        final int capacity;
+        final boolean deleted;
+
+        State(Course course) {
+            Roster roster = course.roster.get();
+            students = roster.students.toArray(new Student[0]);
+            waitlist = roster.waitlist.toArray(new Student[0]);
+            teachers = course.teachers.toArray(new Teacher[0]);
+            int[][] table = roster.grades.toArrays();
+            long[] pairs = new long[table[0].length];
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = (long) table[0][i] << 32 | (table[1][i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(pairs);
+            gradedIds = new int[pairs.length];
+            grades = new int[pairs.length];
+            long sum = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                gradedIds[i] = (int) (pairs[i] >>> 32);
+                grades[i] = (int) pairs[i];
+                sum += grades[i];
+            }
+            gradeSum = sum;
+            capacity = course.capacity;
+            deleted = course.deleted;
+        }
+
+        int grade(int studentId) {
+            int i = Arrays.binarySearch(gradedIds, studentId);
+            return i < 0 ? GradeStore.NO_GRADE : grades[i];
+        }
+    }
+
+    // Students, waitlist and gradebook, paged as a whole when the snapshot is
+    // loaded lazily (see Paged). Students and the waitlist are student ids
+    // in packed columns (see LinkStore). Changed under the course monitor.
+    static final class Roster {
+        final LinkStore<Student> students = new LinkStore<>();
+        final LinkStore<Student> waitlist = new LinkStore<>();
+        final GradeStore grades;
+        final GradeStats stats = new GradeStats();
+
+        Roster() {
+            this(new GradeStore());
+        }
+
+        Roster(GradeStore grades) {
+            this.grades = grades;
+        }
+
+        void bind(LinkStore.Table<Student> table) {
+            students.bind(table);
+            waitlist.bind(table);
+        }
+    }
+
+    private final int id;
+    private String name;
+    private final Set<Teacher> teachers;
+    private final Paged<Roster> roster = new Paged<>(new Roster(), SnapshotFile::readRoster);
+    private volatile int capacity;
+    private volatile boolean deleted;
+    private final Versions<State> versions = new Versions<>();
+    // Weekly meetings; an immutable list, replaced under this monitor
+    private volatile List<Meeting> meetings = List.of();
+    // Bumped under this monitor after every roster change (see ViewCache)
+    private volatile long rosterGeneration;
+
+    public Course(int id, String name) {
+        this.id = id;
+        this.name = name;
+        this.teachers = new ConcurrentOrderedSet<>();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // The longest-serving of the course's teachers, or null
+    public Teacher getTeacher() {
+        Iterator<Teacher> it = teachers.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public Set<Teacher> getTeachers() {
+        return Collections.unmodifiableSet(teachers);
+    }
+
+    // Course side of Teacher.join/leave, which already hold both monitors
+    boolean addTeacher(Teacher teacher) {
+        versions.beforeWrite(this);
+        return teachers.add(teacher);
+    }
+
+    boolean removeTeacher(Teacher teacher) {
+        if (!teachers.contains(teacher)) {
+            return false;
+        }
+        versions.beforeWrite(this);
+        return teachers.remove(teacher);
+    }
+
+    public Set<Student> getStudents() {
+        return Collections.unmodifiableSet(roster.get().students);
+    }
+
+    Paged<Roster> getRosterPages() {
+        return roster;
+    }
+
+    // Admin binds the roster to its students when it registers this course
+    void bind(LinkStore.Table<Student> students) {
+        roster.get().bind(students);
+    }
+
+    public long getRosterGeneration() {
+        return rosterGeneration;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // UNLIMITED removes the cap; raising it admits from the waitlist
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        long start = SET_CAPACITY.start();
+        synchronized (this) {
+            Epochs.enter();
+            try {
+                versions.beforeWrite(this);
+                this.capacity = capacity;
+                Journal.current().setCapacity(this, capacity);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        promoteWaitlist();
+        SET_CAPACITY.record(start);
+    }
+
+    public Set<Student> getWaitlist() {
+        return Collections.unmodifiableSet(roster.get().waitlist);
+    }
+
+    public List<Meeting> getMeetings() {
+        return meetings;
+    }
+
+    // "- name" in listings, then the meetings if it has any
+    void printSummary(Render out) {
+        out.print("- ").print(name);
+        List<Meeting> current = meetings;
+        if (!current.isEmpty()) {
+            out.print(" (").print(Meeting.format(current)).print(')');
+        }
+    }
+
+    // Admin.schedule checks rooms and journals; this updates the course and
+    // then the timetables of everyone holding a place in it
+    void setMeetings(List<Meeting> meetings) {
+        synchronized (this) {
+            this.meetings = meetings;
+        }
+        Roster current = roster.get();
+        for (Student student : current.students) {
+            student.refreshTimetable(this);
+        }
+        for (Student student : current.waitlist) {
+            student.refreshTimetable(this);
+        }
+        for (Teacher teacher : teachers) {
+            teacher.refreshTimetable(this);
+        }
+    }
+
+    public boolean hasOpenSeat() {
+        int cap = capacity;
+        return cap == UNLIMITED || roster.get().students.size() < cap;
+    }
+
+    // Seats go to the head of the waitlist before anyone new
+    boolean canAdmit(Student student) {
+        if (!hasOpenSeat()) {
+            return false;
+        }
+        Student first = firstWaiting();
+        return first == null || first == student;
+    }
+
+    Student firstWaiting() {
+        return roster.get().waitlist.first();
+    }
+
+    // Callers hold this course's monitor
+    boolean addToWaitlist(Student student) {
+        if (roster.get().waitlist.contains(student)) {
+            return false;
+        }
+        versions.beforeWrite(this);
+        try {
+            roster.beginWrite().waitlist.add(student);
+        } finally {
+            roster.endWrite();
+        }
+        student.waitlistChanged(this, true);
+        return true;
+    }
+
+    boolean removeFromWaitlist(Student student) {
+        if (!roster.get().waitlist.contains(student)) {
+            return false;
+        }
+        versions.beforeWrite(this);
+        try {
+            roster.beginWrite().waitlist.remove(student);
+        } finally {
+            roster.endWrite();
+        }
+        student.waitlistChanged(this, false);
+        return true;
+    }
+
+    // Fills open seats from the head of the waitlist. Each step takes the
+    // student's monitor and then this one, so it runs with no locks held.
+    void promoteWaitlist() {
+        Student next;
+        while (!deleted && hasOpenSeat() && (next = firstWaiting()) != null) {
+            next.promote(this);
+        }
+    }
+
+    // Roster side of Student.join/leave, which already hold both monitors
+    public synchronized boolean addStudent(Student student) {
+        removeFromWaitlist(student);
+        versions.beforeWrite(this);
+        boolean added;
+        try {
+            added = roster.beginWrite().students.add(student);
+        } finally {
+            roster.endWrite();
+        }
+        rosterGeneration++;
+        return added;
+    }
+
+    // Clears the roster entry and any grade; false if there was neither
+    public synchronized boolean removeStudent(Student student) {
+        versions.beforeWrite(this);
+        Roster current = roster.beginWrite();
+        try {
+            boolean listed = current.students.remove(student);
+            int removed = current.grades.remove(student.getId());
+            gradeChanged(current, student, removed, GradeStore.NO_GRADE);
+            rosterGeneration++;
+            return listed || removed != GradeStore.NO_GRADE;
+        } finally {
+            roster.endWrite();
+        }
+    }
+
+    public int getGrade(Student student) {
+        return roster.get().grades.get(student.getId());
+    }
+
+    public void setGrade(Student student, int grade) {
+        long start = SET_GRADE.start();
+        synchronized (this) {
+            Epochs.enter();
+            try {
+                versions.beforeWrite(this);
+                Roster current = roster.beginWrite();
+                try {
+                    int previous = current.grades.put(student.getId(), grade);
+                    gradeChanged(current, student, previous, grade);
+                } finally {
+                    roster.endWrite();
+                }
+                Journal.current().setGrade(this, student, grade);
+                EventBus.current().gradeAssigned(this, student, grade);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        SET_GRADE.record(start);
+        GRADES_WRITTEN.increment();
+    }
+
+    // Bulk read keyed by student id; grades[i] belongs to studentIds[i]
+    public void getGrades(int[] studentIds, int[] grades) {
+        roster.get().grades.getAll(studentIds, grades);
+    }
+
+    // Bulk write of the first count grades; grades[i] belongs to students[i]
+    public void setGrades(Student[] students, int[] grades, int count) {
+        long start = SET_GRADES.start();
+        int[] studentIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            studentIds[i] = students[i].getId();
+        }
+        int[] previous = new int[count];
+        synchronized (this) {
+            Epochs.enter();
+            try {
+                versions.beforeWrite(this);
+                Roster current = roster.beginWrite();
+                try {
+                    current.grades.putAll(studentIds, grades, count, previous);
+                    for (int i = 0; i < count; i++) {
+                        gradeChanged(current, students[i], previous[i], grades[i]);
+                    }
+                } finally {
+                    roster.endWrite();
+                }
+                Journal.current().setGrades(this, studentIds, grades, count);
+                EventBus.current().gradesAssigned(this, studentIds, grades, count);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        SET_GRADES.record(start);
+        GRADES_WRITTEN.add(count);
+    }
+
+    // Count, sum, min/max and distribution of this course's grades
+    public GradeStats getGradeStats() {
+        return roster.get().stats;
+    }
+
+    // Keeps the aggregates in step with the gradebook; callers hold this
+    // monitor and are writing current
+    private void gradeChanged(Roster current, Student student, int previous, int grade) {
+        if (previous != grade) {
+            current.stats.replace(previous, grade);
+            student.gradeChanged(this, previous, grade);
+        }
+    }
+
+    public int getGradeCount() {
+        return roster.get().grades.size();
+    }
+
+    // Consistent copy of every recorded grade: [0] student ids, [1] grades
+    public int[][] getGradeTable() {
+        return roster.get().grades.toArrays();
+    }
+
+    // Loader-only: one side of a link whose other side is restored separately
+    void restoreStudent(Student student) {
+        versions.beforeWrite(this);
+        try {
+            roster.beginWrite().students.add(student);
+        } finally {
+            roster.endWrite();
+        }
+        rosterGeneration++;
+    }
+
+    // Loader and replay: no journaling and no promotion, since the journal
+    // already holds the enrollments that followed
+    void restoreCapacity(int capacity) {
+        versions.beforeWrite(this);
+        this.capacity = capacity;
+    }
+
+    void restoreWaitlisted(Student student) {
+        addToWaitlist(student);
+    }
+
+    void restoreTeacher(Teacher teacher) {
+        versions.beforeWrite(this);
+        teachers.add(teacher);
+    }
+
+    synchronized void markDeleted() {
+        Epochs.enter();
+        try {
+            versions.beforeWrite(this);
+            deleted = true;
+            for (Student student : roster.get().waitlist) {
+                removeFromWaitlist(student);
+            }
+        } finally {
+            Epochs.exit();
+        }
+    }
+
+    Versions<State> versions() {
+        return versions;
+    }
+
+    // Callers hold this course's monitor
+    @Override
+    public State freeze() {
+        return new State(this);
+    }
+}
+
+// Admin class
+class Admin {
+    // Username of the administrator login; a user of that name logs in first
+    static final String ADMINISTRATOR = "admin";
+
+    private static final Metrics.Timer AUTHENTICATE = Metrics.exactTimer("admin.authenticate");
+    private static final Metrics.Counter AUTHENTICATE_FAILED = Metrics.counter("admin.authenticate.failed");
+    private static final Metrics.Timer CREATE_STUDENT = Metrics.exactTimer("admin.createStudent");
+    private static final Metrics.Timer CREATE_TEACHER = Metrics.exactTimer("admin.createTeacher");
+    private static final Metrics.Timer CREATE_COURSE = Metrics.timer("admin.createCourse");
+    // Deletes are timed per batch and counted per entity
+    private static final Metrics.Timer DELETE_STUDENTS = Metrics.exactTimer("admin.deleteStudents");
+    private static final Metrics.Timer DELETE_TEACHERS = Metrics.exactTimer("admin.deleteTeachers");
+    private static final Metrics.Timer DELETE_COURSES = Metrics.exactTimer("admin.deleteCourses");
+    private static final Metrics.Counter DELETED = Metrics.counter("admin.deleted");
+    private static final Metrics.Timer SCHEDULE = Metrics.exactTimer("admin.schedule");
+    private static final Metrics.Timer CLOSE_TERM = Metrics.exactTimer("admin.closeTerm");
+
+    // Live, id-ordered (creation-ordered) views that are safe to iterate
+    // while other sessions create and delete
+    public final Collection<Student> students;
+    public final Collection<Teacher> teachers;
+    public final Collection<Course> courses;
+    private final ConcurrentSkipListMap<Integer, Student> studentsById;
+    private final ConcurrentSkipListMap<Integer, Teacher> teachersById;
+    private final ConcurrentSkipListMap<Integer, Course> coursesById;
+    // What the link columns resolve ids through (see LinkStore). An entity
+    // joins its table before its id map, under its own monitor, and leaves
+    // it after its links are gone.
+    private final LinkStore.Table<Student> studentTable = new LinkStore.Table<>(Student.class, Student::getId);
+    private final LinkStore.Table<Course> courseTable = new LinkStore.Table<>(Course.class, Course::getId);
+    private final UserRegistry registry;
+    private final SearchIndex<Course> courseIndex;
+    private final SearchIndex<Student> studentIndex;
+    private final GradeAnalytics analytics;
+    private final SessionTokens tokens;
+    private final AtomicInteger nextUserId;
+    private final AtomicInteger nextCourseId;
+    private volatile long journalSequence;
+    // Starts as the historical admin/admin login, in plaintext until the first
+    // login rehashes it. Changes are made under administratorLock.
+    private volatile String administratorCredential = ADMINISTRATOR;
+    private volatile int administratorPasswordVersion;
+    private final Object administratorLock = new Object();
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+    // Meetings booked into each room. Every change of a course's meetings is
+    // made under this monitor, which is taken before any course monitor.
+    private final Map<String, IntervalIndex<Course>> rooms = new HashMap<>();
+    // Bumped after every change of the course list or of a course's meetings
+    // (see ViewCache)
+    private final AtomicLong catalogueGeneration = new AtomicLong();
+    // Blocks of the lazily loaded snapshot, set by SnapshotFile; null when
+    // everything is in memory
+    private volatile SnapshotPages pages;
+    // Closed terms; null until one is attached at startup
+    private volatile TermArchive terms;
+    // A term whose rows are journaled but whose segment is not written yet.
+    // Guarded by termLock, which is taken before any user or course monitor;
+    // checkpoints take it too, so no snapshot lands inside a close.
+    private TermSegment.Builder closing;
+    private final Object termLock = new Object();
+
+    // A deleted entity and the epoch when it left the id maps
+    static final class Retired {
+        final Object entity;
+        final long stamp;
+
+        Retired(Object entity, long stamp) {
+            this.entity = entity;
+            this.stamp = stamp;
+        }
+    }
+
+    public Admin() {
+        this.studentsById = new ConcurrentSkipListMap<>();
+        this.teachersById = new ConcurrentSkipListMap<>();
+        this.coursesById = new ConcurrentSkipListMap<>();
+        this.students = Collections.unmodifiableCollection(studentsById.values());
+        this.teachers = Collections.unmodifiableCollection(teachersById.values());
+        this.courses = Collections.unmodifiableCollection(coursesById.values());
+        this.registry = new UserRegistry();
+        this.courseIndex = new SearchIndex<>();
+        this.studentIndex = new SearchIndex<>();
+        this.analytics = new GradeAnalytics();
+        this.tokens = new SessionTokens();
+        this.nextUserId = new AtomicInteger();
+        this.nextCourseId = new AtomicInteger();
+    }
+
+    public void createStudent(String name, String username, String password) {
+        Output.out().println(addStudent(name, username, password) != null
+                ? "Student account created successfully." : "Username already exists.");
+    }
+
+    // Quiet form of createStudent for bulk callers; null if the username is taken
+    Student addStudent(String name, String username, String password) {
+        long start = CREATE_STUDENT.start();
+        try {
+            return createStudentAccount(name, username, password);
+        } finally {
+            CREATE_STUDENT.record(start);
+        }
+    }
+
+    private Student createStudentAccount(String name, String username, String password) {
+        if (isUsernameExists(username)) {
+            return null;
+        }
+        // Hashed before any lock is taken; it is the slow part
+        String credential = Credentials.hash(password);
+        Student student = new Student(nextUserId.getAndIncrement(), name, username, credential);
+        // Held until the record is journaled, so nobody can enroll the new
+        // student and journal that first
+        synchronized (student) {
+            long epoch = Epochs.enter();
+            try {
+                student.versions().created(epoch);
+                if (!registry.add(student)) {
+                    return null;
+                }
+                student.bind(courseTable);
+                studentTable.put(student);
+                studentsById.put(student.getId(), student);
+                studentIndex.add(student, student.getId(), student.getName(), student.getUsername());
+                student.attach(analytics);
+                Journal.current().createStudent(student);
+                EventBus.current().userCreated(student);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        return student;
+    }
+
+    public void deleteStudent(Student student) {
+        deleteStudents(List.of(student));
+        Output.out().println("Student account deleted successfully.");
+    }
+
+    // Quiet batch form: one pass over the students' links, journaled
+    // together. Returns how many were deleted; the rest already were.
+    public int deleteStudents(Collection<Student> students) {
+        long start = DELETE_STUDENTS.start();
+        Set<Course> freed = new HashSet<>();
+        List<Student> removed = removeStudents(students, freed);
+        Journal.current().deleteStudents(removed);
+        EventBus.current().usersDeleted(removed);
+        // After the delete record, so replay meets the promotions' enroll
+        // records with the seats already free
+        for (Course course : freed) {
+            course.promoteWaitlist();
+        }
+        DELETE_STUDENTS.record(start);
+        DELETED.add(removed.size());
+        return removed.size();
+    }
+
+    public void createTeacher(String name, String username, String password) {
+        Output.out().println(addTeacher(name, username, password) != null
+                ? "Teacher account created successfully." : "Username already exists.");
+    }
+
+    Teacher addTeacher(String name, String username, String password) {
+        long start = CREATE_TEACHER.start();
+        try {
+            return createTeacherAccount(name, username, password);
+        } finally {
+            CREATE_TEACHER.record(start);
+        }
+    }
+
+    private Teacher createTeacherAccount(String name, String username, String password) {
+        if (isUsernameExists(username)) {
+            return null;
+        }
+        String credential = Credentials.hash(password);
+        Teacher teacher = new Teacher(nextUserId.getAndIncrement(), name, username, credential);
+        synchronized (teacher) {
+            long epoch = Epochs.enter();
+            try {
+                teacher.versions().created(epoch);
+                if (!registry.add(teacher)) {
+                    return null;
+                }
+                teacher.bind(courseTable);
+                teachersById.put(teacher.getId(), teacher);
+                Journal.current().createTeacher(teacher);
+                EventBus.current().userCreated(teacher);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        return teacher;
+    }
+
+    public void deleteTeacher(Teacher teacher) {
+        deleteTeachers(List.of(teacher));
+        Output.out().println("Teacher account deleted successfully.");
+    }
+
+    public int deleteTeachers(Collection<Teacher> teachers) {
+        long start = DELETE_TEACHERS.start();
+        List<Teacher> removed = removeTeachers(teachers);
+        Journal.current().deleteTeachers(removed);
+        EventBus.current().usersDeleted(removed);
+        DELETE_TEACHERS.record(start);
+        DELETED.add(removed.size());
+        return removed.size();
+    }
+
+    public void createCourse(String name) {
+        addCourse(name);
+        Output.out().println("Course created successfully.");
+    }
+
+    Course addCourse(String name) {
+        long start = CREATE_COURSE.start();
+        Course course = new Course(nextCourseId.getAndIncrement(), name);
+        synchronized (course) {
+            long epoch = Epochs.enter();
+            try {
+                course.versions().created(epoch);
+                course.bind(studentTable);
+                courseTable.put(course);
+                coursesById.put(course.getId(), course);
+                courseIndex.add(course, course.getId(), course.getName());
+                Journal.current().createCourse(course);
+                EventBus.current().courseCreated(course);
+            } finally {
+                Epochs.exit();
+            }
+        }
+        catalogueGeneration.incrementAndGet();
+        CREATE_COURSE.record(start);
+        return course;
+    }
+
+    public void deleteCourse(Course course) {
+        deleteCourses(List.of(course));
+        Output.out().println("Course deleted successfully.");
+    }
+
+    public int deleteCourses(Collection<Course> courses) {
+        long start = DELETE_COURSES.start();
+        List<Course> removed = removeCourses(courses);
+        Journal.current().deleteCourses(removed);
+        EventBus.current().coursesDeleted(removed);
+        DELETE_COURSES.record(start);
+        DELETED.add(removed.size());
+        return removed.size();
+    }
+
+    // Cascades behind the delete operations, shared with journal replay.
+    // Every entity in a batch is marked deleted first, under its own monitor,
+    // so no new links to it can appear; then each remaining link is found
+    // through the reverse indexes on either side and removed once, with the
+    // usual user-then-course locking. Each returns the entities it deleted;
+    // ones already deleted are skipped.
+    // Adds the courses whose seats were freed to freed; the caller promotes
+    // their waitlists once it holds no locks
+    List<Student> removeStudents(Collection<Student> students, Set<Course> freed) {
+        List<Student> removed = new ArrayList<>(students.size());
+        for (Student student : students) {
+            if (mark(student)) {
+                removed.add(student);
+            }
+        }
+        for (Student student : removed) {
+            // leave() clears roster, waitlist and grade together, so a course
+            // that was on several of these lists is skipped the second time
+            for (Course course : student.getCourses()) {
+                if (student.leave(course)) {
+                    freed.add(course);
+                }
+            }
+            for (Course course : student.getWaitlisted()) {
+                student.leave(course);
+            }
+            for (Course course : student.getGradedCourses()) {
+                student.leave(course);
+            }
+            retire(student);
+            studentsById.remove(student.getId());
+            studentTable.remove(student);
+            registry.remove(student);
+            studentIndex.remove(student);
+            student.detach();
+        }
+        return removed;
+    }
+
+    List<Teacher> removeTeachers(Collection<Teacher> teachers) {
+        List<Teacher> removed = new ArrayList<>(teachers.size());
+        for (Teacher teacher : teachers) {
+            if (mark(teacher)) {
+                removed.add(teacher);
+            }
+        }
+        for (Teacher teacher : removed) {
+            for (Course course : teacher.getCourses()) {
+                teacher.leave(course);
+            }
+            retire(teacher);
+            teachersById.remove(teacher.getId());
+            registry.remove(teacher);
+        }
+        return removed;
+    }
+
+    List<Course> removeCourses(Collection<Course> courses) {
+        List<Course> removed = new ArrayList<>(courses.size());
+        for (Course course : courses) {
+            // Marking also empties the waitlist
+            synchronized (course) {
+                if (!course.isDeleted()) {
+                    course.markDeleted();
+                    removed.add(course);
+                }
+            }
+        }
+        for (Course course : removed) {
+            courseIndex.remove(course);
+            for (Student student : course.getStudents()) {
+                student.leave(course);
+            }
+            // Grades can outlive a roster entry; clear them so GPAs drop the course
+            for (int studentId : course.getGradeTable()[0]) {
+                User student = findUser(studentId);
+                if (student instanceof Student) {
+                    student.leave(course);
+                }
+            }
+            for (Teacher teacher : course.getTeachers()) {
+                teacher.leave(course);
+            }
+            // The meetings stay on the course for views; the rooms are free
+            synchronized (rooms) {
+                unbook(course);
+            }
+            retire(course);
+            coursesById.remove(course.getId());
+            courseTable.remove(course);
+            catalogueGeneration.incrementAndGet();
+        }
+        return removed;
+    }
+
+    // Replaces the course's weekly meetings. Returns a course already booked
+    // into one of the rooms at one of those times, in which case nothing
+    // changes; otherwise null once the meetings are set and journaled. The
+    // meetings must not overlap each other (see Meeting.checked). Students
+    // and teachers already in the course keep their places even if the new
+    // times clash with their other courses; only new places are checked. A
+    // deleted course is left alone.
+    public Course schedule(Course course, List<Meeting> meetings) {
+        meetings = Meeting.checked(meetings);
+        long start = SCHEDULE.start();
+        try {
+            synchronized (rooms) {
+                if (course.isDeleted()) {
+                    return null;
+                }
+                for (Meeting meeting : meetings) {
+                    IntervalIndex<Course> booked = rooms.get(meeting.getRoom());
+                    Course conflict = booked == null ? null
+                            : booked.without(course).conflict(meeting.weekStart(), meeting.weekEnd());
+                    if (conflict != null) {
+                        return conflict;
+                    }
+                }
+                setMeetings(course, meetings);
+                Journal.current().setMeetings(List.of(course));
+            }
+            return null;
+        } finally {
+            SCHEDULE.record(start);
+        }
+    }
+
+    // Applies a solved term (see TimetableSolver): every course the solver was
+    // given gets its new meetings, or none if it was not placed, journaled
+    // together. A placement that clashes with a room booked by a course the
+    // solver was not given is dropped too. Returns how many were scheduled.
+    public int applyTimetable(TimetableSolver.Result result) {
+        List<Course> changed = new ArrayList<>(result.size());
+        int scheduled = 0;
+        synchronized (rooms) {
+            for (int i = 0; i < result.size(); i++) {
+                unbook(result.course(i));
+            }
+            for (int i = 0; i < result.size(); i++) {
+                Course course = result.course(i);
+                if (course.isDeleted()) {
+                    continue;
+                }
+                List<Meeting> meetings = result.meetings(i);
+                for (Meeting meeting : meetings) {
+                    IntervalIndex<Course> booked = rooms.get(meeting.getRoom());
+                    if (booked != null && booked.conflict(meeting.weekStart(), meeting.weekEnd()) != null) {
+                        meetings = List.of();
+                        break;
+                    }
+                }
+                course.setMeetings(meetings);
+                book(course, meetings);
+                catalogueGeneration.incrementAndGet();
+                changed.add(course);
+                scheduled += meetings.isEmpty() ? 0 : 1;
+            }
+            Journal.current().setMeetings(changed);
+        }
+        return scheduled;
+    }
+
+    // Loader and replay: no room checks and no journaling
+    void restoreMeetings(Course course, List<Meeting> meetings) {
+        synchronized (rooms) {
+            setMeetings(course, meetings);
+        }
+    }
+
+    // Callers hold the rooms monitor
+    private void setMeetings(Course course, List<Meeting> meetings) {
+        unbook(course);
+        course.setMeetings(meetings);
+        book(course, meetings);
+        catalogueGeneration.incrementAndGet();
+    }
+
+    private void book(Course course, List<Meeting> meetings) {
+        Map<String, List<Meeting>> byRoom = new HashMap<>();
+        for (Meeting meeting : meetings) {
+            byRoom.computeIfAbsent(meeting.getRoom(), room -> new ArrayList<>()).add(meeting);
+        }
+        for (Map.Entry<String, List<Meeting>> entry : byRoom.entrySet()) {
+            rooms.put(entry.getKey(), rooms.getOrDefault(entry.getKey(), IntervalIndex.empty())
+                    .with(course, entry.getValue()));
+        }
+    }
+
+    private void unbook(Course course) {
+        for (Meeting meeting : course.getMeetings()) {
+            IntervalIndex<Course> booked = rooms.get(meeting.getRoom());
+            if (booked != null) {
+                booked = booked.without(course);
+                if (booked.size() == 0) {
+                    rooms.remove(meeting.getRoom());
+                } else {
+                    rooms.put(meeting.getRoom(), booked);
+                }
+            }
+        }
+    }
+
+    private static boolean mark(User user) {
+        synchronized (user) {
+            if (user.isDeleted()) {
+                return false;
+            }
+            Epochs.enter();
+            try {
+                user.markDeleted();
+            } finally {
+                Epochs.exit();
+            }
+            return true;
+        }
+    }
+
+    // Deleted entities stay listed for the views open while they were
+    // deleted, until those views close. Called before the entity leaves
+    // its id map, since views read the maps first.
+    private void retire(Object entity) {
+        if (Epochs.oldest() != Long.MAX_VALUE) {
+            retired.add(new Retired(entity, Epochs.now()));
+        }
+    }
+
+    // Consistent view of the current state; close it when done
+    public PointInTime openView() {
+        return new PointInTime(this);
+    }
+
+    Collection<Retired> getRetired() {
+        return retired;
+    }
+
+    // Called as views close
+    void pruneRetired() {
+        long oldest = Epochs.oldest();
+        retired.removeIf(entry -> entry.stamp < oldest);
+    }
+
+    // Journal replay: promotions were journaled as enrollments of their own
+    boolean removeStudent(Student student) {
+        return !removeStudents(List.of(student), new HashSet<>()).isEmpty();
+    }
+
+    boolean removeTeacher(Teacher teacher) {
+        return !removeTeachers(List.of(teacher)).isEmpty();
+    }
+
+    boolean removeCourse(Course course) {
+        return !removeCourses(List.of(course)).isEmpty();
+    }
+
+    public void viewAllStudents() {
+        Output.out().list("Students:", students, (student, out) -> out.print("- ").print(student.getName()));
+    }
+
+    public void viewAllTeachers() {
+        Output.out().list("Teachers:", teachers, (teacher, out) -> out.print("- ").print(teacher.getName()));
+    }
+
+    // Cached until a course is created, deleted or rescheduled
+    public void viewAllCourses() {
+        ViewCache.shared().get(ViewCache.Kind.CATALOGUE, this, catalogueGeneration.get(),
+                () -> ViewCache.render("Courses:", courses, (course, out) -> course.printSummary(out), null))
+                .print(Output.out());
+    }
+
+    public User findUser(String username) {
+        return registry.get(username);
+    }
+
+    public GradeAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    public SessionTokens getTokens() {
+        return tokens;
+    }
+
+    // True if password is user's. An unknown user (null) still costs one
+    // hash, so the reply does not tell which usernames exist. Plaintext and
+    // outdated hashes are replaced once the password checks out.
+    // Password checks are timed and failures counted, administrator included
+    public boolean authenticate(User user, String password) {
+        long start = AUTHENTICATE.start();
+        boolean valid = verify(user, password);
+        AUTHENTICATE.record(start);
+        if (!valid) {
+            AUTHENTICATE_FAILED.increment();
         }
+        return valid;
     }
-}
 
-// Student class
-class Student extends User {
-    public Student(String name, String username, String password) {
-        super(name, username, password);
+    private boolean verify(User user, String password) {
+        if (user == null) {
+            Credentials.verifyDecoy(password);
+            return false;
+        }
+        String credential = user.getCredential();
+        if (!Credentials.verify(credential, password)) {
+            return false;
+        }
+        if (Credentials.needsRehash(credential)) {
+            String upgraded = Credentials.hash(password);
+            synchronized (user) {
+                if (user.getCredential().equals(credential) && !user.isDeleted()) {
+                    user.setCredential(upgraded);
+                    Journal.current().setCredential(user.getId(), upgraded);
+                }
+            }
+        }
+        return true;
     }
 
-    @Override
-    public void enroll(Course course) {
-        if (!getCourses().contains(course)) {
-            getCourses().add(course);
-            course.addStudent(this);
-            System.out.println("Successfully enrolled in " + course.getName());
-        } else {
-            System.out.println("Already enrolled in " + course.getName());
+    public boolean authenticateAdministrator(String password) {
+        long start = AUTHENTICATE.start();
+        boolean valid = verifyAdministrator(password);
+        AUTHENTICATE.record(start);
+        if (!valid) {
+            AUTHENTICATE_FAILED.increment();
         }
+        return valid;
     }
 
-    @Override
-    public void drop(Course course) {
-        if (getCourses().contains(course)) {
-            getCourses().remove(course);
-            course.removeStudent(this);
-            System.out.println("Successfully dropped " + course.getName());
-        } else {
-            System.out.println("Not enrolled in " + course.getName());
+    private boolean verifyAdministrator(String password) {
+        String credential = administratorCredential;
+        if (!Credentials.verify(credential, password)) {
+            return false;
         }
+        if (Credentials.needsRehash(credential)) {
+            String upgraded = Credentials.hash(password);
+            synchronized (administratorLock) {
+                if (administratorCredential.equals(credential)) {
+                    administratorCredential = upgraded;
+                    Journal.current().setCredential(Journal.ADMINISTRATOR_ID, upgraded);
+                }
+            }
+        }
+        return true;
     }
 
-    public void checkGrades() {
-        System.out.println("Grades:");
-        for (Course course : getCourses()) {
-            System.out.println(course.getName() + ": " + course.getGrade(this));
+    // user null changes the administrator's password
+    public void changePassword(User user, String password) {
+        String credential = Credentials.hash(password);
+        if (user == null) {
+            synchronized (administratorLock) {
+                administratorCredential = credential;
+                administratorPasswordVersion++;
+                Journal.current().setCredential(Journal.ADMINISTRATOR_ID, credential);
+            }
+            return;
+        }
+        synchronized (user) {
+            if (!user.isDeleted()) {
+                user.changeCredential(credential);
+                Journal.current().setCredential(user.getId(), credential);
+            }
         }
     }
-}
 
-// Teacher class
-class Teacher extends User {
-    public Teacher(String name, String username, String password) {
-        super(name, username, password);
+    public String getAdministratorCredential() {
+        return administratorCredential;
     }
 
-    @Override
-    public void enroll(Course course) {
-        if (!getCourses().contains(course)) {
-            getCourses().add(course);
-            System.out.println("Successfully enrolled in " + course.getName());
-        } else {
-            System.out.println("Already enrolled in " + course.getName());
-        }
+    // user null for the administrator; rehashing on login leaves it as is
+    public int getPasswordVersion(User user) {
+        return user == null ? administratorPasswordVersion : user.getPasswordVersion();
     }
 
-    @Override
-    public void drop(Course course) {
-        if (getCourses().contains(course)) {
-            getCourses().remove(course);
-            course.setTeacher(null);
-            System.out.println("Successfully dropped " + course.getName());
-        } else {
-            System.out.println("Not enrolled in " + course.getName());
-        }
+    public User findUser(int id) {
+        return registry.get(id);
     }
 
-    public void addStudent(Student student, Course course) {
-        if (getCourses().contains(course)) {
-            student.enroll(course);
-        } else {
-            System.out.println("You are not enrolled in " + course.getName());
-        }
+    public Course findCourse(int id) {
+        return coursesById.get(id);
     }
 
-    public void removeStudent(Student student, Course course) {
-        if (getCourses().contains(course)) {
-            student.drop(course);
-        } else {
-            System.out.println("You are not enrolled in " + course.getName());
-        }
+    // Case- and whitespace-insensitive exact name; the oldest course if several match
+    public Course findCourse(String name) {
+        return courseIndex.findExact(name);
     }
 
-    public void assignGrade(Student student, Course course, int grade) {
-        if (getCourses().contains(course)) {
-            course.setGrade(student, grade);
-        } else {
-            System.out.println("You are not enrolled in " + course.getName());
-        }
+    // Ranked prefix, substring and typo-tolerant matches on course names
+    public List<Course> searchCourses(String query, int offset, int limit) {
+        return courseIndex.find(query, offset, limit);
     }
 
-    public void viewStudents(Course course) {
-        if (getCourses().contains(course)) {
-            System.out.println("Students enrolled in " + course.getName() + ":");
-            for (Student student : course.getStudents()) {
-                System.out.println("- " + student.getName());
+    // The same over student names and usernames
+    public List<Student> searchStudents(String query, int offset, int limit) {
+        return studentIndex.find(query, offset, limit);
+    }
+
+    // Exact (case- and whitespace-insensitive) name match first, then username
+    public Student findStudent(String nameOrUsername) {
+        for (User user : registry.findByName(nameOrUsername)) {
+            if (user instanceof Student) {
+                return (Student) user;
             }
-        } else {
-            System.out.println("You are not enrolled in " + course.getName());
         }
+        User user = registry.get(nameOrUsername);
+        return user instanceof Student ? (Student) user : null;
     }
-}
-
-// Course class
-class Course implements Serializable {
-    private String name;
-    private Teacher teacher;
-    private List<Student> students;
-    private Map<Student, Integer> grades;
 
-    public Course(String name) {
-        this.name = name;
-        this.students = new ArrayList<>();
-        this.grades = new HashMap<>();
+    boolean isUsernameExists(String username) {
+        return registry.contains(username);
     }
 
-    public String getName() {
-        return name;
+    public int getNextUserId() {
+        return nextUserId.get();
     }
 
-    public Teacher getTeacher() {
-        return teacher;
+    public int getNextCourseId() {
+        return nextCourseId.get();
     }
 
-    public void setTeacher(Teacher teacher) {
-        this.teacher = teacher;
+    // Sequence number of the last journal record reflected in this state
+    public long getJournalSequence() {
+        return journalSequence;
     }
 
-    public List<Student> getStudents() {
-        return students;
+    // Used when rebuilding state from disk: ids are taken as stored and nothing is printed
+    void restoreIds(int nextUserId, int nextCourseId) {
+        this.nextUserId.accumulateAndGet(nextUserId, Math::max);
+        this.nextCourseId.accumulateAndGet(nextCourseId, Math::max);
     }
 
-    public void addStudent(Student student) {
-        students.add(student);
+    void restoreJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
     }
 
-    public void removeStudent(Student student) {
-        students.remove(student);
-        grades.remove(student);
+    void restoreAdministratorCredential(String credential) {
+        administratorCredential = credential;
     }
 
-    public int getGrade(Student student) {
-        return grades.getOrDefault(student, -1);
+    SnapshotPages getPages() {
+        return pages;
     }
 
-    public void setGrade(Student student, int grade) {
-        grades.put(student, grade);
+    public TermArchive getTerms() {
+        return terms;
     }
-}
-
-// Admin class
-class Admin {
-    public List<Student> students;
-    public List<Teacher> teachers;
-    public List<Course> courses;
 
-    public Admin() {
-        this.students = new ArrayList<>();
-        this.teachers = new ArrayList<>();
-        this.courses = new ArrayList<>();
+    void setTerms(TermArchive terms) {
+        this.terms = terms;
     }
 
-    public void createStudent(String name, String username, String password) {
-        Student student = new Student(name, username, password);
-        if (!isUsernameExists(username)) {
-            students.add(student);
-            System.out.println("Student account created successfully.");
-        } else {
-            System.out.println("Username already exists.");
+    // Moves every enrollment and grade of the term into the archive and opens
+    // the freed seats to the waitlists; courses, teachers and waitlists stay.
+    // Each row is read and removed under the student's and the course's
+    // monitors and journaled as it goes, so a change made meanwhile lands
+    // wholly before its row (and is archived) or wholly after (and carries
+    // over). The rows are durable before the segment is written, and the
+    // close is journaled once it is, so replay finishes a close a crash cut
+    // short. Null if a term of that name exists.
+    TermSegment closeTerm(String name) throws IOException {
+        TermArchive archive = terms;
+        if (archive == null) {
+            throw new IOException("No term archive is attached");
+        }
+        long start = CLOSE_TERM.start();
+        TermSegment term;
+        synchronized (termLock) {
+            settleTermClose();
+            if (archive.find(name) != null) {
+                return null;
+            }
+            Journal journal = Journal.current();
+            TermSegment.Builder rows = new TermSegment.Builder(name);
+            closing = rows;
+            journal.beginTerm(rows.getName());
+            for (Course course : courses) {
+                rows.course(course.getId(), course.getName());
+                for (Student student : course.getStudents()) {
+                    archiveRow(rows, student, course);
+                }
+                // Grades can outlive a roster entry
+                int[] graded;
+                synchronized (course) {
+                    graded = course.getGradeTable()[0];
+                }
+                for (int studentId : graded) {
+                    User student = findUser(studentId);
+                    if (student instanceof Student) {
+                        archiveRow(rows, (Student) student, course);
+                    }
+                }
+            }
+            journal.sync();
+            term = settleTermClose();
+        }
+        for (Course course : courses) {
+            course.promoteWaitlist();
         }
+        CLOSE_TERM.record(start);
+        return term;
     }
 
-    public void deleteStudent(Student student) {
-        for (Course course : student.getCourses()) {
-            course.removeStudent(student);
+    // One student's seat and grade in the course, archived and removed together
+    private void archiveRow(TermSegment.Builder rows, Student student, Course course) {
+        synchronized (student) {
+            synchronized (course) {
+                Epochs.enter();
+                try {
+                    boolean seated = course.getStudents().contains(student);
+                    int grade = course.getGrade(student);
+                    if (!seated && grade == GradeStore.NO_GRADE) {
+                        return;
+                    }
+                    rows.add(student.getId(), course.getId(), grade);
+                    student.endTerm(course);
+                    Journal.current().termRow(student, course, grade);
+                    if (seated) {
+                        EventBus.current().dropped(student, course);
+                    }
+                } finally {
+                    Epochs.exit();
+                }
+            }
         }
-        students.remove(student);
-        System.out.println("Student account deleted successfully.");
     }
 
-    public void createTeacher(String name, String username, String password) {
-        Teacher teacher = new Teacher(name, username, password);
-        if (!isUsernameExists(username)) {
-            teachers.add(teacher);
-            System.out.println("Teacher account created successfully.");
-        } else {
-            System.out.println("Username already exists.");
+    // Writes the segment of a close whose rows are all journaled, then
+    // journals the close; returns the segment. Callers hold termLock.
+    private TermSegment settleTermClose() throws IOException {
+        TermSegment.Builder rows = closing;
+        if (rows == null) {
+            return null;
+        }
+        TermArchive archive = terms;
+        TermSegment term = archive.find(rows.getName());
+        if (term == null) {
+            term = archive.add(rows);
         }
+        Journal.current().closeTerm(rows.getName());
+        closing = null;
+        return term;
     }
 
-    public void deleteTeacher(Teacher teacher) {
-        for (Course course : teacher.getCourses()) {
-            course.setTeacher(null);
+    // Checkpoints run this first and snapshot inside it, so a snapshot never
+    // drops journaled rows of a term that is not archived yet
+    void withoutTermClose(IOAction action) throws IOException {
+        synchronized (termLock) {
+            settleTermClose();
+            action.run();
         }
-        teachers.remove(teacher);
-        System.out.println("Teacher account deleted successfully.");
     }
 
-    public void createCourse(String name) {
-        Course course = new Course(name);
-        courses.add(course);
-        System.out.println("Course created successfully.");
+    interface IOAction {
+        void run() throws IOException;
     }
 
-    public void deleteCourse(Course course) {
-        for (Student student : course.getStudents()) {
-            student.drop(course);
-        }
-        if (course.getTeacher() != null) {
-            course.getTeacher().drop(course);
+    // Replay of a BEGIN_TERM record: the close's rows follow
+    void replayBeginTerm(String name) {
+        synchronized (termLock) {
+            closing = new TermSegment.Builder(name);
+            for (Course course : courses) {
+                closing.course(course.getId(), course.getName());
+            }
         }
-        courses.remove(course);
-        System.out.println("Course deleted successfully.");
     }
 
-    public void viewAllStudents() {
-        System.out.println("Students:");
-        for (Student student : students) {
-            System.out.println("- " + student.getName());
+    // Replay of a TERM_ROW record
+    void replayTermRow(int studentId, int courseId, int grade) {
+        User student = findUser(studentId);
+        Course course = findCourse(courseId);
+        synchronized (termLock) {
+            if (closing != null) {
+                closing.add(studentId, courseId, grade);
+            }
         }
-    }
-
-    public void viewAllTeachers() {
-        System.out.println("Teachers:");
-        for (Teacher teacher : teachers) {
-            System.out.println("- " + teacher.getName());
+        if (student instanceof Student && course != null) {
+            synchronized (student) {
+                synchronized (course) {
+                    Epochs.enter();
+                    try {
+                        ((Student) student).endTerm(course);
+                    } finally {
+                        Epochs.exit();
+                    }
+                }
+            }
         }
     }
 
-    public void viewAllCourses() {
-        System.out.println("Courses:");
-        for (Course course : courses) {
-            System.out.println("- " + course.getName());
+    // Replay of a CLOSE_TERM record. Journals from before BEGIN_TERM have no
+    // rows, so their close removes the archived rows again.
+    void replayCloseTerm(String name) throws IOException {
+        synchronized (termLock) {
+            if (closing != null && closing.getName().equalsIgnoreCase(name.trim())) {
+                finishReplayedClose();
+                return;
+            }
+        }
+        TermArchive archive = terms;
+        TermSegment term = archive == null ? null : archive.find(name);
+        if (term != null) {
+            endTerm(term);
         }
     }
 
-    private boolean isUsernameExists(String username) {
-        for (Student student : students) {
-            if (student.getUsername().equals(username)) {
-                return true;
+    // End of a replayed close, or of replay: a close whose segment is
+    // missing, because a crash cut it short, gets it now
+    void finishReplayedClose() throws IOException {
+        synchronized (termLock) {
+            TermSegment.Builder rows = closing;
+            if (rows == null) {
+                return;
             }
-        }
-        for (Teacher teacher : teachers) {
-            if (teacher.getUsername().equals(username)) {
-                return true;
+            TermArchive archive = terms;
+            if (archive == null) {
+                throw new IOException("No term archive is attached to finish closing " + rows.getName());
             }
+            if (archive.find(rows.getName()) == null) {
+                archive.add(rows);
+            }
+            closing = null;
         }
-        return false;
+    }
+
+    // Removes the term's enrollments and grades (journals without TERM_ROW)
+    void endTerm(TermSegment term) {
+        term.forEach((studentId, courseId, grade) -> {
+            User student = findUser(studentId);
+            Course course = findCourse(courseId);
+            if (student instanceof Student && course != null && student.leave(course)) {
+                EventBus.current().dropped(student, course);
+            }
+        });
+    }
+
+    LinkStore.Table<Student> getStudentTable() {
+        return studentTable;
+    }
+
+    LinkStore.Table<Course> getCourseTable() {
+        return courseTable;
+    }
+
+    void setPages(SnapshotPages pages) {
+        this.pages = pages;
+    }
+
+    void restoreStudent(Student student) {
+        registry.add(student);
+        student.bind(courseTable);
+        studentTable.put(student);
+        studentsById.put(student.getId(), student);
+        studentIndex.add(student, student.getId(), student.getName(), student.getUsername());
+        student.attach(analytics);
+        nextUserId.accumulateAndGet(student.getId() + 1, Math::max);
+    }
+
+    void restoreTeacher(Teacher teacher) {
+        registry.add(teacher);
+        teacher.bind(courseTable);
+        teachersById.put(teacher.getId(), teacher);
+        nextUserId.accumulateAndGet(teacher.getId() + 1, Math::max);
+    }
+
+    void restoreCourse(Course course) {
+        course.bind(studentTable);
+        courseTable.put(course);
+        coursesById.put(course.getId(), course);
+        courseIndex.add(course, course.getId(), course.getName());
+        nextCourseId.accumulateAndGet(course.getId() + 1, Math::max);
+        catalogueGeneration.incrementAndGet();
     }
 }
 
 // Main class
 public class SchoolManagementSystem {
-    private static Admin admin;
+    private static final String DATA_FILE = "data.snap";
+    private static final String JOURNAL_FILE = "data.wal";
+    // The journal flusher writes a batch after this many records or this many
+    // milliseconds; with sms.journal.async that bounds what a crash can lose
+    private static final int JOURNAL_SYNC_EVERY = Integer.getInteger("sms.journal.syncEvery", 64);
+    private static final long JOURNAL_SYNC_MILLIS = Long.getLong("sms.journal.syncMillis", 20L);
+    // Opt-out: acknowledge changes before they are fsynced, losing up to one batch in a crash
+    private static final boolean JOURNAL_ASYNC = Boolean.getBoolean("sms.journal.async");
+    // Checkpoint (snapshot + journal truncation) once the journal grows past this size
+    private static final long JOURNAL_COMPACT_BYTES = Long.getLong("sms.journal.compactBytes", 16L << 20);
+    // With sms.metrics.file set, the metrics are written there this often and at exit
+    private static final String METRICS_FILE = System.getProperty("sms.metrics.file");
+    private static final long METRICS_DUMP_SECONDS = Long.getLong("sms.metrics.dumpSeconds", 60L);
+    // With sms.audit.file set, every change is appended there (see AuditLog)
+    private static final String AUDIT_FILE = System.getProperty("sms.audit.file");
+    private static final int EVENT_CAPACITY = Integer.getInteger("sms.events.capacity", EventBus.DEFAULT_CAPACITY);
+    // Closed terms are archived here, one segment file per term (see TermArchive)
+    private static final String TERMS_DIR = System.getProperty("sms.terms.dir", TermArchive.DEFAULT_DIR);
+
+    private static volatile Admin admin;
+    private static volatile Journal journal;
+    private static volatile EventBus events;
+    private static ScheduledExecutorService compactor;
     private static Scanner scanner;
 
+    // With "--serve PORT" the system runs headless and serves sessions over
+    // TCP (see SessionServer) until it is stopped; "--import FILE" and
+    // "--export FILE" load or dump CSV (see CsvImport) and exit, "--reports DIR"
+    // writes the term-end reports (see Reports); otherwise it runs the console
     public static void main(String[] args) {
         admin = new Admin();
         scanner = new Scanner(System.in);
 
-        // Initialize admin account
-        admin.createStudent("Admin", "admin", "admin");
+        // The administrator logs in as Admin.ADMINISTRATOR; no account is needed
 
         // Create some sample data
         admin.createTeacher("John Doe", "jdoe", "password");
@@ -312,6 +2124,32 @@ public class SchoolManagementSystem {
 
         // Load data from file
         loadData();
+        startMetrics();
+
+        if (args.length == 2 && args[0].equals("--serve")) {
+            serve(Integer.parseInt(args[1]));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--reports")) {
+            try (Reports reports = new Reports()) {
+                reports.writeAll(admin, Paths.get(args[1]));
+                System.out.println("Reports written to " + args[1] + ".");
+            } catch (IOException e) {
+                System.out.println("Error writing reports: " + e.getMessage());
+            }
+            closeJournal();
+            return;
+        }
+        if (args.length == 2 && (args[0].equals("--import") || args[0].equals("--export"))) {
+            if (args[0].equals("--import")) {
+                importCsv(Paths.get(args[1]));
+            } else {
+                exportCsv(Paths.get(args[1]));
+            }
+            saveData();
+            closeJournal();
+            return;
+        }
 
         boolean exit = false;
         while (!exit) {
@@ -334,34 +2172,185 @@ public class SchoolManagementSystem {
 
         // Save data to file
         saveData();
+        closeJournal();
+    }
+
+    private static void serve(int port) {
+        try {
+            SessionServer server = new SessionServer(admin, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.out.println("Error stopping server: " + e.getMessage());
+                }
+                saveData();
+                closeJournal();
+            }));
+            server.start();
+            System.out.println("Serving sessions on port " + server.getPort() + ".");
+            server.awaitClose();
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    private static void importCsv(Path file) {
+        long start = System.nanoTime();
+        CsvImport csvImport = new CsvImport(admin);
+        try (Reader in = Files.newBufferedReader(file)) {
+            csvImport.run(in, report -> {
+                System.out.println(report);
+                for (String error : report.errors) {
+                    System.out.println("  " + error);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error importing " + file + ": " + e.getMessage());
+        }
+        System.out.printf("Imported %d rows (%d failed) in %.1f s.%n",
+                csvImport.getApplied(), csvImport.getFailed(), (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void exportCsv(Path file) {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            long rows = CsvExport.write(admin, out);
+            System.out.println("Exported " + rows + " rows to " + file + ".");
+        } catch (IOException e) {
+            System.out.println("Error exporting " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Loads the last snapshot, replays the journal on top of it and starts journaling
     private static void loadData() {
+        Path snapshot = Paths.get(DATA_FILE);
+        Path journalFile = Paths.get(JOURNAL_FILE);
         try {
-            FileInputStream fileIn = new FileInputStream("data.ser");
-            ObjectInputStream in = new ObjectInputStream(fileIn);
-            admin = (Admin) in.readObject();
-            in.close();
-            fileIn.close();
+            if (Files.exists(snapshot)) {
+                admin = SnapshotFile.read(snapshot);
+            }
+            // Before replay, which ends the terms closed since the snapshot
+            admin.setTerms(TermArchive.open(Paths.get(TERMS_DIR)));
+            long lastSequence = Journal.replay(admin, journalFile);
+            journal = Journal.open(journalFile, lastSequence, JOURNAL_SYNC_EVERY, JOURNAL_SYNC_MILLIS, !JOURNAL_ASYNC);
+            Journal.install(journal);
+            startCompactor();
+            startEvents();
             System.out.println("Data loaded successfully.");
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.out.println("Error loading data: " + e.getMessage());
         }
     }
 
+    // Changes are published only once there is a subscriber
+    private static void startEvents() throws IOException {
+        if (AUDIT_FILE == null) {
+            return;
+        }
+        events = new EventBus(EVENT_CAPACITY, List.of(new AuditLog(Paths.get(AUDIT_FILE))));
+        EventBus.install(events);
+    }
+
+    private static void closeEvents() {
+        if (events == null) {
+            return;
+        }
+        EventBus.install(null);
+        events.close();
+    }
+
     private static void saveData() {
         try {
-            FileOutputStream fileOut = new FileOutputStream("data.ser");
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            out.writeObject(admin);
-            out.close();
-            fileOut.close();
+            checkpoint();
             System.out.println("Data saved successfully.");
         } catch (IOException e) {
             System.out.println("Error saving data: " + e.getMessage());
         }
     }
 
+    // Writes a full snapshot while sessions keep running and, once it is
+    // durable, drops the journal records it covers
+    private static synchronized void checkpoint() throws IOException {
+        if (journal == null) {
+            SnapshotFile.write(admin, admin.getJournalSequence(), Paths.get(DATA_FILE));
+            return;
+        }
+        Admin current = admin;
+        current.withoutTermClose(() -> {
+            Journal.Mark mark = journal.mark();
+            SnapshotFile.write(current, mark.sequence, Paths.get(DATA_FILE));
+            journal.discardThrough(mark);
+        });
+    }
+
+    private static void startCompactor() {
+        compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            if (journal.size() > JOURNAL_COMPACT_BYTES) {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    System.out.println("Error compacting journal: " + e.getMessage());
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Gauges read the current admin and journal, so they follow a reload
+    private static void startMetrics() {
+        Metrics.gauge("admin.students", () -> admin.students.size());
+        Metrics.gauge("admin.teachers", () -> admin.teachers.size());
+        Metrics.gauge("admin.courses", () -> admin.courses.size());
+        Metrics.gauge("journal.size", () -> journal == null ? 0 : journal.size());
+        Metrics.gauge("events.published", () -> EventBus.current().published());
+        Metrics.gauge("events.backlog", () -> EventBus.current().backlog());
+        Metrics.gauge("views.open", Epochs::openViews);
+        Metrics.gauge("viewcache.entries", () -> ViewCache.shared().getEntryCount());
+        Metrics.gauge("viewcache.chars", () -> ViewCache.shared().getWeight());
+        Metrics.gauge("pages.resident", () -> {
+            SnapshotPages pages = admin.getPages();
+            return pages == null ? 0 : pages.getResidentBytes();
+        });
+        if (METRICS_FILE == null) {
+            return;
+        }
+        Path file = Paths.get(METRICS_FILE);
+        Runnable dump = () -> {
+            try {
+                Metrics.dump(file);
+            } catch (IOException e) {
+                System.out.println("Error writing metrics: " + e.getMessage());
+            }
+        };
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(dump, METRICS_DUMP_SECONDS, METRICS_DUMP_SECONDS, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(dump));
+    }
+
+    private static void closeJournal() {
+        closeEvents();
+        if (journal == null) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            Journal.install(null);
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
     private static void displayLoginMenu() {
         System.out.println("=== School Management System ===");
         System.out.println("1. Login");
@@ -369,48 +2358,83 @@ public class SchoolManagementSystem {
         System.out.print("Enter your choice: ");
     }
 
+    // The console is one more client of the session protocol: the menus only
+    // collect input and hand each request to its Session
     private static void login() {
         System.out.print("Enter username: ");
         String username = scanner.nextLine();
         System.out.print("Enter password: ");
         String password = scanner.nextLine();
 
-        User user = (User) findUser(username, password);
-        if (user == null) {
-            System.out.println("Invalid username or password.");
-            return;
-        }
-
-        if (user instanceof Student) {
-            displayStudentMenu((Student) user);
-        } else if (user instanceof Teacher) {
-            displayTeacherMenu((Teacher) user);
-        } else {
-            displayAdminMenu();
+        Session session = new Session(admin);
+        session.execute("LOGIN " + username + "|" + password);
+        if (session.getUser() instanceof Student) {
+            displayStudentMenu(session);
+        } else if (session.getUser() instanceof Teacher) {
+            displayTeacherMenu(session);
+        } else if (session.isAdministrator()) {
+            displayAdminMenu(session);
         }
+        session.execute("LOGOUT");
     }
 
-    private static void displayAdminMenu() {
-    }
+    private static void displayAdminMenu(Session session) {
+        boolean exit = false;
+        while (!exit) {
+            System.out.println("\n=== Admin Menu ===");
+            System.out.println("1. View students");
+            System.out.println("2. View teachers");
+            System.out.println("3. View courses");
+            System.out.println("4. Create a student");
+            System.out.println("5. Create a teacher");
+            System.out.println("6. Create a course");
+            System.out.println("7. Delete a student");
+            System.out.println("8. Delete a teacher");
+            System.out.println("9. Delete a course");
+            System.out.println("10. Logout");
+            System.out.print("Enter your choice: ");
+            int choice = scanner.nextInt();
+            scanner.nextLine(); // Consume newline character
 
-    private static Object findUser(String username, String password) {
-        for (Student student : admin.students) {
-            if (student.getUsername().equals(username) && student.getPassword().equals(password)) {
-                return student;
-            }
-        }
-        for (Teacher teacher : admin.teachers) {
-            if (teacher.getUsername().equals(username) && teacher.getPassword().equals(password)) {
-                return teacher;
+            switch (choice) {
+                case 1:
+                    session.execute("STUDENTS");
+                    break;
+                case 2:
+                    session.execute("TEACHERS");
+                    break;
+                case 3:
+                    session.execute("COURSES");
+                    break;
+                case 4:
+                    session.execute("CREATESTUDENT " + promptAccount());
+                    break;
+                case 5:
+                    session.execute("CREATETEACHER " + promptAccount());
+                    break;
+                case 6:
+                    session.execute("CREATECOURSE " + prompt("Enter the course name: "));
+                    break;
+                case 7:
+                    session.execute("DELETESTUDENT " + prompt("Enter the username: "));
+                    break;
+                case 8:
+                    session.execute("DELETETEACHER " + prompt("Enter the username: "));
+                    break;
+                case 9:
+                    session.execute("DELETECOURSE " + prompt("Enter the course name: "));
+                    break;
+                case 10:
+                    exit = true;
+                    break;
+                default:
+                    System.out.println("Invalid choice. Try again.");
+                    break;
             }
         }
-        if (username.equals("admin") && password.equals("admin")) {
-            return admin;
-        }
-        return null;
     }
 
-    private static void displayStudentMenu(Student student) {
+    private static void displayStudentMenu(Session session) {
         boolean exit = false;
         while (!exit) {
             System.out.println("\n=== Student Menu ===");
@@ -425,16 +2449,16 @@ public class SchoolManagementSystem {
 
             switch (choice) {
                 case 1:
-                    enrollCourse(student);
+                    enrollCourse(session);
                     break;
                 case 2:
-                    dropCourse(student);
+                    dropCourse(session);
                     break;
                 case 3:
-                    student.checkGrades();
+                    session.execute("GRADES");
                     break;
                 case 4:
-                    student.viewCourses();
+                    session.execute("MYCOURSES");
                     break;
                 case 5:
                     exit = true;
@@ -446,44 +2470,18 @@ public class SchoolManagementSystem {
         }
     }
 
-    private static void enrollCourse(Student student) {
-        System.out.println("Available courses:");
-        for (Course course : admin.courses) {
-            System.out.println("- " + course.getName());
-        }
-        System.out.print("Enter the course name to enroll: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null) {
-            student.enroll(course);
-        } else {
-            System.out.println("Course not found.");
-        }
-    }
-
-    private static void dropCourse(Student student) {
-        System.out.println("Enrolled courses:");
-        student.viewCourses();
-        System.out.print("Enter the course name to drop: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null && student.getCourses().contains(course)) {
-            student.drop(course);
-        } else {
-            System.out.println("You are not enrolled in this course.");
-        }
+    private static void enrollCourse(Session session) {
+        String query = prompt("Search courses (Enter to list all): ");
+        session.execute(query.isEmpty() ? "COURSES" : "FINDCOURSE " + query);
+        session.execute("ENROLL " + prompt("Enter the course name to enroll: "));
     }
 
-    private static Course findCourse(String courseName) {
-        for (Course course : admin.courses) {
-            if (course.getName().equalsIgnoreCase(courseName)) {
-                return course;
-            }
-        }
-        return null;
+    private static void dropCourse(Session session) {
+        session.execute("MYCOURSES");
+        session.execute("DROP " + prompt("Enter the course name to drop: "));
     }
 
-    private static void displayTeacherMenu(Teacher teacher) {
+    private static void displayTeacherMenu(Session session) {
         boolean exit = false;
         while (!exit) {
             System.out.println("\n=== Teacher Menu ===");
@@ -501,25 +2499,25 @@ public class SchoolManagementSystem {
 
             switch (choice) {
                 case 1:
-                    enrollCourse(teacher);
+                    enrollCourse(session);
                     break;
                 case 2:
-                    dropCourse(teacher);
+                    dropCourse(session);
                     break;
                 case 3:
-                    addStudentToCourse(teacher);
+                    addStudentToCourse(session);
                     break;
                 case 4:
-                    removeStudentFromCourse(teacher);
+                    removeStudentFromCourse(session);
                     break;
                 case 5:
-                    assignGrade(teacher);
+                    assignGrade(session);
                     break;
                 case 6:
-                    viewStudentsInCourse(teacher);
+                    viewStudentsInCourse(session);
                     break;
                 case 7:
-                    teacher.viewCourses();
+                    session.execute("MYCOURSES");
                     break;
                 case 8:
                     exit = true;
@@ -531,116 +2529,45 @@ public class SchoolManagementSystem {
         }
     }
 
-
-    private static void removeStudentFromCourse(Teacher teacher) {
-    }
-
-    private static void enrollCourse(Teacher teacher) {
-        System.out.println("Available courses:");
-        for (Course course : admin.courses) {
-            System.out.println("- " + course.getName());
-        }
-        System.out.print("Enter the course name to enroll: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null) {
-            teacher.enroll(course);
-        } else {
-            System.out.println("Course not found.");
-        }
+    private static void addStudentToCourse(Session session) {
+        session.execute("MYCOURSES");
+        String courseName = prompt("Enter the course name: ");
+        String query = prompt("Search students (Enter to list everyone not enrolled): ");
+        session.execute(query.isEmpty() ? "AVAILABLE " + courseName : "FINDSTUDENT " + query);
+        session.execute("ADDSTUDENT " + courseName + "|" + prompt("Enter the student name to add: "));
     }
 
-    private static void dropCourse(Teacher teacher) {
-        System.out.println("Courses you are enrolled in:");
-        teacher.viewCourses();
-        System.out.print("Enter the course name: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null && teacher.getCourses().contains(course)) {
-            System.out.println("Students enrolled in " + course.getName() + ":");
-            for (Student student : course.getStudents()) {
-                System.out.println("- " + student.getName());
-            }
-            System.out.print("Enter the student name to remove: ");
-            String studentName = scanner.nextLine();
-            Student student = findStudent(studentName);
-            if (student != null && course.getStudents().contains(student)) {
-                teacher.removeStudent(student, course);
-            } else {
-                System.out.println("Student not found in this course.");
-            }
-        } else {
-            System.out.println("You are not enrolled in this course.");
-        }
+    private static void removeStudentFromCourse(Session session) {
+        session.execute("MYCOURSES");
+        String courseName = prompt("Enter the course name: ");
+        session.execute("ROSTER " + courseName);
+        session.execute("REMOVESTUDENT " + courseName + "|" + prompt("Enter the student name to remove: "));
     }
 
-    private static Student findStudent(String studentName) {
-        return null;
+    private static void assignGrade(Session session) {
+        session.execute("MYCOURSES");
+        String courseName = prompt("Enter the course name: ");
+        session.execute("ROSTER " + courseName);
+        String studentName = prompt("Enter the student name: ");
+        System.out.print("Enter the grade: ");
+        int grade = scanner.nextInt();
+        scanner.nextLine(); // Consume newline character
+        session.execute("GRADE " + courseName + "|" + studentName + "|" + grade);
     }
 
-    private static void assignGrade(Teacher teacher) {
-        System.out.println("Courses you are enrolled in:");
-        teacher.viewCourses();
-        System.out.print("Enter the course name: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null && teacher.getCourses().contains(course)) {
-            System.out.println("Students enrolled in " + course.getName() + ":");
-            for (Student student : course.getStudents()) {
-                System.out.println("- " + student.getName());
-            }
-            System.out.print("Enter the student name: ");
-            String studentName = scanner.nextLine();
-            Student student = findStudent(studentName);
-            if (student != null && course.getStudents().contains(student)) {
-                System.out.print("Enter the grade: ");
-                int grade = scanner.nextInt();
-                scanner.nextLine(); // Consume newline character
-                teacher.assignGrade(student, course, grade);
-            } else {
-                System.out.println("Student not found in this course.");
-            }
-        } else {
-            System.out.println("You are not enrolled in this course.");
-        }
+    private static void viewStudentsInCourse(Session session) {
+        session.execute("MYCOURSES");
+        session.execute("ROSTER " + prompt("Enter the course name: "));
     }
 
-    private static void viewStudentsInCourse(Teacher teacher) {
-        System.out.println("Courses you are enrolled in:");
-        teacher.viewCourses();
-        System.out.print("Enter the course name: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null && teacher.getCourses().contains(course)) {
-            teacher.viewStudents(course);
-        } else {
-            System.out.println("You are not enrolled in this course.");
-        }
+    private static String promptAccount() {
+        String name = prompt("Enter the name: ");
+        String username = prompt("Enter the username: ");
+        return name + "|" + username + "|" + prompt("Enter the password: ");
     }
 
-    private static void addStudentToCourse(Teacher teacher) {
-        System.out.println("Courses you are enrolled in:");
-        teacher.viewCourses();
-        System.out.print("Enter the course name: ");
-        String courseName = scanner.nextLine();
-        Course course = findCourse(courseName);
-        if (course != null && teacher.getCourses().contains(course)) {
-            System.out.println("Available students:");
-            for (Student student : admin.students) {
-                if (!course.getStudents().contains(student)) {
-                    System.out.println("- " + student.getName());
-                }
-            }
-            System.out.print("Enter the student name to add: ");
-            String studentName = scanner.nextLine();
-            Student student = findStudent(studentName);
-            if (student != null) {
-                teacher.addStudent(student, course);
-            } else {
-                System.out.println("Student not found.");
-            }
-        } else {
-            System.out.println("You are not enrolled in this course.");
-        }
+    private static String prompt(String message) {
+        System.out.print(message);
+        return scanner.nextLine();
     }
 }
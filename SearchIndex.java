@@ -0,0 +1,457 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// SearchIndex class
+// Name search over courses or students. Every entry has one or more keys
+// (a name, a username), case-folded and whitespace-collapsed like
+// UserRegistry names. Each key is padded with BOUNDARY at both ends and
+// indexed by its trigrams, plus a bigram at the start of every word:
+//
+//   exact        one hash lookup
+//   substring    the shortest posting list among the query's trigrams,
+//                checked with contains()
+//   word prefix  queries of one or two characters, through the word-start grams
+//   typo         word by word: each query word is looked up in the vocabulary
+//                of indexed words by trigram overlap (one edit breaks at most
+//                four) and checked with a bounded edit distance that counts a
+//                swap of neighbours as one edit; the last query word may also
+//                be the start of a word, as it is while someone is typing
+//
+// Typo matching only runs when the strict matches do not fill the requested
+// page. Results are ranked exact, prefix, word prefix, substring, typo, then
+// by edit distance, shorter key and id. Entries are added and removed as
+// courses and students come and go; postings are concurrent sets, so searches
+// run while the index changes.
+class SearchIndex<T> {
+    static final char BOUNDARY = '\u0001';
+
+    enum Kind {
+        EXACT, PREFIX, WORD_PREFIX, SUBSTRING, TYPO
+    }
+
+    // One ranked result
+    static final class Match<T> implements Comparable<Match<T>> {
+        final T item;
+        final Kind kind;
+        final int distance;
+        private final int length;
+        private final int id;
+
+        Match(T item, Kind kind, int distance, int length, int id) {
+            this.item = item;
+            this.kind = kind;
+            this.distance = distance;
+            this.length = length;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Match<T> other) {
+            return compare(kind, distance, length, id, other);
+        }
+
+        static int compare(Kind kind, int distance, int length, int id, Match<?> other) {
+            if (kind != other.kind) {
+                return kind.compareTo(other.kind);
+            }
+            if (distance != other.distance) {
+                return Integer.compare(distance, other.distance);
+            }
+            if (length != other.length) {
+                return Integer.compare(length, other.length);
+            }
+            return Integer.compare(id, other.id);
+        }
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        final int id;
+        final String[] keys;
+        final String[][] words;
+
+        Entry(T item, int id, String[] keys) {
+            this.item = item;
+            this.id = id;
+            this.keys = keys;
+            this.words = new String[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                words[i] = keys[i].split(" ");
+            }
+        }
+    }
+
+    private final Map<T, Entry<T>> entries = new ConcurrentHashMap<>();
+    // Exact keys to their entries in id order, replaced wholesale like UserRegistry names
+    private final Map<String, List<Entry<T>>> exact = new ConcurrentHashMap<>();
+    private final Map<String, Set<Entry<T>>> grams = new ConcurrentHashMap<>();
+    // Every indexed word, its entries, and its trigrams for typo lookups
+    private final Map<String, Set<Entry<T>>> words = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> vocabulary = new ConcurrentHashMap<>();
+
+    // Edits a typo match may make in one word, by the word's length
+    static int maxEdits(int length) {
+        return length < 4 ? 0 : length < 8 ? 1 : 2;
+    }
+
+    public void add(T item, int id, String... keys) {
+        String[] normalized = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            normalized[i] = UserRegistry.normalize(keys[i]);
+        }
+        Entry<T> entry = new Entry<>(item, id, normalized);
+        if (entries.putIfAbsent(item, entry) != null) {
+            return;
+        }
+        for (String key : new LinkedHashSet<>(Arrays.asList(normalized))) {
+            exact.merge(key, List.of(entry), (current, added) -> {
+                List<Entry<T>> list = new ArrayList<>(current);
+                list.add(entry);
+                list.sort(Comparator.comparingInt(e -> e.id));
+                return List.copyOf(list);
+            });
+            for (String gram : grams(key)) {
+                grams.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(entry);
+            }
+        }
+        for (String word : words(entry)) {
+            // The vocabulary changes under the word's bin lock, so it always
+            // agrees with whether the word has entries
+            words.compute(word, (w, posting) -> {
+                if (posting == null) {
+                    posting = ConcurrentHashMap.newKeySet();
+                    for (String gram : vocabularyGrams(w)) {
+                        vocabulary.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(w);
+                    }
+                }
+                posting.add(entry);
+                return posting;
+            });
+        }
+    }
+
+    public void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return;
+        }
+        for (String key : new LinkedHashSet<>(Arrays.asList(entry.keys))) {
+            exact.computeIfPresent(key, (k, current) -> {
+                List<Entry<T>> list = new ArrayList<>(current);
+                list.remove(entry);
+                return list.isEmpty() ? null : List.copyOf(list);
+            });
+            for (String gram : grams(key)) {
+                grams.computeIfPresent(gram, (g, posting) -> {
+                    posting.remove(entry);
+                    return posting.isEmpty() ? null : posting;
+                });
+            }
+        }
+        for (String word : words(entry)) {
+            words.computeIfPresent(word, (w, posting) -> {
+                posting.remove(entry);
+                if (!posting.isEmpty()) {
+                    return posting;
+                }
+                for (String gram : vocabularyGrams(w)) {
+                    vocabulary.computeIfPresent(gram, (g, similar) -> {
+                        similar.remove(w);
+                        return similar.isEmpty() ? null : similar;
+                    });
+                }
+                return null;
+            });
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // The entry with this exact key and the lowest id, or null
+    public T findExact(String key) {
+        List<Entry<T>> list = exact.get(UserRegistry.normalize(key));
+        return list == null ? null : list.get(0).item;
+    }
+
+    // Matches ranked best first, skipping offset and returning at most limit
+    public List<Match<T>> search(String query, int offset, int limit) {
+        String q = UserRegistry.normalize(query);
+        int wanted = offset + limit;
+        if (q.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // Max-heap of the best wanted matches so far
+        PriorityQueue<Match<T>> best = new PriorityQueue<>(Math.min(wanted, 1024), Collections.reverseOrder());
+        String wordStart = ' ' + q;
+        if (q.length() < 3) {
+            // Words starting with q; the second set skips keys the first had
+            Set<Entry<T>> atStart = grams.getOrDefault(BOUNDARY + q, Collections.emptySet());
+            for (Entry<T> entry : atStart) {
+                strictMatch(entry, q, wordStart, best, wanted);
+            }
+            for (Entry<T> entry : grams.getOrDefault(wordStart, Collections.emptySet())) {
+                if (!atStart.contains(entry)) {
+                    strictMatch(entry, q, wordStart, best, wanted);
+                }
+            }
+        } else {
+            for (Entry<T> entry : shortestPosting(q)) {
+                strictMatch(entry, q, wordStart, best, wanted);
+            }
+        }
+        if (best.size() < wanted) {
+            // The heap never filled, so it holds every strict match
+            Set<T> strict = new HashSet<>();
+            for (Match<T> match : best) {
+                strict.add(match.item);
+            }
+            List<Map<String, Integer>> similar = new ArrayList<>();
+            String[] queryWords = q.split(" ");
+            for (int i = 0; i < queryWords.length; i++) {
+                similar.add(similarWords(queryWords[i], i == queryWords.length - 1));
+            }
+            for (Entry<T> entry : typoCandidates(similar)) {
+                if (!strict.contains(entry.item)) {
+                    typoMatch(entry, similar, best, wanted);
+                }
+            }
+        }
+        List<Match<T>> ranked = new ArrayList<>(best);
+        Collections.sort(ranked);
+        return offset >= ranked.size() ? Collections.emptyList() : ranked.subList(offset, ranked.size());
+    }
+
+    public List<T> find(String query, int offset, int limit) {
+        List<Match<T>> matches = search(query, offset, limit);
+        List<T> items = new ArrayList<>(matches.size());
+        for (Match<T> match : matches) {
+            items.add(match.item);
+        }
+        return items;
+    }
+
+    // Keeps the match if it is among the best wanted; the Match is only
+    // allocated once it is known to be kept
+    private static <T> void offer(PriorityQueue<Match<T>> best, int wanted, Entry<T> entry,
+                                  Kind kind, int distance, int length) {
+        if (best.size() < wanted) {
+            best.add(new Match<>(entry.item, kind, distance, length, entry.id));
+        } else if (Match.compare(kind, distance, length, entry.id, best.peek()) < 0) {
+            best.poll();
+            best.add(new Match<>(entry.item, kind, distance, length, entry.id));
+        }
+    }
+
+    // Entries that may contain q (three or more characters): the shortest
+    // posting among its trigrams
+    private Set<Entry<T>> shortestPosting(String q) {
+        Set<Entry<T>> shortest = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Set<Entry<T>> posting = grams.get(q.substring(i, i + 3));
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            if (shortest == null || posting.size() < shortest.size()) {
+                shortest = posting;
+            }
+        }
+        return shortest;
+    }
+
+    private static <T> void strictMatch(Entry<T> entry, String q, String wordStart,
+                                        PriorityQueue<Match<T>> best, int wanted) {
+        Kind kind = null;
+        int length = Integer.MAX_VALUE;
+        for (String key : entry.keys) {
+            Kind found = key.equals(q) ? Kind.EXACT
+                    : key.startsWith(q) ? Kind.PREFIX
+                    : key.contains(wordStart) ? Kind.WORD_PREFIX
+                    : q.length() >= 3 && key.contains(q) ? Kind.SUBSTRING : null;
+            if (found != null && (kind == null || found.compareTo(kind) < 0
+                    || (found == kind && key.length() < length))) {
+                kind = found;
+                length = key.length();
+            }
+        }
+        if (kind != null) {
+            offer(best, wanted, entry, kind, 0, length);
+        }
+    }
+
+    // Entries having a similar word for every query word. The query word
+    // whose similar words have the fewest entries drives the scan.
+    private Collection<Entry<T>> typoCandidates(List<Map<String, Integer>> similar) {
+        List<Set<Entry<T>>> driver = null;
+        int driverSize = Integer.MAX_VALUE;
+        for (Map<String, Integer> words : similar) {
+            List<Set<Entry<T>>> postings = new ArrayList<>();
+            int size = 0;
+            for (String word : words.keySet()) {
+                Set<Entry<T>> posting = this.words.get(word);
+                if (posting != null) {
+                    postings.add(posting);
+                    size += posting.size();
+                }
+            }
+            if (size == 0) {
+                return Collections.emptySet();
+            }
+            if (size < driverSize) {
+                driver = postings;
+                driverSize = size;
+            }
+        }
+        if (driver.size() == 1) {
+            return driver.get(0);
+        }
+        Set<Entry<T>> union = new HashSet<>();
+        for (Set<Entry<T>> posting : driver) {
+            union.addAll(posting);
+        }
+        return union;
+    }
+
+    // Indexed words within maxEdits of word, with their distance; with
+    // prefix, also the words starting with it, at distance 0
+    private Map<String, Integer> similarWords(String word, boolean prefix) {
+        Map<String, Integer> result = new HashMap<>();
+        int edits = maxEdits(word.length());
+        if (words.containsKey(word)) {
+            result.put(word, 0);
+        }
+        if (edits > 0) {
+            List<String> queryGrams = trigrams(BOUNDARY + word + BOUNDARY);
+            int needed = Math.max(1, queryGrams.size() - 4 * edits);
+            Map<String, Integer> hits = new HashMap<>();
+            for (String gram : queryGrams) {
+                for (String similar : vocabulary.getOrDefault(gram, Collections.emptySet())) {
+                    hits.merge(similar, 1, Integer::sum);
+                }
+            }
+            for (Map.Entry<String, Integer> hit : hits.entrySet()) {
+                int d = hit.getValue() >= needed ? distance(hit.getKey(), word, edits) : edits + 1;
+                if (d <= edits) {
+                    result.putIfAbsent(hit.getKey(), d);
+                }
+            }
+        }
+        if (prefix) {
+            String start = word.length() == 1 ? BOUNDARY + word : BOUNDARY + word.substring(0, 2);
+            for (String similar : vocabulary.getOrDefault(start, Collections.emptySet())) {
+                if (similar.startsWith(word)) {
+                    result.put(similar, 0);
+                }
+            }
+        }
+        return result;
+    }
+
+    // The key whose words cover the query words with the fewest edits
+    private static <T> void typoMatch(Entry<T> entry, List<Map<String, Integer>> similar,
+                                      PriorityQueue<Match<T>> best, int wanted) {
+        int distance = Integer.MAX_VALUE;
+        int length = Integer.MAX_VALUE;
+        for (int k = 0; k < entry.keys.length; k++) {
+            int total = 0;
+            for (Map<String, Integer> words : similar) {
+                int closest = Integer.MAX_VALUE;
+                for (String word : entry.words[k]) {
+                    Integer d = words.get(word);
+                    if (d != null && d < closest) {
+                        closest = d;
+                    }
+                }
+                if (closest == Integer.MAX_VALUE) {
+                    total = Integer.MAX_VALUE;
+                    break;
+                }
+                total += closest;
+            }
+            int keyLength = entry.keys[k].length();
+            if (total < distance || (total == distance && total != Integer.MAX_VALUE && keyLength < length)) {
+                distance = total;
+                length = keyLength;
+            }
+        }
+        if (distance != Integer.MAX_VALUE) {
+            offer(best, wanted, entry, Kind.TYPO, distance, length);
+        }
+    }
+
+    // Edit distance where inserting, deleting or changing a character, or
+    // swapping two neighbours, is one edit; max + 1 once it must exceed max
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        if (a.equals(b)) {
+            return 0;
+        }
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, beforePrevious[j - 2] + 1);
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    private static Set<String> words(Entry<?> entry) {
+        Set<String> result = new HashSet<>();
+        for (String[] keyWords : entry.words) {
+            result.addAll(Arrays.asList(keyWords));
+        }
+        return result;
+    }
+
+    // Trigrams of the padded word plus its first two characters after BOUNDARY,
+    // which find the words a one-character prefix starts
+    private static List<String> vocabularyGrams(String word) {
+        List<String> result = trigrams(BOUNDARY + word + BOUNDARY);
+        result.add(BOUNDARY + word.substring(0, 1));
+        return result;
+    }
+
+    // Trigrams of the padded key plus a bigram at the start of the key and of each word
+    private static Set<String> grams(String key) {
+        String padded = BOUNDARY + key + BOUNDARY;
+        Set<String> result = new HashSet<>(trigrams(padded));
+        for (int i = 0; i + 2 < padded.length(); i++) {
+            char c = padded.charAt(i);
+            if (c == BOUNDARY || c == ' ') {
+                result.add(padded.substring(i, i + 2));
+            }
+        }
+        return result;
+    }
+
+    private static List<String> trigrams(String text) {
+        List<String> result = new ArrayList<>(Math.max(0, text.length() - 2));
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(text.substring(i, i + 3));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,704 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Session class
+// One user's conversation with the system as a line protocol. Each request is
+// a command word followed by arguments separated by '|' (the last argument
+// takes the rest of the line), e.g. "GRADE Mathematics|John Doe|90". Output
+// goes to Output.out(), so the same session runs behind the console menus and
+// behind a network connection. A request's output is held in the Render and
+// written a page at a time; with PAGESIZE set, listings stop after that many
+// items and MORE continues them.
+class Session {
+    // Most matches FINDCOURSE and FINDSTUDENT list
+    static final int SEARCH_LIMIT = 50;
+
+    static final String HELP =
+            "Commands:\n"
+            + "  LOGIN username|password, LOGOUT, QUIT, HELP\n"
+            + "  TOKEN (issue a login token), RESUME token, PASSWORD old|new\n"
+            + "  PAGESIZE items (0 for no paging), MORE\n"
+            + "  COURSES, MYCOURSES, FINDCOURSE text, ENROLL course, DROP course\n"
+            + "  Student: GRADES\n"
+            + "  Teacher: ROSTER course, AVAILABLE course, ADDSTUDENT course|student,\n"
+            + "           REMOVESTUDENT course|student, GRADE course|student|grade\n"
+            + "  Teacher and admin: STATS course, FINDSTUDENT text, TREND course\n"
+            + "  Closed terms: TERMS, HISTORY (admin: HISTORY username)\n"
+            + "  Admin:   STUDENTS, TEACHERS, CREATESTUDENT name|username|password,\n"
+            + "           CREATETEACHER name|username|password, CREATECOURSE name,\n"
+            + "           DELETESTUDENT username[|username...], DELETETEACHER username[|username...],\n"
+            + "           DELETECOURSE name[|name...],\n"
+            + "           CAPACITY course|seats (0 for no limit), HONORROLL [min GPA],\n"
+            + "           SCHEDULE course|DAY HH:MM-HH:MM room[, ...] (empty to clear),\n"
+            + "           SOLVE room:seats[|room:seats...] (timetable every course), METRICS,\n"
+            + "           CLOSETERM name (archive grades, empty rosters, seat waitlists),\n"
+            + "           COHORT term|course";
+
+    private final Admin admin;
+    private final EnrollmentEngine engine;
+    private User user;
+    private boolean administrator;
+    // Token issued or resumed in this session; LOGOUT revokes it
+    private String token;
+
+    public Session(Admin admin) {
+        this(admin, null);
+    }
+
+    // Student enrollments go through engine when one is given
+    public Session(Admin admin, EnrollmentEngine engine) {
+        this.admin = admin;
+        this.engine = engine;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public boolean isAdministrator() {
+        return administrator;
+    }
+
+    // Runs one request; returns false once the client asked to quit
+    public boolean execute(String line) {
+        Render out = Output.out();
+        out.hold();
+        Journal journal = Journal.current();
+        journal.defer();
+        try {
+            boolean more;
+            try {
+                more = run(line);
+            } finally {
+                // Durable before the reply leaves, with no monitor held while waiting
+                journal.awaitDeferred();
+            }
+            return more;
+        } catch (UncheckedIOException e) {
+            // The change is made but could not be journaled
+            out.println("Error saving change: " + e.getMessage());
+            return true;
+        } finally {
+            out.release();
+        }
+    }
+
+    private boolean run(String line) {
+        Render out = Output.out();
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) {
+            return true;
+        }
+        int space = trimmed.indexOf(' ');
+        String command = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase(Locale.ROOT);
+        String rest = space < 0 ? "" : trimmed.substring(space + 1).trim();
+        // Passwords keep their spaces: only the separator after the command goes
+        String raw = space < 0 ? "" : line.substring(line.indexOf(trimmed) + space + 1);
+
+        switch (command) {
+            case "HELP":
+                out.println(HELP);
+                return true;
+            case "QUIT":
+                logout();
+                return false;
+            case "LOGIN":
+                login(args(raw, 2, 1));
+                return true;
+            case "RESUME":
+                resume(rest);
+                return true;
+            case "LOGOUT":
+                if (token != null) {
+                    admin.getTokens().revoke(token);
+                }
+                logout();
+                out.println("Logged out.");
+                return true;
+            case "PAGESIZE":
+                try {
+                    out.setPageSize(Integer.parseInt(rest));
+                    out.println("Page size set to " + rest + ".");
+                } catch (IllegalArgumentException e) {
+                    out.println("Invalid page size: " + rest);
+                }
+                return true;
+            case "MORE":
+                if (!out.more()) {
+                    out.println("Nothing more to show.");
+                }
+                return true;
+            default:
+                break;
+        }
+
+        if (user == null && !administrator) {
+            out.println("Please log in first.");
+            return true;
+        }
+        switch (command) {
+            case "TOKEN":
+                token = admin.getTokens().issue(user, admin.getPasswordVersion(user));
+                out.println("Token: " + token);
+                break;
+            case "PASSWORD": {
+                String[] args = args(raw, 2, 0);
+                if (args[1].isEmpty()) {
+                    out.println("The new password must not be empty.");
+                } else if (administrator ? admin.authenticateAdministrator(args[0])
+                        : admin.authenticate(user, args[0])) {
+                    admin.changePassword(administrator ? null : user, args[1]);
+                    out.println("Password changed.");
+                } else {
+                    out.println("Wrong password.");
+                }
+                break;
+            }
+            case "COURSES":
+                admin.viewAllCourses();
+                break;
+            case "FINDCOURSE": {
+                List<Course> found = admin.searchCourses(rest, 0, SEARCH_LIMIT);
+                if (found.isEmpty()) {
+                    out.println("No courses match \"" + rest + "\".");
+                } else {
+                    out.list("Courses matching \"" + rest + "\":", found,
+                            (course, page) -> page.print("- ").print(course.getName()));
+                }
+                break;
+            }
+            case "FINDSTUDENT": {
+                if (!administrator && !(user instanceof Teacher)) {
+                    notAvailable();
+                    break;
+                }
+                List<Student> found = admin.searchStudents(rest, 0, SEARCH_LIMIT);
+                if (found.isEmpty()) {
+                    out.println("No students match \"" + rest + "\".");
+                } else {
+                    out.list("Students matching \"" + rest + "\":", found, (student, page) -> page.print("- ")
+                            .print(student.getName()).print(" (").print(student.getUsername()).print(')'));
+                }
+                break;
+            }
+            case "MYCOURSES":
+                if (requireUser()) {
+                    user.viewCourses();
+                }
+                break;
+            case "ENROLL":
+                if (requireUser()) {
+                    Course course = admin.findCourse(rest);
+                    if (course != null && engine != null && user instanceof Student) {
+                        Student student = (Student) user;
+                        student.reportAdmission(course, engine.submit(student, course).join());
+                    } else if (course != null) {
+                        user.enroll(course);
+                    } else {
+                        out.println("Course not found.");
+                    }
+                }
+                break;
+            case "DROP":
+                if (requireUser()) {
+                    // Dropping also takes a student off the waitlist
+                    Course course = admin.findCourse(rest);
+                    if (course != null && course.getWaitlist().contains(user)) {
+                        user.drop(course);
+                    } else if (enrolledCourse(rest) != null) {
+                        user.drop(course);
+                    }
+                }
+                break;
+            case "GRADES":
+                if (user instanceof Student) {
+                    ((Student) user).checkGrades();
+                } else {
+                    notAvailable();
+                }
+                break;
+            case "ROSTER":
+            case "AVAILABLE":
+            case "ADDSTUDENT":
+            case "REMOVESTUDENT":
+            case "GRADE":
+                if (user instanceof Teacher) {
+                    teacherCommand((Teacher) user, command, rest);
+                } else {
+                    notAvailable();
+                }
+                break;
+            case "STATS": {
+                Course course = administrator ? admin.findCourse(rest)
+                        : user instanceof Teacher ? enrolledCourse(rest) : null;
+                if (course != null) {
+                    printStats(course);
+                } else if (administrator) {
+                    out.println("Course not found.");
+                } else if (!(user instanceof Teacher)) {
+                    notAvailable();
+                }
+                break;
+            }
+            case "TERMS":
+            case "HISTORY":
+            case "TREND":
+                if (administrator || requireUser()) {
+                    termCommand(command, rest);
+                }
+                break;
+            case "HONORROLL":
+            case "STUDENTS":
+            case "TEACHERS":
+            case "CREATESTUDENT":
+            case "CREATETEACHER":
+            case "CREATECOURSE":
+            case "DELETESTUDENT":
+            case "DELETETEACHER":
+            case "DELETECOURSE":
+            case "CAPACITY":
+            case "SCHEDULE":
+            case "SOLVE":
+            case "METRICS":
+            case "CLOSETERM":
+            case "COHORT":
+                if (administrator) {
+                    adminCommand(command, rest, raw);
+                } else {
+                    notAvailable();
+                }
+                break;
+            default:
+                out.println("Unknown command " + command + ". Type HELP for the list.");
+                break;
+        }
+        return true;
+    }
+
+    private void login(String[] args) {
+        Render out = Output.out();
+        logout();
+        String username = args[0];
+        String password = args[1];
+        User found = admin.findUser(username);
+        boolean administratorName = username.equals(Admin.ADMINISTRATOR);
+        // The administrator comes first: older data has a student named admin.
+        // A name with no user still pays for a decoy hash, admin included, so
+        // the reply time does not tell which accounts exist
+        if (administratorName && admin.authenticateAdministrator(password)) {
+            administrator = true;
+            loggedIn();
+        } else if (admin.authenticate(found, password)) {
+            user = found;
+            loggedIn();
+        } else {
+            out.println("Invalid username or password.");
+        }
+    }
+
+    // Logs in with a token from TOKEN, without checking the password again
+    private void resume(String value) {
+        logout();
+        SessionTokens.Entry entry = admin.getTokens().resolve(value, admin);
+        if (entry == null) {
+            Output.out().println("Invalid or expired token.");
+            return;
+        }
+        user = entry.user;
+        administrator = entry.isAdministrator();
+        token = value;
+        loggedIn();
+    }
+
+    private void loggedIn() {
+        if (administrator) {
+            Output.out().println("Logged in as administrator.");
+        } else {
+            Output.out().println("Logged in as " + user.getName() + " (" + user.getClass().getSimpleName() + ").");
+        }
+    }
+
+    private void logout() {
+        user = null;
+        administrator = false;
+        token = null;
+    }
+
+    private void teacherCommand(Teacher teacher, String command, String rest) {
+        Render out = Output.out();
+        String[] args = args(rest, command.equals("GRADE") ? 3 : command.equals("ROSTER")
+                || command.equals("AVAILABLE") ? 1 : 2);
+        Course course = enrolledCourse(args[0]);
+        if (course == null) {
+            return;
+        }
+        switch (command) {
+            case "ROSTER":
+                teacher.viewStudents(course);
+                return;
+            case "AVAILABLE":
+                List<Student> available = new ArrayList<>();
+                for (Student student : admin.students) {
+                    if (!course.getStudents().contains(student)) {
+                        available.add(student);
+                    }
+                }
+                out.list("Available students:", available,
+                        (student, page) -> page.print("- ").print(student.getName()));
+                return;
+            default:
+                break;
+        }
+        Student student = admin.findStudent(args[1]);
+        if (command.equals("ADDSTUDENT")) {
+            if (student != null) {
+                teacher.addStudent(student, course);
+            } else {
+                out.println("Student not found.");
+            }
+            return;
+        }
+        if (student == null || !course.getStudents().contains(student)) {
+            out.println("Student not found in this course.");
+            return;
+        }
+        if (command.equals("REMOVESTUDENT")) {
+            teacher.removeStudent(student, course);
+            return;
+        }
+        try {
+            teacher.assignGrade(student, course, Integer.parseInt(args[2]));
+        } catch (NumberFormatException e) {
+            out.println("Invalid grade: " + args[2]);
+        }
+    }
+
+    private void adminCommand(String command, String rest, String raw) {
+        Render out = Output.out();
+        switch (command) {
+            case "STUDENTS":
+                admin.viewAllStudents();
+                break;
+            case "TEACHERS":
+                admin.viewAllTeachers();
+                break;
+            case "CREATESTUDENT": {
+                String[] args = args(raw, 3, 2);
+                admin.createStudent(args[0], args[1], args[2]);
+                break;
+            }
+            case "CREATETEACHER": {
+                String[] args = args(raw, 3, 2);
+                admin.createTeacher(args[0], args[1], args[2]);
+                break;
+            }
+            case "CREATECOURSE":
+                admin.createCourse(rest);
+                break;
+            case "DELETESTUDENT":
+            case "DELETETEACHER": {
+                String[] usernames = rest.split("\\|");
+                if (usernames.length > 1) {
+                    deleteUsers(command.equals("DELETESTUDENT"), usernames);
+                    break;
+                }
+                User target = admin.findUser(rest);
+                if (command.equals("DELETESTUDENT") && target instanceof Student) {
+                    admin.deleteStudent((Student) target);
+                } else if (command.equals("DELETETEACHER") && target instanceof Teacher) {
+                    admin.deleteTeacher((Teacher) target);
+                } else {
+                    out.println("User not found.");
+                }
+                break;
+            }
+            case "DELETECOURSE": {
+                // A name that contains '|' still deletes that one course
+                Course course = admin.findCourse(rest);
+                if (course != null) {
+                    admin.deleteCourse(course);
+                } else if (rest.indexOf('|') >= 0) {
+                    deleteCourses(rest.split("\\|"));
+                } else {
+                    out.println("Course not found.");
+                }
+                break;
+            }
+            case "HONORROLL": {
+                double minGpa = GradeAnalytics.HONOR_ROLL_GPA;
+                try {
+                    minGpa = rest.isEmpty() ? minGpa : Double.parseDouble(rest);
+                } catch (NumberFormatException e) {
+                    out.println("Invalid GPA: " + rest);
+                    break;
+                }
+                out.list(String.format("Honor roll (GPA %.2f or higher):", minGpa),
+                        admin.getAnalytics().getHonorRoll(minGpa),
+                        (student, page) -> page.printf("- %s (%.2f)", student.getName(), student.getGpa()));
+                break;
+            }
+            case "CAPACITY": {
+                String[] args = args(rest, 2);
+                Course course = admin.findCourse(args[0]);
+                if (course == null) {
+                    out.println("Course not found.");
+                    break;
+                }
+                try {
+                    course.setCapacity(Integer.parseInt(args[1]));
+                    out.println("Capacity of " + course.getName() + " set to " + args[1] + ".");
+                } catch (IllegalArgumentException e) {
+                    out.println("Invalid capacity: " + args[1]);
+                }
+                break;
+            }
+            case "SCHEDULE": {
+                String[] args = args(rest, 2);
+                Course course = admin.findCourse(args[0]);
+                if (course == null) {
+                    out.println("Course not found.");
+                    break;
+                }
+                try {
+                    Course conflict = admin.schedule(course, Meeting.parseAll(args[1]));
+                    if (conflict != null) {
+                        out.println("A room is taken by " + conflict.getName() + " at that time.");
+                    } else {
+                        out.println("Meetings of " + course.getName() + " set.");
+                    }
+                } catch (IllegalArgumentException e) {
+                    out.println(e.getMessage());
+                }
+                break;
+            }
+            case "SOLVE":
+                solve(rest.split("\\|"));
+                break;
+            case "METRICS":
+                out.print(Metrics.text());
+                break;
+            case "CLOSETERM":
+            case "COHORT":
+                termCommand(command, rest);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Timetables every course over the given rooms and the standard slots
+    private void solve(String[] roomSpecs) {
+        Render out = Output.out();
+        List<TimetableSolver.Room> rooms = new ArrayList<>();
+        try {
+            for (String spec : roomSpecs) {
+                rooms.add(TimetableSolver.Room.parse(spec));
+            }
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return;
+        }
+        try (TimetableSolver solver = new TimetableSolver()) {
+            TimetableSolver.Result result = solver.solve(admin, rooms);
+            int scheduled = admin.applyTimetable(result);
+            out.println(scheduled + " of " + result.size() + " courses scheduled.");
+            List<Course> unscheduled = new ArrayList<>();
+            for (int i = 0; i < result.size(); i++) {
+                Course course = result.course(i);
+                if (!course.isDeleted() && course.getMeetings().isEmpty()) {
+                    unscheduled.add(course);
+                }
+            }
+            if (!unscheduled.isEmpty()) {
+                out.list("Not scheduled:", unscheduled, (course, page) -> page.print("- ").print(course.getName()));
+            }
+        }
+    }
+
+    // Queries over the closed terms, and closing the current one
+    private void termCommand(String command, String rest) {
+        Render out = Output.out();
+        TermArchive archive = admin.getTerms();
+        if (archive == null) {
+            out.println("No term archive.");
+            return;
+        }
+        switch (command) {
+            case "TERMS":
+                out.list("Closed terms:", archive.getTerms(), (term, page) -> page.printf("- %s: %d rows, average %s",
+                        term.getName(), term.getRowCount(), average(term.getAverageGrade())));
+                break;
+            case "HISTORY": {
+                User student = administrator ? admin.findUser(rest) : user;
+                if (!(student instanceof Student)) {
+                    if (administrator) {
+                        out.println("Student not found.");
+                    } else {
+                        notAvailable();
+                    }
+                    break;
+                }
+                out.list("History of " + student.getName() + ":", archive.transcript(student.getId()),
+                        (entry, page) -> page.print(entry.term.getName()).print(": ").print(entry.getCourseName())
+                                .print(": ").print(entry.grade == GradeStore.NO_GRADE ? "-" : String.valueOf(entry.grade)));
+                break;
+            }
+            case "TREND": {
+                // Teachers see the courses they teach now; admins any name, deleted courses included
+                String name = rest;
+                if (!administrator) {
+                    Course course = user instanceof Teacher ? enrolledCourse(rest) : null;
+                    if (course == null) {
+                        if (!(user instanceof Teacher)) {
+                            notAvailable();
+                        }
+                        break;
+                    }
+                    name = course.getName();
+                }
+                out.list("Grades in " + name + " by term:", archive.trend(name).entrySet(),
+                        (entry, page) -> printTermStats(page, entry.getKey(), entry.getValue()));
+                break;
+            }
+            case "COHORT": {
+                String[] args = args(rest, 2);
+                TermSegment term = archive.find(args[0]);
+                if (term == null) {
+                    out.println("Term not found.");
+                    break;
+                }
+                int[] cohort = archive.cohort(term, args[1]);
+                if (cohort.length == 0) {
+                    out.println("Nobody took " + args[1] + " in " + term.getName() + ".");
+                    break;
+                }
+                out.list("Grades of the " + cohort.length + " students of " + args[1] + " in " + term.getName() + ":",
+                        archive.follow(cohort, term).entrySet(),
+                        (entry, page) -> printTermStats(page, entry.getKey(), entry.getValue()));
+                break;
+            }
+            case "CLOSETERM":
+                if (rest.isEmpty()) {
+                    out.println("A term needs a name.");
+                    break;
+                }
+                try {
+                    TermSegment term = admin.closeTerm(rest);
+                    if (term == null) {
+                        out.println("Term " + rest + " is already closed.");
+                    } else {
+                        out.println("Closed " + term.getName() + ": " + term.getRowCount() + " enrollments archived.");
+                    }
+                } catch (IOException e) {
+                    out.println("Error closing term: " + e.getMessage());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void printTermStats(Render page, TermSegment term, GradeStats stats) {
+        if (stats.getCount() == 0) {
+            page.print("- ").print(term.getName()).print(": no grades");
+            return;
+        }
+        page.printf("- %s: %d grades, average %.1f, min %d, median %d, max %d", term.getName(), stats.getCount(),
+                stats.getAverage(), stats.getMin(), stats.getPercentile(50), stats.getMax());
+    }
+
+    private static String average(double value) {
+        return Double.isNaN(value) ? "-" : String.format("%.1f", value);
+    }
+
+    private static void printStats(Course course) {
+        Render out = Output.out();
+        GradeStats stats = course.getGradeStats();
+        out.println("Grades in " + course.getName() + ": " + stats.getCount());
+        if (stats.getCount() == 0) {
+            return;
+        }
+        out.printf("Average %.1f, min %d, median %d, 90th percentile %d, max %d%n", stats.getAverage(),
+                stats.getMin(), stats.getPercentile(50), stats.getPercentile(90), stats.getMax());
+        out.printf("A %d, B %d, C %d, D %d, F %d%n", stats.countBetween(90, Integer.MAX_VALUE),
+                stats.countBetween(80, 89), stats.countBetween(70, 79), stats.countBetween(60, 69),
+                stats.countBetween(Integer.MIN_VALUE, 59));
+    }
+
+    private boolean requireUser() {
+        if (user == null) {
+            notAvailable();
+            return false;
+        }
+        return true;
+    }
+
+    private Course enrolledCourse(String name) {
+        Course course = admin.findCourse(name);
+        if (course == null || !user.getCourses().contains(course)) {
+            Output.out().println("You are not enrolled in this course.");
+            return null;
+        }
+        return course;
+    }
+
+    private static void notAvailable() {
+        Output.out().println("Not available for your account.");
+    }
+
+    // Batch forms of DELETESTUDENT/DELETETEACHER/DELETECOURSE: names that
+    // are not found are reported, the rest are deleted in one pass
+    private void deleteUsers(boolean students, String[] usernames) {
+        Render out = Output.out();
+        List<Student> studentTargets = new ArrayList<>();
+        List<Teacher> teacherTargets = new ArrayList<>();
+        for (String username : usernames) {
+            User target = admin.findUser(username.trim());
+            if (students && target instanceof Student) {
+                studentTargets.add((Student) target);
+            } else if (!students && target instanceof Teacher) {
+                teacherTargets.add((Teacher) target);
+            } else {
+                out.println("User not found: " + username.trim());
+            }
+        }
+        if (students) {
+            out.println(admin.deleteStudents(studentTargets) + " student accounts deleted.");
+        } else {
+            out.println(admin.deleteTeachers(teacherTargets) + " teacher accounts deleted.");
+        }
+    }
+
+    private void deleteCourses(String[] names) {
+        Render out = Output.out();
+        List<Course> targets = new ArrayList<>();
+        for (String name : names) {
+            Course course = admin.findCourse(name.trim());
+            if (course != null) {
+                targets.add(course);
+            } else {
+                out.println("Course not found: " + name.trim());
+            }
+        }
+        out.println(admin.deleteCourses(targets) + " courses deleted.");
+    }
+
+    // Splits on '|' into exactly count trimmed fields; missing ones are empty
+    private static String[] args(String rest, int count) {
+        return args(rest, count, count);
+    }
+
+    // Fields from untrimmed on are passwords and are kept exactly as typed
+    private static String[] args(String rest, int count, int untrimmed) {
+        String[] parts = rest.split("\\|", count);
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            String part = i < parts.length ? parts[i] : "";
+            args[i] = i < untrimmed ? part.trim() : part;
+        }
+        return args;
+    }
+}
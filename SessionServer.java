@@ -0,0 +1,120 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// SessionServer class
+// TCP front end for Session: one connection is one session. Each request is a
+// line; each reply is the command's output followed by a line holding a single
+// ".", sent in one write once the request is done (long replies go out a page
+// at a time). Connections are served on virtual threads where the runtime has
+// them (JDK 21+), so idle sessions cost a small stack each, and on a cached
+// platform thread pool otherwise. Student enrollments share one
+// EnrollmentEngine, which batches them per course.
+class SessionServer implements Closeable {
+    private final Admin admin;
+    private final EnrollmentEngine engine;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Thread acceptor;
+
+    public SessionServer(Admin admin, int port) throws IOException {
+        this.admin = admin;
+        this.engine = new EnrollmentEngine();
+        this.serverSocket = new ServerSocket(port);
+        this.connections = newConnectionExecutor();
+        this.acceptor = new Thread(this::acceptLoop, "session-acceptor");
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Blocks until the server is closed
+    public void awaitClose() throws InterruptedException {
+        acceptor.join();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        engine.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // Closed by close()
+            } catch (IOException e) {
+                System.out.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     connection.getInputStream(), StandardCharsets.UTF_8))) {
+            Render out = new Render(connection.getOutputStream());
+            Output.bind(out);
+            Session session = new Session(admin, engine);
+            out.hold();
+            out.println("School Management System. Type HELP for commands.");
+            endReply(out);
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean open;
+                out.hold();
+                try {
+                    open = session.execute(line);
+                } catch (RuntimeException e) {
+                    out.println("Error: " + e.getMessage());
+                    open = true;
+                }
+                endReply(out);
+                if (!open || out.checkError()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away; nothing to clean up beyond the socket
+        } finally {
+            Output.unbind();
+        }
+    }
+
+    // Ends the reply and releases the hold taken before the request
+    private static void endReply(Render out) {
+        out.println(".");
+        out.release();
+    }
+
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
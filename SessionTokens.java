@@ -0,0 +1,115 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// SessionTokens class
+// Bounded cache of login tokens, so a client that reconnects or resumes a
+// session proves who it is with one map lookup instead of a password hash.
+// Tokens expire a fixed time after they are issued, so issue order is also
+// expiry order: a queue in that order finds expired tokens, and the oldest
+// token is evicted once more than capacity are live. Revoked tokens leave
+// their slot in the queue, so the queue is capped at twice the capacity too.
+// A token also stops working once its user is deleted or changes password;
+// the rehash of an outdated password hash at login is not a change, so it
+// leaves the user's tokens working.
+class SessionTokens {
+    static final int DEFAULT_CAPACITY = 100_000;
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(8);
+    static final int TOKEN_BYTES = 18;
+
+    // Who a token logs in: a user, or the administrator when user is null
+    static final class Entry {
+        final User user;
+        final int passwordVersion;
+        final long expiresAt;
+
+        Entry(User user, int passwordVersion, long expiresAt) {
+            this.user = user;
+            this.passwordVersion = passwordVersion;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isAdministrator() {
+            return user == null;
+        }
+    }
+
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+    private final Queue<String> issued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int capacity;
+    private final long ttlNanos;
+
+    public SessionTokens() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+    }
+
+    public SessionTokens(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Invalid token cache size " + capacity + " or lifetime " + ttlMillis);
+        }
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    // passwordVersion is Admin.getPasswordVersion(user) as of the login
+    public String issue(User user, int passwordVersion) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        randoms.get().nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = System.nanoTime();
+        tokens.put(token, new Entry(user, passwordVersion, now + ttlNanos));
+        issued.add(token);
+        queued.incrementAndGet();
+        evict(now);
+        return token;
+    }
+
+    // The entry for token; null once it expired, its user was deleted or the
+    // password it was issued under changed
+    public Entry resolve(String token, Admin admin) {
+        Entry entry = tokens.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0
+                || (entry.user != null && entry.user.isDeleted())
+                || entry.passwordVersion != admin.getPasswordVersion(entry.user)) {
+            tokens.remove(token, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    public void revoke(String token) {
+        tokens.remove(token);
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    // Drops expired and revoked tokens from the head of the queue, then the
+    // oldest live ones while over capacity
+    private void evict(long now) {
+        String head;
+        while ((head = issued.peek()) != null) {
+            Entry entry = tokens.get(head);
+            boolean expired = entry == null || now - entry.expiresAt >= 0;
+            if (!expired && tokens.size() <= capacity && queued.get() <= 2 * capacity) {
+                break;
+            }
+            if (issued.remove(head)) {
+                queued.decrementAndGet();
+                tokens.remove(head);
+            }
+        }
+    }
+}
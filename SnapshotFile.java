@@ -0,0 +1,743 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// SnapshotFile class
+// Versioned binary image of the whole Admin state. Names live once in a string
+// table, cross-references are integer ids, and rosters, grades and course lists
+// are written as flat int arrays, so neither side walks the object graph
+// recursively. Layout (big-endian):
+//
+//   header    magic, version, nextUserId, nextCourseId, journal sequence (v2+)
+//   strings   count, then (byteLength, utf-8 bytes) per entry
+//   admin     administrator credential (v4+)
+//   students  count, then (id, name, username, credential) per student
+//   teachers  count, then (id, name, username, credential) per teacher
+//   courses   count, then (id, name, teacherId or -1, capacity (v3+),
+//             meeting count and (day, start, end, room) per meeting (v5+))
+//             per course
+//   rosters   per course: size, student ids; grade count, student ids, grades;
+//             waitlist size, student ids in queue order (v3+)
+//   links     per student, then per teacher: size, course ids in enrollment order
+//
+// From v6 the rosters and the student links are pages that a lazy load
+// (see SnapshotPages) reads one at a time, so they follow the teacher links:
+//
+//   links     per teacher: size, course ids in enrollment order
+//   pages     a roster block per course as above, then a block per student:
+//             courses, waitlists and graded courses, each a size and course ids
+//   index     course count, (offset, length) per course; student count, then
+//             (offset, length, graded courses, grade sum (long), grade points)
+//             per student, in the order of the sections above
+//   trailer   index offset (long)
+//
+// A student's waitlists, graded courses and GPA totals are worked out from
+// the roster pages of the same file, so each file agrees with itself however
+// the pages were gathered.
+//
+// Credentials are Credentials hashes from v4 on; older files hold plaintext
+// passwords there, which Credentials accepts until the next login rehashes them.
+// New versions only ever add fields, so read() keeps accepting older files.
+class SnapshotFile {
+    static final int MAGIC = 0x534D5353; // "SMSS"
+    static final int VERSION = 6;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final Metrics.Timer WRITE = Metrics.exactTimer("snapshot.write");
+    private static final Metrics.Timer READ = Metrics.exactTimer("snapshot.read");
+
+    private SnapshotFile() {
+    }
+
+    // Writes to a sibling temp file and renames it over the target, so a crash
+    // mid-save never leaves a truncated snapshot behind. journalSequence is the
+    // last journal record already reflected in admin; replay skips up to it.
+    //
+    // Other sessions may keep writing meanwhile, so the image can include some
+    // changes journaled after journalSequence. Replay re-applies those, and
+    // every journaled operation is idempotent, so the result is still exact.
+    public static void write(Admin admin, long journalSequence, Path path) throws IOException {
+        long start = WRITE.start();
+        writeImage(admin, journalSequence, path);
+        WRITE.record(start);
+    }
+
+    private static void writeImage(Admin admin, long journalSequence, Path path) throws IOException {
+        Student[] students = admin.students.toArray(new Student[0]);
+        Teacher[] teachers = admin.teachers.toArray(new Teacher[0]);
+        Course[] courses = admin.courses.toArray(new Course[0]);
+        // Read after collecting, so every collected id is below these
+        int nextUserId = admin.getNextUserId();
+        int nextCourseId = admin.getNextCourseId();
+
+        // Where each page went, for repoint(): courses' first, then students'
+        int pageCount = courses.length + students.length;
+        int[] offsets = new int[pageCount];
+        int[] lengths = new int[pageCount];
+        long[] stamps = new long[pageCount];
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer out = new Writer(channel);
+            Map<String, Integer> strings = new LinkedHashMap<>();
+            String administrator = admin.getAdministratorCredential();
+            strings.putIfAbsent(administrator, strings.size());
+            for (Student student : students) {
+                intern(strings, student);
+            }
+            for (Teacher teacher : teachers) {
+                intern(strings, teacher);
+            }
+            // Read once, so the count and the meetings written agree
+            List<List<Meeting>> meetings = new ArrayList<>(courses.length);
+            for (Course course : courses) {
+                strings.putIfAbsent(course.getName(), strings.size());
+                meetings.add(course.getMeetings());
+                for (Meeting meeting : meetings.get(meetings.size() - 1)) {
+                    strings.putIfAbsent(meeting.getRoom(), strings.size());
+                }
+            }
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(nextUserId);
+            out.putInt(nextCourseId);
+            out.putLong(journalSequence);
+
+            out.putInt(strings.size());
+            for (String value : strings.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length);
+                out.putBytes(bytes);
+            }
+
+            out.putInt(strings.get(administrator));
+            writeUsers(out, students, strings);
+            writeUsers(out, teachers, strings);
+
+            out.putInt(courses.length);
+            for (int c = 0; c < courses.length; c++) {
+                Course course = courses[c];
+                Teacher teacher = course.getTeacher();
+                out.putInt(course.getId());
+                out.putInt(strings.get(course.getName()));
+                out.putInt(teacher == null ? -1 : teacher.getId());
+                out.putInt(course.getCapacity());
+                out.putInt(meetings.get(c).size());
+                for (Meeting meeting : meetings.get(c)) {
+                    out.putInt(meeting.getDay());
+                    out.putInt(meeting.getStart());
+                    out.putInt(meeting.getEnd());
+                    out.putInt(strings.get(meeting.getRoom()));
+                }
+            }
+
+            int[] ids = new int[16];
+            for (Teacher teacher : teachers) {
+                ids = writeLinks(out, teacher, ids);
+            }
+
+            // Unchanged pages are copied from the snapshot they were read
+            // from; the rest are encoded from memory
+            int[] slot = new int[nextUserId];
+            Arrays.fill(slot, -1);
+            for (int s = 0; s < students.length; s++) {
+                slot[students[s].getId()] = s;
+            }
+            Derived[] derived = new Derived[students.length];
+            for (int s = 0; s < students.length; s++) {
+                derived[s] = new Derived();
+            }
+            for (int c = 0; c < courses.length; c++) {
+                Paged.Image<Course.Roster> image = courses[c].getRosterPages().image();
+                ByteBuffer page = image.block != null ? image.block.read() : encodeRoster(image.value);
+                derive(page.duplicate(), courses[c].getId(), slot, derived);
+                offsets[c] = offset(out);
+                lengths[c] = page.remaining();
+                stamps[c] = image.stamp;
+                out.putBuffer(page);
+            }
+            for (int s = 0; s < students.length; s++) {
+                int p = courses.length + s;
+                Paged.Image<User.Links> image = students[s].getLinkPages().image();
+                int[][] links = linkIds(image);
+                ByteBuffer page = encodeLinks(links[0], derived[s]);
+                offsets[p] = offset(out);
+                lengths[p] = page.remaining();
+                // Re-pointed only if the page holds what memory does
+                stamps[p] = sameIds(links[1], derived[s].waitlisted, derived[s].waiting)
+                        && sameIds(links[2], derived[s].graded, derived[s].gradedCourses) ? image.stamp : -1;
+                out.putBuffer(page);
+            }
+
+            long index = out.position();
+            out.putInt(courses.length);
+            for (int c = 0; c < courses.length; c++) {
+                out.putInt(offsets[c]);
+                out.putInt(lengths[c]);
+            }
+            out.putInt(students.length);
+            for (int s = 0; s < students.length; s++) {
+                out.putInt(offsets[courses.length + s]);
+                out.putInt(lengths[courses.length + s]);
+                out.putInt(derived[s].gradedCourses);
+                out.putLong(derived[s].gradeSum);
+                out.putInt(derived[s].gradePoints);
+            }
+            out.putLong(index);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (SnapshotPages.LAZY) {
+            repoint(admin, path, courses, students, offsets, lengths, stamps);
+        }
+    }
+
+    // Points unchanged pages at the new file, so they can be evicted; its
+    // mapping replaces the old one's as they move over
+    private static void repoint(Admin admin, Path path, Course[] courses, Student[] students,
+            int[] offsets, int[] lengths, long[] stamps) throws IOException {
+        SnapshotPages pages = admin.getPages();
+        if (pages == null) {
+            pages = new SnapshotPages(admin);
+            admin.setPages(pages);
+        }
+        ByteBuffer file = SnapshotPages.map(path);
+        for (int c = 0; c < courses.length; c++) {
+            pages.repoint(courses[c].getRosterPages(), stamps[c], pages.block(file, offsets[c], lengths[c]));
+        }
+        for (int s = 0; s < students.length; s++) {
+            int p = courses.length + s;
+            pages.repoint(students[s].getLinkPages(), stamps[p], pages.block(file, offsets[p], lengths[p]));
+        }
+    }
+
+    // References to users or courses the image does not contain (created while
+    // it was being written) are skipped; journal replay restores them
+    public static Admin read(Path path) throws IOException {
+        long start = READ.start();
+        Admin admin = readImage(path);
+        READ.record(start);
+        return admin;
+    }
+
+    private static Admin readImage(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + channel.size() + " bytes");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 16 || in.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            Admin admin = new Admin();
+            int nextUserId = in.getInt();
+            int nextCourseId = in.getInt();
+            admin.restoreIds(nextUserId, nextCourseId);
+            if (version >= 2) {
+                admin.restoreJournalSequence(in.getLong());
+            }
+
+            String[] strings = new String[in.getInt()];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = in.getInt();
+                scratch = length > scratch.length ? new byte[length] : scratch;
+                in.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            if (version >= 4) {
+                admin.restoreAdministratorCredential(strings[in.getInt()]);
+            }
+            Index index = version >= 6 ? new Index(in) : null;
+
+            User[] users = new User[nextUserId];
+            Student[] students = new Student[in.getInt()];
+            for (int i = 0; i < students.length; i++) {
+                int id = in.getInt();
+                students[i] = new Student(id, strings[in.getInt()], strings[in.getInt()], strings[in.getInt()]);
+                users[id] = students[i];
+                if (index != null) {
+                    students[i].restoreGradeTotals(index.gradedCourses[i], index.gradeSums[i], index.gradePoints[i]);
+                }
+                admin.restoreStudent(students[i]);
+            }
+            Teacher[] teachers = new Teacher[in.getInt()];
+            for (int i = 0; i < teachers.length; i++) {
+                int id = in.getInt();
+                teachers[i] = new Teacher(id, strings[in.getInt()], strings[in.getInt()], strings[in.getInt()]);
+                users[id] = teachers[i];
+                admin.restoreTeacher(teachers[i]);
+            }
+
+            Course[] byId = new Course[nextCourseId];
+            Course[] courses = new Course[in.getInt()];
+            for (int i = 0; i < courses.length; i++) {
+                int id = in.getInt();
+                courses[i] = new Course(id, strings[in.getInt()]);
+                User teacher = lookup(users, in.getInt());
+                if (teacher instanceof Teacher) {
+                    courses[i].restoreTeacher((Teacher) teacher);
+                }
+                if (version >= 3) {
+                    courses[i].restoreCapacity(in.getInt());
+                }
+                byId[id] = courses[i];
+                admin.restoreCourse(courses[i]);
+                if (version >= 5) {
+                    List<Meeting> meetings = new ArrayList<>();
+                    for (int m = in.getInt(); m > 0; m--) {
+                        int day = in.getInt();
+                        int start = in.getInt();
+                        int end = in.getInt();
+                        meetings.add(new Meeting(day, start, end, strings[in.getInt()]));
+                    }
+                    admin.restoreMeetings(courses[i], Collections.unmodifiableList(meetings));
+                }
+            }
+
+            int[] ids = new int[16];
+            if (index != null) {
+                for (Teacher teacher : teachers) {
+                    ids = readLinks(in, teacher, byId, ids);
+                }
+                readPages(admin, in, index, courses, students);
+                return admin;
+            }
+            int[] grades = new int[16];
+            Student[] graded = new Student[16];
+            for (Course course : courses) {
+                int n = in.getInt();
+                ids = readInts(in, ids, n);
+                for (int i = 0; i < n; i++) {
+                    User student = lookup(users, ids[i]);
+                    if (student instanceof Student) {
+                        course.restoreStudent((Student) student);
+                    }
+                }
+                int count = in.getInt();
+                ids = readInts(in, ids, count);
+                grades = readInts(in, grades, count);
+                graded = graded.length < count ? new Student[Math.max(count, graded.length * 2)] : graded;
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    User student = lookup(users, ids[i]);
+                    if (student instanceof Student) {
+                        graded[kept] = (Student) student;
+                        grades[kept++] = grades[i];
+                    }
+                }
+                course.setGrades(graded, grades, kept);
+
+                if (version >= 3) {
+                    n = in.getInt();
+                    ids = readInts(in, ids, n);
+                    for (int i = 0; i < n; i++) {
+                        User student = lookup(users, ids[i]);
+                        if (student instanceof Student) {
+                            course.restoreWaitlisted((Student) student);
+                        }
+                    }
+                }
+            }
+
+            for (Student student : students) {
+                ids = readLinks(in, student, byId, ids);
+            }
+            for (Teacher teacher : teachers) {
+                ids = readLinks(in, teacher, byId, ids);
+            }
+            return admin;
+        }
+    }
+
+    // The rest of a v6 file: pages stay in the mapping until first use when
+    // loading lazily, and are all read now otherwise
+    private static void readPages(Admin admin, ByteBuffer in, Index index, Course[] courses, Student[] students) {
+        SnapshotPages pages = new SnapshotPages(admin);
+        for (int c = 0; c < courses.length; c++) {
+            SnapshotPages.Block block = pages.block(in, index.offsets[c], index.lengths[c]);
+            if (SnapshotPages.LAZY) {
+                courses[c].getRosterPages().restore(block);
+            } else {
+                courses[c].getRosterPages().restore(readRoster(block));
+            }
+        }
+        for (int s = 0; s < students.length; s++) {
+            int p = courses.length + s;
+            SnapshotPages.Block block = pages.block(in, index.offsets[p], index.lengths[p]);
+            if (SnapshotPages.LAZY) {
+                students[s].getLinkPages().restore(block);
+            } else {
+                students[s].getLinkPages().restore(readLinks(block));
+            }
+        }
+        if (SnapshotPages.LAZY) {
+            admin.setPages(pages);
+        }
+    }
+
+    // Paged.Loader for a course's roster page. Students deleted since the
+    // page was written are left out.
+    static Course.Roster readRoster(SnapshotPages.Block block) {
+        ByteBuffer in = block.read();
+        Admin admin = block.admin();
+        int n = in.getInt();
+        Course.Roster roster = new Course.Roster(new GradeStore(in.getInt(Integer.BYTES * (1 + n))));
+        roster.bind(admin.getStudentTable());
+        for (int i = 0; i < n; i++) {
+            User student = admin.findUser(in.getInt());
+            if (student instanceof Student) {
+                roster.students.add((Student) student);
+            }
+        }
+        int count = in.getInt();
+        int[] ids = readInts(in, new int[count], count);
+        int[] grades = readInts(in, new int[count], count);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (admin.findUser(ids[i]) instanceof Student) {
+                ids[kept] = ids[i];
+                grades[kept++] = grades[i];
+            }
+        }
+        roster.grades.putAll(ids, grades, kept, new int[kept]);
+        for (int i = 0; i < kept; i++) {
+            roster.stats.replace(GradeStore.NO_GRADE, grades[i]);
+        }
+        for (n = in.getInt(); n > 0; n--) {
+            User student = admin.findUser(in.getInt());
+            if (student instanceof Student) {
+                roster.waitlist.add((Student) student);
+            }
+        }
+        return roster;
+    }
+
+    // Paged.Loader for a student's links page; builds the week from the
+    // courses' current meetings
+    static User.Links readLinks(SnapshotPages.Block block) {
+        ByteBuffer in = block.read();
+        Admin admin = block.admin();
+        User.Links links = new User.Links();
+        links.bind(admin.getCourseTable());
+        readCourses(in, admin, links.courses);
+        readCourses(in, admin, links.waitlisted);
+        readCourses(in, admin, links.graded);
+        IntervalIndex<Course> timetable = IntervalIndex.empty();
+        for (Course course : links.courses) {
+            timetable = timetable.with(course, course.getMeetings());
+        }
+        for (Course course : links.waitlisted) {
+            if (!links.courses.contains(course)) {
+                timetable = timetable.with(course, course.getMeetings());
+            }
+        }
+        links.timetable = timetable;
+        return links;
+    }
+
+    private static void readCourses(ByteBuffer in, Admin admin, Set<Course> into) {
+        for (int n = in.getInt(); n > 0; n--) {
+            Course course = admin.findCourse(in.getInt());
+            if (course != null) {
+                into.add(course);
+            }
+        }
+    }
+
+    private static ByteBuffer encodeRoster(Course.Roster roster) {
+        int[] listed = roster.students.ids();
+        int[][] table = roster.grades.toArrays();
+        int[] waiting = roster.waitlist.ids();
+        ByteBuffer page = ByteBuffer.allocate(Integer.BYTES * (3 + listed.length + 2 * table[0].length + waiting.length));
+        page.putInt(listed.length);
+        page.asIntBuffer().put(listed).put(table[0].length).put(table[0]).put(table[1]).put(waiting.length).put(waiting);
+        return page.position(page.capacity()).flip();
+    }
+
+    private static ByteBuffer encodeLinks(int[] courses, Derived derived) {
+        ByteBuffer page = ByteBuffer.allocate(Integer.BYTES
+                * (3 + courses.length + derived.waiting + derived.gradedCourses));
+        page.putInt(courses.length);
+        page.asIntBuffer().put(courses);
+        page.position(page.position() + courses.length * Integer.BYTES);
+        page.putInt(derived.waiting);
+        page.asIntBuffer().put(derived.waitlisted, 0, derived.waiting);
+        page.position(page.position() + derived.waiting * Integer.BYTES);
+        page.putInt(derived.gradedCourses);
+        page.asIntBuffer().put(derived.graded, 0, derived.gradedCourses);
+        page.position(page.position() + derived.gradedCourses * Integer.BYTES);
+        return page.flip();
+    }
+
+    // Adds a roster page's waitlist places and grades to its students' totals
+    private static void derive(ByteBuffer page, int courseId, int[] slot, Derived[] derived) {
+        int listed = page.getInt();
+        page.position(page.position() + listed * Integer.BYTES);
+        int count = page.getInt();
+        int grades = page.position() + count * Integer.BYTES;
+        for (int i = 0; i < count; i++) {
+            int s = lookup(slot, page.getInt());
+            if (s >= 0) {
+                derived[s].grade(courseId, page.getInt(grades + i * Integer.BYTES));
+            }
+        }
+        page.position(grades + count * Integer.BYTES);
+        for (int n = page.getInt(); n > 0; n--) {
+            int s = lookup(slot, page.getInt());
+            if (s >= 0) {
+                derived[s].waiting(courseId);
+            }
+        }
+    }
+
+    // A student's courses, waitlists and graded courses as of image
+    private static int[][] linkIds(Paged.Image<User.Links> image) {
+        if (image.block != null) {
+            ByteBuffer in = image.block.read();
+            int[][] ids = new int[3][];
+            for (int i = 0; i < ids.length; i++) {
+                int n = in.getInt();
+                ids[i] = readInts(in, new int[n], n);
+            }
+            return ids;
+        }
+        return new int[][] {image.value.courses.ids(), image.value.waitlisted.ids(), image.value.graded.ids()};
+    }
+
+    private static boolean sameIds(int[] ids, int[] others, int count) {
+        if (ids.length != count) {
+            return false;
+        }
+        int[] sorted = ids.clone();
+        int[] sortedOthers = Arrays.copyOf(others, count);
+        Arrays.sort(sorted);
+        Arrays.sort(sortedOthers);
+        return Arrays.equals(sorted, sortedOthers);
+    }
+
+    private static int offset(Writer out) throws IOException {
+        long position = out.position();
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large to map: " + position + " bytes");
+        }
+        return (int) position;
+    }
+
+    private static int lookup(int[] table, int id) {
+        return id >= 0 && id < table.length ? table[id] : -1;
+    }
+
+    private static <T> T lookup(T[] table, int id) {
+        return id >= 0 && id < table.length ? table[id] : null;
+    }
+
+    private static void intern(Map<String, Integer> strings, User user) {
+        strings.putIfAbsent(user.getName(), strings.size());
+        strings.putIfAbsent(user.getUsername(), strings.size());
+        strings.putIfAbsent(user.getCredential(), strings.size());
+    }
+
+    private static void writeUsers(Writer out, User[] users, Map<String, Integer> strings) throws IOException {
+        out.putInt(users.length);
+        for (User user : users) {
+            out.putInt(user.getId());
+            out.putInt(strings.get(user.getName()));
+            out.putInt(strings.get(user.getUsername()));
+            out.putInt(strings.get(user.getCredential()));
+        }
+    }
+
+    private static int[] writeLinks(Writer out, User user, int[] ids) throws IOException {
+        int n = 0;
+        for (Course course : user.getCourses()) {
+            ids = ensure(ids, n + 1);
+            ids[n++] = course.getId();
+        }
+        out.putInt(n);
+        out.putInts(ids, n);
+        return ids;
+    }
+
+    private static int[] readLinks(ByteBuffer in, User user, Course[] byId, int[] ids) {
+        int n = in.getInt();
+        ids = readInts(in, ids, n);
+        for (int i = 0; i < n; i++) {
+            Course course = lookup(byId, ids[i]);
+            if (course != null) {
+                user.addCourse(course);
+                if (user instanceof Teacher) {
+                    course.restoreTeacher((Teacher) user);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static int[] readInts(ByteBuffer in, int[] into, int count) {
+        into = ensure(into, count);
+        in.asIntBuffer().get(into, 0, count);
+        in.position(in.position() + count * Integer.BYTES);
+        return into;
+    }
+
+    // Grows array to hold size ints, keeping what it already holds
+    private static int[] ensure(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    // A student's side of the roster pages written so far
+    private static final class Derived {
+        int[] waitlisted = new int[4];
+        int waiting;
+        int[] graded = new int[4];
+        int gradedCourses;
+        long gradeSum;
+        int gradePoints;
+
+        void waiting(int courseId) {
+            waitlisted = ensure(waitlisted, waiting + 1);
+            waitlisted[waiting++] = courseId;
+        }
+
+        void grade(int courseId, int grade) {
+            graded = ensure(graded, gradedCourses + 1);
+            graded[gradedCourses++] = courseId;
+            gradeSum += grade;
+            gradePoints += GradeAnalytics.points(grade);
+        }
+    }
+
+    // The page directory and GPA totals of a v6 file, read from its end;
+    // courses' pages first, then students'
+    private static final class Index {
+        final int[] offsets;
+        final int[] lengths;
+        final int[] gradedCourses;
+        final long[] gradeSums;
+        final int[] gradePoints;
+
+        Index(ByteBuffer file) throws IOException {
+            long at = file.getLong(file.limit() - Long.BYTES);
+            if (at < 0 || at > file.limit() - Long.BYTES) {
+                throw new IOException("Corrupt snapshot index at " + at);
+            }
+            ByteBuffer in = file.duplicate().position((int) at);
+            int courses = in.getInt();
+            int students = in.getInt(in.position() + courses * 2 * Integer.BYTES);
+            offsets = new int[courses + students];
+            lengths = new int[courses + students];
+            gradedCourses = new int[students];
+            gradeSums = new long[students];
+            gradePoints = new int[students];
+            for (int c = 0; c < courses; c++) {
+                offsets[c] = in.getInt();
+                lengths[c] = in.getInt();
+            }
+            in.getInt();
+            for (int s = 0; s < students; s++) {
+                offsets[courses + s] = in.getInt();
+                lengths[courses + s] = in.getInt();
+                gradedCourses[s] = in.getInt();
+                gradeSums[s] = in.getLong();
+                gradePoints[s] = in.getInt();
+            }
+        }
+    }
+
+    // Buffered sequential writer over a FileChannel
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long drained;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES) {
+                drain();
+            }
+            buffer.putLong(value);
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                if (buffer.remaining() < Integer.BYTES) {
+                    drain();
+                }
+                int chunk = Math.min(count - offset, buffer.remaining() / Integer.BYTES);
+                IntBuffer view = buffer.asIntBuffer();
+                view.put(values, offset, chunk);
+                buffer.position(buffer.position() + chunk * Integer.BYTES);
+                offset += chunk;
+            }
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(bytes.length - offset, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        void putBuffer(ByteBuffer bytes) throws IOException {
+            ByteBuffer from = bytes.duplicate();
+            while (from.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(from.remaining(), buffer.remaining());
+                buffer.put(from.duplicate().limit(from.position() + chunk));
+                from.position(from.position() + chunk);
+            }
+        }
+
+        // Bytes written so far
+        long position() {
+            return drained + buffer.position();
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            drained += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
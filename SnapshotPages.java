@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+// SnapshotPages class
+// The working set of a lazily loaded snapshot (-Dsms.lazyLoad=true). Startup
+// reads only the user and course directories; each course's roster,
+// waitlist and gradebook and each student's course links stay in a block of
+// the mapped snapshot until first use (see Paged). Blocks are indexed by
+// owner, so a page-in is one bounds-checked read, however large the file.
+//
+// Paged-in values that are still unchanged are kept under a budget of block
+// bytes (-Dsms.lazyLoad.residentBytes, RESIDENT_BYTES by default), evicted in
+// clock order: a sweep passes over values used since its last pass and
+// drops the first one that was not. Changed values are pinned until a
+// checkpoint writes them; repoint() then reads them from the new snapshot,
+// and the old mapping goes once no block refers to it.
+//
+// The lock is this object. It is taken with no Paged lock held, and takes
+// Paged locks inside it.
+final class SnapshotPages {
+    static final boolean LAZY = Boolean.getBoolean("sms.lazyLoad");
+    static final long RESIDENT_BYTES = 16L << 20;
+
+    private static final Metrics.Counter PAGE_INS = Metrics.counter("pages.in");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("pages.evicted");
+
+    private final Admin admin;
+    private final long budget;
+    private final ArrayDeque<Paged<?>> clock = new ArrayDeque<>();
+    private long residentBytes;
+
+    SnapshotPages(Admin admin) {
+        this(admin, Long.getLong("sms.lazyLoad.residentBytes", RESIDENT_BYTES));
+    }
+
+    SnapshotPages(Admin admin, long budget) {
+        this.admin = admin;
+        this.budget = budget;
+    }
+
+    // A byte range of a mapped snapshot; ids in it resolve through admin
+    static final class Block {
+        private final SnapshotPages pages;
+        private final ByteBuffer file;
+        private final int offset;
+        private final int length;
+
+        Block(SnapshotPages pages, ByteBuffer file, int offset, int length) {
+            this.pages = pages;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        SnapshotPages pages() {
+            return pages;
+        }
+
+        Admin admin() {
+            return pages.admin;
+        }
+
+        int length() {
+            return length;
+        }
+
+        // A fresh buffer over just this block
+        ByteBuffer read() {
+            return file.duplicate().position(offset).limit(offset + length).slice();
+        }
+    }
+
+    // Maps a snapshot for blocks; the mapping lives as long as they do
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + channel.size() + " bytes");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    Block block(ByteBuffer file, int offset, int length) {
+        return new Block(this, file, offset, length);
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    // Called by Paged once value was read from block, with no lock held
+    void pagedIn(Paged<?> value, Block block) {
+        PAGE_INS.increment();
+        enqueue(value, block.length());
+    }
+
+    // After a checkpoint: value can now be read from block unless it changed
+    // while the snapshot was written; see Paged.repoint
+    <T> void repoint(Paged<T> value, long stamp, Block block) {
+        if (value.repoint(stamp, block) != null) {
+            enqueue(value, block.length());
+        }
+    }
+
+    private synchronized void enqueue(Paged<?> value, int bytes) {
+        if (!value.queued) {
+            value.queued = true;
+            value.queuedBytes = bytes;
+            residentBytes += bytes;
+            clock.addLast(value);
+        }
+        // Each value is passed over at most twice: once to clear its bit
+        for (int steps = 2 * clock.size(); residentBytes > budget && steps > 0; steps--) {
+            Paged<?> next = clock.pollFirst();
+            if (next.referenced && next.peek() != null) {
+                next.referenced = false;
+                clock.addLast(next);
+                continue;
+            }
+            // Evicted, or pinned by a change; a checkpoint queues it again
+            next.queued = false;
+            residentBytes -= next.queuedBytes;
+            if (next.evict()) {
+                EVICTIONS.increment();
+            }
+        }
+    }
+}
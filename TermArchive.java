@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+// TermArchive class
+// The closed terms, one TermSegment file each in a directory, oldest first.
+// Admin.closeTerm adds a term; queries then run over the segments without
+// touching the live courses:
+//
+//   transcript  a student's rows in every term whose student id range covers it
+//   trend       a course's grades per term, from the terms that had the course
+//   cohort      the students of one course in one term, and their grades in
+//               that term and every later one
+//
+// Each reads only the rows it reports, found by binary search in each
+// segment it visits (see TermSegment). Segments never change, so queries take
+// no lock; adding a term is serialized on this object.
+final class TermArchive {
+    static final String DEFAULT_DIR = "terms";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final List<TermSegment> terms = new CopyOnWriteArrayList<>();
+
+    private TermArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    // A row of a transcript
+    static final class Entry {
+        final TermSegment term;
+        final int courseId;
+        final int grade;
+
+        Entry(TermSegment term, int courseId, int grade) {
+            this.term = term;
+            this.courseId = courseId;
+            this.grade = grade;
+        }
+
+        public String getCourseName() {
+            return term.getCourseName(courseId);
+        }
+    }
+
+    // Maps every segment in dir; the directory is created with the first term
+    static TermArchive open(Path dir) throws IOException {
+        TermArchive archive = new TermArchive(dir);
+        if (!Files.isDirectory(dir)) {
+            return archive;
+        }
+        List<TermSegment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                found.add(TermSegment.read(file));
+            }
+        }
+        found.sort(Comparator.comparingLong(TermSegment::getClosed));
+        archive.terms.addAll(found);
+        return archive;
+    }
+
+    public List<TermSegment> getTerms() {
+        return terms;
+    }
+
+    public TermSegment find(String name) {
+        for (TermSegment term : terms) {
+            if (term.getName().equalsIgnoreCase(name.trim())) {
+                return term;
+            }
+        }
+        return null;
+    }
+
+    // Writes the rows as a new segment; null if a term of that name exists
+    synchronized TermSegment add(TermSegment.Builder rows) throws IOException {
+        if (find(rows.getName()) != null) {
+            return null;
+        }
+        Files.createDirectories(dir);
+        Path file;
+        int number = terms.size() + 1;
+        do {
+            file = dir.resolve(String.format("term-%04d%s", number++, SUFFIX));
+        } while (Files.exists(file));
+        long closed = terms.isEmpty() ? System.currentTimeMillis()
+                : Math.max(System.currentTimeMillis(), terms.get(terms.size() - 1).getClosed() + 1);
+        rows.write(file, closed);
+        TermSegment term = TermSegment.read(file);
+        terms.add(term);
+        return term;
+    }
+
+    // Every archived row of the student, term by term
+    public List<Entry> transcript(int studentId) {
+        List<Entry> entries = new ArrayList<>();
+        for (TermSegment term : terms) {
+            term.forStudent(studentId, (student, course, grade) -> entries.add(new Entry(term, course, grade)));
+        }
+        return entries;
+    }
+
+    // Grades of the course, per term that had a course of this name
+    public Map<TermSegment, GradeStats> trend(String courseName) {
+        Map<TermSegment, GradeStats> trend = new LinkedHashMap<>();
+        for (TermSegment term : terms) {
+            int[] courseIds = term.findCourses(courseName);
+            if (courseIds.length == 0) {
+                continue;
+            }
+            GradeStats stats = new GradeStats();
+            for (int courseId : courseIds) {
+                term.forCourse(courseId, (student, course, grade) -> stats.replace(GradeStore.NO_GRADE, grade));
+            }
+            trend.put(term, stats);
+        }
+        return trend;
+    }
+
+    // Students with a row in the course in the given term
+    public int[] cohort(TermSegment term, String courseName) {
+        IntStream.Builder members = IntStream.builder();
+        for (int courseId : term.findCourses(courseName)) {
+            term.forCourse(courseId, (student, course, grade) -> members.add(student));
+        }
+        return members.build().sorted().distinct().toArray();
+    }
+
+    // The cohort's grades in from and every later term
+    public Map<TermSegment, GradeStats> follow(int[] cohort, TermSegment from) {
+        Map<TermSegment, GradeStats> grades = new LinkedHashMap<>();
+        for (TermSegment term : terms.subList(terms.indexOf(from), terms.size())) {
+            GradeStats stats = new GradeStats();
+            for (int studentId : cohort) {
+                term.forStudent(studentId, (student, course, grade) -> stats.replace(GradeStore.NO_GRADE, grade));
+            }
+            grades.put(term, stats);
+        }
+        return grades;
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// TermSegment class
+// One closed term, frozen: a row per enrollment or grade the term ended with
+// (student id, course id, grade or NO_GRADE), in packed int columns sorted by
+// student and then course, plus a by-course index of row numbers. A student's
+// rows or a course's rows are one binary search and a contiguous run, so a
+// query reads only the rows it returns. The course names of the term are kept
+// with it, so history outlives renamed and deleted courses. Segments are
+// written once and read through a read-only mapping. Layout (big-endian):
+//
+//   header   magic, version, closed (epoch millis), term name (byteLength,
+//            utf-8 bytes), graded rows, grade sum (long), lowest and highest
+//            student id (-1 when empty)
+//   courses  count, then (id, byteLength, utf-8 name bytes) per course
+//   rows     count n, then n student ids, n course ids, n grades
+//   index    n row numbers in (course, student) order
+final class TermSegment {
+    static final int MAGIC = 0x534D5453; // "SMTS"
+    static final int VERSION = 1;
+
+    private final String name;
+    private final long closed;
+    private final int gradedRows;
+    private final long gradeSum;
+    private final int lowestStudent;
+    private final int highestStudent;
+    private final Map<Integer, String> courseNames;
+    private final IntBuffer students;
+    private final IntBuffer courses;
+    private final IntBuffer grades;
+    private final IntBuffer byCourse;
+
+    private TermSegment(ByteBuffer in, Path path) throws IOException {
+        if (in.remaining() < 16 || in.getInt() != MAGIC) {
+            throw new IOException("Not a term segment: " + path);
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported term segment version " + version + ": " + path);
+        }
+        closed = in.getLong();
+        name = getString(in);
+        gradedRows = in.getInt();
+        gradeSum = in.getLong();
+        lowestStudent = in.getInt();
+        highestStudent = in.getInt();
+        Map<Integer, String> names = new HashMap<>();
+        for (int n = in.getInt(); n > 0; n--) {
+            int id = in.getInt();
+            names.put(id, getString(in));
+        }
+        courseNames = Collections.unmodifiableMap(names);
+        int rows = in.getInt();
+        students = column(in, rows);
+        courses = column(in, rows);
+        grades = column(in, rows);
+        byCourse = column(in, rows);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    public int getRowCount() {
+        return students.limit();
+    }
+
+    // Mean over every grade of the term, from the header; NaN if none
+    public double getAverageGrade() {
+        return gradedRows == 0 ? Double.NaN : (double) gradeSum / gradedRows;
+    }
+
+    public String getCourseName(int courseId) {
+        return courseNames.get(courseId);
+    }
+
+    // Ids the term's courses of this name had (case-insensitive); usually one
+    public int[] findCourses(String courseName) {
+        String key = courseName.trim().toLowerCase(Locale.ROOT);
+        return courseNames.entrySet().stream()
+                .filter(entry -> entry.getValue().trim().toLowerCase(Locale.ROOT).equals(key))
+                .mapToInt(Map.Entry::getKey).sorted().toArray();
+    }
+
+    public boolean mayHaveStudent(int studentId) {
+        return studentId >= lowestStudent && studentId <= highestStudent;
+    }
+
+    // Receives rows one at a time
+    interface RowVisitor {
+        void visit(int studentId, int courseId, int grade);
+    }
+
+    // Every row, in student order
+    public void forEach(RowVisitor visitor) {
+        for (int row = 0; row < students.limit(); row++) {
+            visitor.visit(students.get(row), courses.get(row), grades.get(row));
+        }
+    }
+
+    // The student's rows in course id order
+    public void forStudent(int studentId, RowVisitor visitor) {
+        if (!mayHaveStudent(studentId)) {
+            return;
+        }
+        for (int row = firstRow(studentId); row < students.limit() && students.get(row) == studentId; row++) {
+            visitor.visit(studentId, courses.get(row), grades.get(row));
+        }
+    }
+
+    // The course's rows in student id order
+    public void forCourse(int courseId, RowVisitor visitor) {
+        int low = 0;
+        int high = byCourse.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (courses.get(byCourse.get(middle)) < courseId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < byCourse.limit(); i++) {
+            int row = byCourse.get(i);
+            if (courses.get(row) != courseId) {
+                break;
+            }
+            visitor.visit(students.get(row), courseId, grades.get(row));
+        }
+    }
+
+    // The student's grade in the course this term, or NO_GRADE
+    public int grade(int studentId, int courseId) {
+        if (!mayHaveStudent(studentId)) {
+            return GradeStore.NO_GRADE;
+        }
+        for (int row = firstRow(studentId); row < students.limit() && students.get(row) == studentId; row++) {
+            if (courses.get(row) == courseId) {
+                return grades.get(row);
+            }
+        }
+        return GradeStore.NO_GRADE;
+    }
+
+    private int firstRow(int studentId) {
+        int low = 0;
+        int high = students.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (students.get(middle) < studentId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    static TermSegment read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Term segment too large to map: " + channel.size() + " bytes");
+            }
+            return new TermSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+        }
+    }
+
+    private static IntBuffer column(ByteBuffer in, int rows) {
+        IntBuffer column = in.slice().limit(rows * Integer.BYTES).asIntBuffer();
+        in.position(in.position() + rows * Integer.BYTES);
+        return column;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Collects a term's rows in any order and writes them sorted
+    static final class Builder {
+        private final String name;
+        private final Map<Integer, String> courseNames = new HashMap<>();
+        private int[] students = new int[64];
+        private int[] courses = new int[64];
+        private int[] grades = new int[64];
+        private int rows;
+
+        Builder(String name) {
+            this.name = name.trim();
+        }
+
+        String getName() {
+            return name;
+        }
+
+        void course(int courseId, String courseName) {
+            courseNames.put(courseId, courseName);
+        }
+
+        void add(int studentId, int courseId, int grade) {
+            if (rows == students.length) {
+                students = Arrays.copyOf(students, rows * 2);
+                courses = Arrays.copyOf(courses, rows * 2);
+                grades = Arrays.copyOf(grades, rows * 2);
+            }
+            students[rows] = studentId;
+            courses[rows] = courseId;
+            grades[rows++] = grade;
+        }
+
+        int size() {
+            return rows;
+        }
+
+        // Writes to a sibling temp file and renames it over path, like SnapshotFile
+        void write(Path path, long closed) throws IOException {
+            // Ids are never negative, so (id << 32 | row) sorts by id, then row
+            int[] order = sortedRows(students, courses);
+            int[] courseOrder = sortedRows(permute(courses, order), null);
+            int graded = 0;
+            long sum = 0;
+            for (int row = 0; row < rows; row++) {
+                if (grades[row] != GradeStore.NO_GRADE) {
+                    graded++;
+                    sum += grades[row];
+                }
+            }
+            byte[] term = name.getBytes(StandardCharsets.UTF_8);
+            int size = Integer.BYTES * 2 + Long.BYTES + Integer.BYTES + term.length
+                    + Integer.BYTES + Long.BYTES + Integer.BYTES * 2 + Integer.BYTES + Integer.BYTES + rows * Integer.BYTES * 4;
+            Map<Integer, byte[]> names = new HashMap<>();
+            for (Map.Entry<Integer, String> entry : courseNames.entrySet()) {
+                names.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+                size += Integer.BYTES * 2 + names.get(entry.getKey()).length;
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(MAGIC).putInt(VERSION).putLong(closed).putInt(term.length).put(term);
+            out.putInt(graded).putLong(sum);
+            out.putInt(rows == 0 ? -1 : students[order[0]]).putInt(rows == 0 ? -1 : students[order[rows - 1]]);
+            out.putInt(names.size());
+            for (Map.Entry<Integer, byte[]> entry : names.entrySet()) {
+                out.putInt(entry.getKey()).putInt(entry.getValue().length).put(entry.getValue());
+            }
+            out.putInt(rows);
+            out.asIntBuffer().put(permute(students, order)).put(permute(courses, order))
+                    .put(permute(grades, order)).put(courseOrder);
+            out.position(out.capacity()).flip();
+
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Row numbers ordered by primary, then secondary (if any), then row
+        private int[] sortedRows(int[] primary, int[] secondary) {
+            long[] keys = new long[rows];
+            for (int row = 0; row < rows; row++) {
+                keys[row] = (long) primary[row] << 32 | row;
+            }
+            Arrays.sort(keys);
+            int[] order = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                order[i] = (int) keys[i];
+            }
+            if (secondary == null) {
+                return order;
+            }
+            // Runs of equal primary are short (one student's courses)
+            for (int start = 0, end; start < rows; start = end) {
+                end = start + 1;
+                while (end < rows && primary[order[end]] == primary[order[start]]) {
+                    end++;
+                }
+                for (int i = start + 1; i < end; i++) {
+                    int row = order[i];
+                    int j = i - 1;
+                    while (j >= start && secondary[order[j]] > secondary[row]) {
+                        order[j + 1] = order[j];
+                        j--;
+                    }
+                    order[j + 1] = row;
+                }
+            }
+            return order;
+        }
+
+        private static int[] permute(int[] column, int[] order) {
+            int[] result = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                result[i] = column[order[i]];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// TimetableBenchmark class
+// Timetables a term of sections with TimetableSolver, once per pool size, and
+// checks every solution: no room and no student or teacher is booked twice at
+// once. Students take their courses within a program of 10 sections, as they
+// mostly do, and teachers teach anywhere.
+//
+//   java TimetableBenchmark [sections] [students] [courses per student] [pool sizes...]
+public class TimetableBenchmark {
+    static final int PROGRAM_SECTIONS = 10;
+    static final int SECTIONS_PER_TEACHER = 4;
+
+    public static void main(String[] args) throws Exception {
+        Credentials.setIterations(1);
+        int sectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int studentCount = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int perStudent = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int[] poolSizes = args.length > 3
+                ? Arrays.stream(args, 3, args.length).mapToInt(Integer::parseInt).toArray()
+                : defaultPoolSizes();
+
+        Admin admin = new Admin();
+        Output.bind(new Render(OutputStream.nullOutputStream()));
+        for (int i = 0; i < sectionCount; i++) {
+            admin.addCourse("Section " + i);
+        }
+        Course[] sections = admin.courses.toArray(new Course[0]);
+        Random random = new Random(7);
+        for (int i = 0; i < studentCount; i++) {
+            Student student = admin.addStudent("Student " + i, "s" + i, "pw");
+            int program = random.nextInt(Math.max(1, sectionCount / PROGRAM_SECTIONS)) * PROGRAM_SECTIONS;
+            for (int k = 0; k < perStudent; k++) {
+                student.admit(sections[Math.min(sectionCount - 1, program + random.nextInt(PROGRAM_SECTIONS))]);
+            }
+        }
+        for (int i = 0; i * SECTIONS_PER_TEACHER < sectionCount; i++) {
+            Teacher teacher = admin.addTeacher("Teacher " + i, "t" + i, "pw");
+            for (int k = 0; k < SECTIONS_PER_TEACHER; k++) {
+                teacher.assign(sections[random.nextInt(sectionCount)]);
+            }
+        }
+        Output.unbind();
+        List<TimetableSolver.Room> rooms = rooms(sectionCount);
+
+        for (int poolSize : poolSizes) {
+            try (TimetableSolver solver = new TimetableSolver(poolSize)) {
+                TimetableSolver.Result result = solver.solve(admin, rooms);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    result = solver.solve(admin, rooms);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                check(admin, result);
+                int scheduled = result.size() - result.getUnscheduled().size();
+                System.out.printf("pool %2d: %d of %d sections placed in %d rooms in %.3f s%n",
+                        poolSize, scheduled, result.size(), rooms.size(), best / 1e9);
+            }
+        }
+        try (TimetableSolver solver = new TimetableSolver()) {
+            TimetableSolver.Result result = solver.solve(admin, rooms);
+            long start = System.nanoTime();
+            int scheduled = admin.applyTimetable(result);
+            System.out.printf("applied %d sections in %.3f s%n", scheduled, (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    // A room per 12 sections, about 3 in 4 small, 1 in 5 medium, the rest large
+    private static List<TimetableSolver.Room> rooms(int sectionCount) {
+        List<TimetableSolver.Room> rooms = new ArrayList<>();
+        int count = Math.max(1, sectionCount / 12);
+        for (int i = 0; i < count; i++) {
+            int seats = i % 20 == 0 ? 250 : i % 5 == 1 ? 120 : 60;
+            rooms.add(new TimetableSolver.Room("R" + i, seats));
+        }
+        return rooms;
+    }
+
+    // Books every placement into per-room and per-user indexes, failing on
+    // the first double booking. The solver puts all of a section's meetings
+    // in one room.
+    private static void check(Admin admin, TimetableSolver.Result result) {
+        Map<String, IntervalIndex<Course>> byRoom = new HashMap<>();
+        Map<Course, List<Meeting>> placed = new HashMap<>();
+        for (int i = 0; i < result.size(); i++) {
+            List<Meeting> meetings = result.meetings(i);
+            placed.put(result.course(i), meetings);
+            if (meetings.isEmpty()) {
+                continue;
+            }
+            String room = meetings.get(0).getRoom();
+            IntervalIndex<Course> booked = byRoom.getOrDefault(room, IntervalIndex.empty());
+            if (booked.conflict(meetings) != null) {
+                throw new IllegalStateException("Room " + room + " booked twice");
+            }
+            byRoom.put(room, booked.with(result.course(i), meetings));
+        }
+        List<User> users = new ArrayList<>(admin.students);
+        users.addAll(admin.teachers);
+        for (User user : users) {
+            IntervalIndex<Course> week = IntervalIndex.empty();
+            for (Course course : user.getCourses()) {
+                List<Meeting> meetings = placed.getOrDefault(course, List.of());
+                if (week.conflict(meetings) != null) {
+                    throw new IllegalStateException(user.getUsername() + " is booked twice");
+                }
+                week = week.with(course, meetings);
+            }
+        }
+    }
+
+    private static int[] defaultPoolSizes() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int n = 0;
+        int[] sizes = new int[32];
+        for (int size = 1; size < cores; size <<= 1) {
+            sizes[n++] = size;
+        }
+        sizes[n++] = cores;
+        return Arrays.copyOf(sizes, n);
+    }
+}
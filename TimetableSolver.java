@@ -0,0 +1,575 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// TimetableSolver class
+// Places a whole term's courses into weekly slots and rooms, so that no two
+// courses sharing a student (enrolled or waitlisted) or a teacher meet at the
+// same time and no room holds two courses at once. It is graph colouring:
+// courses are vertices, shared people are edges, slots are colours.
+//
+//   1. Edges are collected from every user's courses, a block of users per
+//      task, then grouped per course and de-duplicated, a range per task.
+//   2. Courses pick slots in parallel, speculatively: each takes the least
+//      used slot its already placed neighbours leave free and that still has
+//      a room big enough (see Rooms). Clashes between courses placed in the
+//      same round are then found in parallel; the lower-ranked course gives
+//      its slot back and retries next round. Ranks put courses that need the
+//      bigger rooms first, then the most connected ones. The best-ranked
+//      course of a round always keeps its slot, so the rounds end.
+//   3. Courses left without a slot get one more, exact try, in rank order.
+//   4. Rooms are handed out per slot in parallel, biggest course first.
+//
+// Enrollments are read live; changes made while solving are not reflected,
+// but Student.admit and Teacher.assign still check conflicts afterwards.
+class TimetableSolver implements AutoCloseable {
+    // Users per block of edges, and courses per task
+    static final int BLOCK = 1024;
+    static final int GRAIN = 256;
+
+    private final ForkJoinPool pool;
+
+    public TimetableSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TimetableSolver(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    // A bookable room
+    static final class Room {
+        final String name;
+        final int seats;
+
+        Room(String name, int seats) {
+            if (seats <= 0) {
+                throw new IllegalArgumentException("Invalid seats for " + name + ": " + seats);
+            }
+            this.name = name;
+            this.seats = seats;
+        }
+
+        // "R101:40"
+        static Room parse(String text) {
+            int colon = text.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected \"ROOM:SEATS\": " + text.trim());
+            }
+            try {
+                return new Room(text.substring(0, colon).trim(), Integer.parseInt(text.substring(colon + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected \"ROOM:SEATS\": " + text.trim());
+            }
+        }
+    }
+
+    // The same times on a set of days, e.g. Mon/Wed/Fri 09:00-09:50
+    static final class Slot {
+        final int[] days;
+        final int start;
+        final int end;
+
+        Slot(int[] days, int start, int end) {
+            this.days = days.clone();
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean overlaps(Slot other) {
+            if (start >= other.end || other.start >= end) {
+                return false;
+            }
+            for (int day : days) {
+                for (int otherDay : other.days) {
+                    if (day == otherDay) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        List<Meeting> meetings(String room) {
+            List<Meeting> meetings = new ArrayList<>(days.length);
+            for (int day : days) {
+                meetings.add(new Meeting(day, start, end, room));
+            }
+            return Collections.unmodifiableList(meetings);
+        }
+    }
+
+    // Mon/Wed/Fri hours from 08:00 to 16:50 and Tue/Thu blocks of 75 minutes
+    // from 08:00 to 16:45: 15 slots that never overlap
+    static List<Slot> standardSlots() {
+        List<Slot> slots = new ArrayList<>();
+        for (int hour = 8; hour <= 16; hour++) {
+            slots.add(new Slot(new int[] {0, 2, 4}, hour * 60, hour * 60 + 50));
+        }
+        for (int start = 8 * 60; start <= 15 * 60 + 30; start += 90) {
+            slots.add(new Slot(new int[] {1, 3}, start, start + 75));
+        }
+        return slots;
+    }
+
+    // Where each course went; slot -1 if it could not be placed
+    static final class Result {
+        private final Course[] courses;
+        private final int[] slot;
+        private final String[] room;
+        private final List<Slot> slots;
+
+        Result(Course[] courses, int[] slot, String[] room, List<Slot> slots) {
+            this.courses = courses;
+            this.slot = slot;
+            this.room = room;
+            this.slots = slots;
+        }
+
+        public int size() {
+            return courses.length;
+        }
+
+        public Course course(int i) {
+            return courses[i];
+        }
+
+        public boolean isScheduled(int i) {
+            return slot[i] >= 0;
+        }
+
+        // The course's new meetings; empty if it was not placed
+        public List<Meeting> meetings(int i) {
+            return slot[i] < 0 ? List.of() : slots.get(slot[i]).meetings(room[i]);
+        }
+
+        public List<Course> getUnscheduled() {
+            List<Course> unscheduled = new ArrayList<>();
+            for (int i = 0; i < courses.length; i++) {
+                if (slot[i] < 0) {
+                    unscheduled.add(courses[i]);
+                }
+            }
+            return unscheduled;
+        }
+    }
+
+    // Solves every course of admin over the standard slots
+    public Result solve(Admin admin, List<Room> rooms) {
+        return solve(admin, admin.courses, rooms, standardSlots());
+    }
+
+    public Result solve(Admin admin, Collection<Course> courseList, List<Room> rooms, List<Slot> slots) {
+        Course[] courses = courseList.toArray(new Course[0]);
+        int n = courses.length;
+        int[] indexById = new int[admin.getNextCourseId()];
+        Arrays.fill(indexById, -1);
+        for (int i = 0; i < n; i++) {
+            if (courses[i].getId() < indexById.length) {
+                indexById[courses[i].getId()] = i;
+            }
+        }
+        Rooms roomSet = new Rooms(rooms, slots.size());
+        int[] need = new int[n];
+        for (int i = 0; i < n; i++) {
+            int capacity = courses[i].getCapacity();
+            need[i] = Math.max(courses[i].getStudents().size(), capacity == Course.UNLIMITED ? 0 : capacity);
+        }
+
+        Graph graph = buildGraph(admin, indexById, n);
+        boolean[][] clashes = new boolean[slots.size()][slots.size()];
+        for (int s = 0; s < slots.size(); s++) {
+            for (int t = 0; t < slots.size(); t++) {
+                clashes[s][t] = slots.get(s).overlaps(slots.get(t));
+            }
+        }
+
+        // Rank order: bigger rooms first, then more neighbours
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] roomClass = new int[n];
+        for (int i = 0; i < n; i++) {
+            roomClass[i] = roomSet.classOf(need[i]);
+        }
+        Arrays.sort(order, (a, b) -> roomClass[a] != roomClass[b] ? Integer.compare(roomClass[a], roomClass[b])
+                : Integer.compare(graph.degree(b), graph.degree(a)));
+        int[] rank = new int[n];
+        int placeable = 0;
+        int[] work = new int[n];
+        for (int r = 0; r < n; r++) {
+            rank[order[r]] = r;
+            if (roomClass[order[r]] >= 0) {
+                work[placeable++] = order[r];
+            }
+        }
+
+        int[] slot = new int[n];
+        Arrays.fill(slot, -1);
+        Placement placement = new Placement(graph, clashes, roomSet, roomClass, rank, slot);
+        int[] pending = Arrays.copyOf(work, placeable);
+        while (pending.length > 0) {
+            int[] round = pending;
+            boolean[] lost = new boolean[round.length];
+            forEach(round.length, GRAIN, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    placement.place(round[i]);
+                }
+            });
+            forEach(round.length, GRAIN, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    lost[i] = placement.losesClash(round[i]);
+                }
+            });
+            int retry = 0;
+            for (int i = 0; i < round.length; i++) {
+                if (lost[i]) {
+                    placement.release(round[i]);
+                    round[retry++] = round[i];
+                }
+            }
+            pending = Arrays.copyOf(round, retry);
+        }
+        // Courses that found no free slot while their neighbours were still
+        // moving; in rank order with nothing else changing, so exact
+        for (int i = 0; i < placeable; i++) {
+            if (slot[work[i]] < 0) {
+                placement.place(work[i]);
+            }
+        }
+
+        String[] room = new String[n];
+        int[][] bySlot = bucket(slot, slots.size());
+        forEach(bySlot.length, 1, (from, to) -> {
+            for (int s = from; s < to; s++) {
+                roomSet.assign(bySlot[s], need, room);
+            }
+        });
+        return new Result(courses, slot, room, slots);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // Course adjacency in compressed rows: neighbours of v are
+    // adjacency[offsets[v] .. offsets[v] + degrees[v])
+    private static final class Graph {
+        final int[] offsets;
+        final int[] degrees;
+        final int[] adjacency;
+
+        Graph(int[] offsets, int[] degrees, int[] adjacency) {
+            this.offsets = offsets;
+            this.degrees = degrees;
+            this.adjacency = adjacency;
+        }
+
+        int degree(int v) {
+            return degrees[v];
+        }
+    }
+
+    private Graph buildGraph(Admin admin, int[] indexById, int n) {
+        List<User> userList = new ArrayList<>(admin.students);
+        userList.addAll(admin.teachers);
+        User[] users = userList.toArray(new User[0]);
+        long[][] pairs = new long[(users.length + BLOCK - 1) / BLOCK][];
+        forEach(pairs.length, 1, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                pairs[b] = pairs(users, b * BLOCK, Math.min(users.length, (b + 1) * BLOCK), indexById);
+            }
+        });
+
+        // Each pair is an edge both ways; duplicates go in the next step
+        int[] offsets = new int[n + 1];
+        for (long[] block : pairs) {
+            for (int i = 1; i < (int) block[0]; i++) {
+                offsets[(int) (block[i] >>> 32) + 1]++;
+                offsets[(int) block[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] adjacency = new int[offsets[n]];
+        int[] degrees = new int[n];
+        for (long[] block : pairs) {
+            for (int i = 1; i < (int) block[0]; i++) {
+                int a = (int) (block[i] >>> 32);
+                int b = (int) block[i];
+                adjacency[offsets[a] + degrees[a]++] = b;
+                adjacency[offsets[b] + degrees[b]++] = a;
+            }
+        }
+        forEach(n, GRAIN, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                int start = offsets[v];
+                Arrays.sort(adjacency, start, start + degrees[v]);
+                int kept = 0;
+                for (int i = 0; i < degrees[v]; i++) {
+                    if (kept == 0 || adjacency[start + i] != adjacency[start + kept - 1]) {
+                        adjacency[start + kept++] = adjacency[start + i];
+                    }
+                }
+                degrees[v] = kept;
+            }
+        });
+        return new Graph(offsets, degrees, adjacency);
+    }
+
+    // Course pairs shared by users[from, to) as (a << 32 | b), a < b; [0] holds the used length
+    private static long[] pairs(User[] users, int from, int to, int[] indexById) {
+        long[] out = new long[64];
+        int size = 1;
+        int[] held = new int[16];
+        for (int u = from; u < to; u++) {
+            User user = users[u];
+            int count = 0;
+            Collection<Course> waitlisted = user instanceof Student ? ((Student) user).getWaitlisted() : List.of();
+            for (Collection<Course> courses : List.of(user.getCourses(), waitlisted)) {
+                for (Course course : courses) {
+                    int id = course.getId();
+                    int index = id < indexById.length ? indexById[id] : -1;
+                    if (index >= 0) {
+                        held = count == held.length ? Arrays.copyOf(held, count * 2) : held;
+                        held[count++] = index;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                for (int j = i + 1; j < count; j++) {
+                    if (held[i] == held[j]) {
+                        continue;
+                    }
+                    out = size == out.length ? Arrays.copyOf(out, size * 2) : out;
+                    int a = Math.min(held[i], held[j]);
+                    int b = Math.max(held[i], held[j]);
+                    out[size++] = (long) a << 32 | b;
+                }
+            }
+        }
+        out[0] = size;
+        return out;
+    }
+
+    // Slot choice for one course at a time; several run at once during a round
+    private static final class Placement {
+        final Graph graph;
+        final boolean[][] clashes;
+        final Rooms rooms;
+        final int[] roomClass;
+        final int[] rank;
+        // Written by the course's own task and read by its neighbours'. Reads
+        // within a round may be stale, which only costs a retry; the rounds
+        // and the final pass are separated by joins.
+        final int[] slot;
+
+        Placement(Graph graph, boolean[][] clashes, Rooms rooms, int[] roomClass, int[] rank, int[] slot) {
+            this.graph = graph;
+            this.clashes = clashes;
+            this.rooms = rooms;
+            this.roomClass = roomClass;
+            this.rank = rank;
+            this.slot = slot;
+        }
+
+        // Takes the least used slot no neighbour clashes with that has a room
+        // left; slot stays -1 if there is none
+        void place(int v) {
+            int slots = clashes.length;
+            boolean[] blocked = new boolean[slots];
+            for (int i = graph.offsets[v], end = i + graph.degrees[v]; i < end; i++) {
+                int taken = slot[graph.adjacency[i]];
+                if (taken >= 0) {
+                    boolean[] row = clashes[taken];
+                    for (int s = 0; s < slots; s++) {
+                        blocked[s] |= row[s];
+                    }
+                }
+            }
+            while (true) {
+                int best = -1;
+                for (int s = 0; s < slots; s++) {
+                    if (!blocked[s] && (best < 0 || rooms.used(s) < rooms.used(best))) {
+                        best = s;
+                    }
+                }
+                if (best < 0) {
+                    return;
+                }
+                if (rooms.reserve(best, roomClass[v])) {
+                    slot[v] = best;
+                    return;
+                }
+                blocked[best] = true;
+            }
+        }
+
+        // True if a better-ranked neighbour took a clashing slot in the same round
+        boolean losesClash(int v) {
+            int mine = slot[v];
+            if (mine < 0) {
+                return false;
+            }
+            for (int i = graph.offsets[v], end = i + graph.degrees[v]; i < end; i++) {
+                int u = graph.adjacency[i];
+                int theirs = slot[u];
+                if (theirs >= 0 && clashes[mine][theirs] && rank[u] < rank[v]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void release(int v) {
+            rooms.release(slot[v], roomClass[v]);
+            slot[v] = -1;
+        }
+    }
+
+    // Room capacity per slot. Seat counts are grouped into classes, biggest
+    // first, and a course's class is the smallest room size that fits it. A
+    // slot can take a set of courses exactly when, for every class, the
+    // courses of that class or bigger number no more than the rooms of that
+    // size or bigger; then biggest-course-to-biggest-room always works.
+    private static final class Rooms {
+        final Room[] rooms;
+        // Distinct seat counts, descending, and how many rooms have at least each
+        final int[] sizes;
+        final int[] atLeast;
+        // Per slot: courses of each class or bigger; guarded by the row
+        final int[][] used;
+
+        Rooms(List<Room> roomList, int slots) {
+            rooms = roomList.toArray(new Room[0]);
+            Arrays.sort(rooms, (a, b) -> Integer.compare(b.seats, a.seats));
+            int[] distinct = new int[rooms.length];
+            int[] counts = new int[rooms.length];
+            int m = 0;
+            for (int i = 0; i < rooms.length; i++) {
+                if (m == 0 || distinct[m - 1] != rooms[i].seats) {
+                    distinct[m++] = rooms[i].seats;
+                }
+                counts[m - 1] = i + 1;
+            }
+            sizes = Arrays.copyOf(distinct, m);
+            atLeast = Arrays.copyOf(counts, m);
+            used = new int[slots][m];
+        }
+
+        // -1 if no room is big enough
+        int classOf(int need) {
+            int c = -1;
+            for (int j = 0; j < sizes.length && sizes[j] >= need; j++) {
+                c = j;
+            }
+            return c;
+        }
+
+        // Courses placed in the slot; racy, for balancing only
+        int used(int slot) {
+            int[] row = used[slot];
+            return row.length == 0 ? 0 : row[row.length - 1];
+        }
+
+        boolean reserve(int slot, int roomClass) {
+            int[] row = used[slot];
+            synchronized (row) {
+                for (int j = roomClass; j < row.length; j++) {
+                    if (row[j] >= atLeast[j]) {
+                        return false;
+                    }
+                }
+                for (int j = roomClass; j < row.length; j++) {
+                    row[j]++;
+                }
+                return true;
+            }
+        }
+
+        void release(int slot, int roomClass) {
+            int[] row = used[slot];
+            synchronized (row) {
+                for (int j = roomClass; j < row.length; j++) {
+                    row[j]--;
+                }
+            }
+        }
+
+        // Rooms for one slot's courses
+        void assign(int[] courses, int[] need, String[] room) {
+            Integer[] byNeed = new Integer[courses.length];
+            for (int i = 0; i < courses.length; i++) {
+                byNeed[i] = courses[i];
+            }
+            Arrays.sort(byNeed, (a, b) -> Integer.compare(need[b], need[a]));
+            for (int i = 0; i < byNeed.length; i++) {
+                room[byNeed[i]] = rooms[i].name;
+            }
+        }
+    }
+
+    // Course indexes per slot
+    private static int[][] bucket(int[] slot, int slots) {
+        int[] counts = new int[slots];
+        for (int s : slot) {
+            if (s >= 0) {
+                counts[s]++;
+            }
+        }
+        int[][] buckets = new int[slots][];
+        for (int s = 0; s < slots; s++) {
+            buckets[s] = new int[counts[s]];
+            counts[s] = 0;
+        }
+        for (int v = 0; v < slot.length; v++) {
+            if (slot[v] >= 0) {
+                buckets[slot[v]][counts[slot[v]]++] = v;
+            }
+        }
+        return buckets;
+    }
+
+    // Work over the index range [from, to)
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    // Runs body over [0, n) on the pool, at most grain indexes per task
+    private void forEach(int n, int grain, Range body) {
+        if (n > 0) {
+            pool.invoke(new RangeTask(body, grain, 0, n));
+        }
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private final Range body;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        RangeTask(Range body, int grain, int from, int to) {
+            this.body = body;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(body, grain, from, middle), new RangeTask(body, grain, middle, to));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// UserRegistry class
+// Hash indexes over every account, keyed by username and by normalized name,
+// so lookups and uniqueness checks do not scan the student and teacher lists.
+// Claiming a username is a single putIfAbsent, so concurrent sign-ups race safely.
+class UserRegistry {
+    private final Map<String, User> byUsername;
+    private final Map<String, List<User>> byName;
+    private final Map<Integer, User> byId;
+
+    public UserRegistry() {
+        this.byUsername = new ConcurrentHashMap<>();
+        this.byName = new ConcurrentHashMap<>();
+        this.byId = new ConcurrentHashMap<>();
+    }
+
+    public boolean contains(String username) {
+        return byUsername.containsKey(username);
+    }
+
+    public User get(String username) {
+        return byUsername.get(username);
+    }
+
+    public User get(int id) {
+        return byId.get(id);
+    }
+
+    public List<User> findByName(String name) {
+        List<User> users = byName.get(normalize(name));
+        return users == null ? Collections.emptyList() : users;
+    }
+
+    // Returns false without touching the indexes when the username is taken
+    public boolean add(User user) {
+        if (byUsername.putIfAbsent(user.getUsername(), user) != null) {
+            return false;
+        }
+        // Name buckets are tiny immutable lists replaced wholesale, so readers
+        // never see one mid-update
+        byName.merge(normalize(user.getName()), List.of(user), (current, added) -> {
+            List<User> users = new ArrayList<>(current);
+            users.add(user);
+            return List.copyOf(users);
+        });
+        byId.put(user.getId(), user);
+        return true;
+    }
+
+    public void remove(User user) {
+        if (!byUsername.remove(user.getUsername(), user)) {
+            return;
+        }
+        byId.remove(user.getId());
+        byName.computeIfPresent(normalize(user.getName()), (key, current) -> {
+            List<User> users = new ArrayList<>(current);
+            users.remove(user);
+            return users.isEmpty() ? null : List.copyOf(users);
+        });
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    // Case-folds and collapses runs of whitespace so "john  DOE " matches "John Doe"
+    static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,97 @@
+import java.lang.invoke.VarHandle;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Versions class
+// Fork-on-write history of one object's state for PointInTime views. The
+// owner calls beforeWrite() with the monitor that guards the state held,
+// before changing it. The first write of a new epoch freezes the state it is
+// about to replace, but only if an open view falls in the epochs that state
+// covered; with no views open nothing is copied. Frozen states no open view
+// can reach are dropped at the next fork, and a closed view holds nothing.
+//
+// read() is a seqlock-style read: when nothing was written since the view's
+// epoch it reads the live object and then checks that no write began
+// meanwhile; otherwise it reads the frozen state covering the view.
+final class Versions<S> {
+    // The state of an owner, copied with its monitor held
+    interface Owner<S> {
+        S freeze();
+    }
+
+    private static final class Frozen<S> {
+        final S state;
+        // Covers views in (from, until]
+        final long from;
+        final long until;
+        final Frozen<S> older;
+
+        Frozen(S state, long from, long until, Frozen<S> older) {
+            this.state = state;
+            this.from = from;
+            this.until = until;
+            this.older = older;
+        }
+    }
+
+    private volatile long created;
+    // Tag of the newest write
+    private volatile long modified;
+    // Newest first; replaced before modified moves on
+    private volatile Frozen<S> history;
+
+    // Loaded and restored objects exist in every epoch
+    void created(long epoch) {
+        created = epoch;
+        modified = epoch;
+    }
+
+    // True if the owner was published before a view at epoch
+    boolean existsAt(long epoch) {
+        return created < epoch;
+    }
+
+    void beforeWrite(Owner<S> owner) {
+        long epoch = Epochs.writeEpoch();
+        long last = modified;
+        if (last >= epoch) {
+            return;
+        }
+        long oldest = Epochs.oldest();
+        Frozen<S> kept = prune(history, oldest);
+        if (Epochs.needed(last, epoch)) {
+            kept = new Frozen<>(owner.freeze(), last, epoch, kept);
+        }
+        history = kept;
+        modified = epoch;
+        // Readers that see any of the write below must also see modified
+        VarHandle.storeStoreFence();
+    }
+
+    // The owner as of a view at epoch: live reads through live, frozen ones through frozen
+    <R> R read(long epoch, Supplier<R> live, Function<S, R> frozen) {
+        long last = modified;
+        if (last < epoch) {
+            R result = live.get();
+            VarHandle.loadLoadFence();
+            if (modified == last) {
+                return result;
+            }
+        }
+        for (Frozen<S> f = history; f != null; f = f.older) {
+            if (f.from < epoch && epoch <= f.until) {
+                return frozen.apply(f.state);
+            }
+        }
+        throw new IllegalStateException("No state kept for epoch " + epoch);
+    }
+
+    // Drops the frozen states no open view reaches; newest first, so they are a suffix
+    private static <S> Frozen<S> prune(Frozen<S> history, long oldest) {
+        if (history == null || history.until < oldest) {
+            return null;
+        }
+        Frozen<S> older = prune(history.older, oldest);
+        return older == history.older ? history : new Frozen<>(history.state, history.from, history.until, older);
+    }
+}
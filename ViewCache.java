@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// ViewCache class
+// Bounded cache of rendered listings: the course catalogue, course rosters
+// and student transcripts, which sessions print far more often than they
+// change. A view is cached with the generation of the object it was built
+// from (Admin.catalogueGeneration, Course.getRosterGeneration,
+// User.getViewGeneration). Writers bump the generation after each change a
+// view shows, and a lookup that finds an older generation rebuilds. Nothing
+// is invalidated by hand, and a view built while a change was under way
+// carries the generation from before it, so the next lookup rebuilds it too.
+//
+// Eviction is a segmented LRU weighed in characters. New views enter a
+// probation tier, a second hit moves them to the protected tier (up to 80%
+// of the budget), and the least recently used probation view goes first. A
+// burst of views read once, like an admin paging through every roster, only
+// cycles through probation and leaves the catalogue alone. One lock guards
+// both tiers; it is held for a map lookup, while the view is built and
+// printed outside it.
+//
+// The budget is -Dsms.viewcache.chars (DEFAULT_CHARS); 0 turns caching off.
+// Hits, misses and evictions are counted under "viewcache." in Metrics.
+final class ViewCache {
+    enum Kind { CATALOGUE, ROSTER, TRANSCRIPT }
+
+    // About 8 MB of text
+    static final long DEFAULT_CHARS = 4L << 20;
+
+    // Share of a segment's budget the protected tier may fill
+    private static final int PROTECTED_PERCENT = 80;
+    // Rough cost of a view and of each line beyond their text, in chars
+    private static final int VIEW_OVERHEAD = 48;
+    private static final int LINE_OVERHEAD = 24;
+
+    private static final Metrics.Counter HITS = Metrics.counter("viewcache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("viewcache.misses");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("viewcache.evictions");
+
+    private static final ViewCache SHARED = new ViewCache(Long.getLong("sms.viewcache.chars", DEFAULT_CHARS));
+
+    private final Tiers tiers;
+    private final boolean enabled;
+
+    ViewCache(long budget) {
+        this.enabled = budget > 0;
+        this.tiers = new Tiers(Math.max(0, budget));
+    }
+
+    static ViewCache shared() {
+        return SHARED;
+    }
+
+    // A rendered listing: header, one line per item and footer (either may
+    // be null). Immutable, so sessions print the same instance at once.
+    static final class View {
+        private final String header;
+        private final List<String> lines;
+        private final String footer;
+        private final long weight;
+
+        private View(String header, List<String> lines, String footer) {
+            this.header = header;
+            this.lines = lines;
+            this.footer = footer;
+            long chars = VIEW_OVERHEAD + length(header) + length(footer);
+            for (String line : lines) {
+                chars += LINE_OVERHEAD + line.length();
+            }
+            this.weight = chars;
+        }
+
+        // Pages like any other listing (see Render.list)
+        public void print(Render out) {
+            out.list(header, lines, (line, page) -> page.print(line), footer);
+        }
+
+        public int size() {
+            return lines.size();
+        }
+
+        long weight() {
+            return weight;
+        }
+
+        private static int length(String text) {
+            return text == null ? 0 : text.length();
+        }
+    }
+
+    // Renders each item once through item, as Render.list would print it
+    static <T> View render(CharSequence header, Iterable<T> items, Render.Item<T> item, CharSequence footer) {
+        StringBuilder line = new StringBuilder();
+        Render scratch = new Render(line::append);
+        List<String> lines = new ArrayList<>();
+        for (T t : items) {
+            item.render(t, scratch);
+            scratch.flush();
+            lines.add(line.toString());
+            line.setLength(0);
+        }
+        return new View(header == null ? null : header.toString(), Collections.unmodifiableList(lines),
+                footer == null ? null : footer.toString());
+    }
+
+    // The view of kind for owner as of generation, built on a miss. The
+    // generation must be read before anything build reads, which argument
+    // order gives: get(kind, owner, owner.getXGeneration(), () -> ...).
+    public View get(Kind kind, Object owner, long generation, Supplier<View> build) {
+        if (!enabled) {
+            return build.get();
+        }
+        Key key = new Key(kind, owner);
+        View view = tiers.get(key, generation);
+        if (view != null) {
+            HITS.increment();
+            return view;
+        }
+        MISSES.increment();
+        view = build.get();
+        tiers.put(key, generation, view);
+        return view;
+    }
+
+    public int getEntryCount() {
+        return tiers.entryCount();
+    }
+
+    // Cached text and overhead, in chars
+    public long getWeight() {
+        return tiers.weight();
+    }
+
+    // Owners compare by identity
+    private static final class Key {
+        final Kind kind;
+        final Object owner;
+
+        Key(Kind kind, Object owner) {
+            this.kind = kind;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).kind == kind && ((Key) other).owner == owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(owner) * 31 + kind.ordinal();
+        }
+    }
+
+    private static final class Entry {
+        final View view;
+        final long generation;
+
+        Entry(View view, long generation) {
+            this.view = view;
+            this.generation = generation;
+        }
+    }
+
+    // Both tiers are access-ordered, least recently used first
+    private static final class Tiers {
+        private final long budget;
+        private final long protectedBudget;
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protectedTier = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationWeight;
+        private long protectedWeight;
+
+        Tiers(long budget) {
+            this.budget = budget;
+            this.protectedBudget = budget * PROTECTED_PERCENT / 100;
+        }
+
+        synchronized View get(Key key, long generation) {
+            Entry entry = protectedTier.get(key);
+            if (entry == null) {
+                entry = probation.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.generation != generation) {
+                    return stale(key, entry, generation);
+                }
+                // Second hit: promote, and demote the protected tier's oldest to make room
+                probation.remove(key);
+                probationWeight -= entry.view.weight();
+                protectedTier.put(key, entry);
+                protectedWeight += entry.view.weight();
+                demote();
+                return entry.view;
+            }
+            return entry.generation == generation ? entry.view : stale(key, entry, generation);
+        }
+
+        synchronized void put(Key key, long generation, View view) {
+            // A reader that started before a change must not replace a newer view
+            Entry old = protectedTier.containsKey(key) ? protectedTier.get(key) : probation.get(key);
+            if (old != null && old.generation > generation) {
+                return;
+            }
+            remove(key);
+            if (view.weight() > budget) {
+                return;
+            }
+            add(probation, key, new Entry(view, generation));
+            evict();
+        }
+
+        synchronized int entryCount() {
+            return probation.size() + protectedTier.size();
+        }
+
+        synchronized long weight() {
+            return probationWeight + protectedWeight;
+        }
+
+        // An entry built before the last change is dropped; one newer than
+        // the caller's generation is kept for readers that come after it
+        private View stale(Key key, Entry entry, long generation) {
+            if (entry.generation < generation) {
+                remove(key);
+            }
+            return null;
+        }
+
+        private void add(LinkedHashMap<Key, Entry> tier, Key key, Entry entry) {
+            tier.put(key, entry);
+            if (tier == probation) {
+                probationWeight += entry.view.weight();
+            } else {
+                protectedWeight += entry.view.weight();
+            }
+        }
+
+        private Entry remove(Key key) {
+            Entry entry = probation.remove(key);
+            if (entry != null) {
+                probationWeight -= entry.view.weight();
+                return entry;
+            }
+            entry = protectedTier.remove(key);
+            if (entry != null) {
+                protectedWeight -= entry.view.weight();
+            }
+            return entry;
+        }
+
+        // Moves the protected tier's least recently used views back to probation
+        private void demote() {
+            Iterator<Map.Entry<Key, Entry>> oldest = protectedTier.entrySet().iterator();
+            while (protectedWeight > protectedBudget && oldest.hasNext()) {
+                Map.Entry<Key, Entry> next = oldest.next();
+                oldest.remove();
+                protectedWeight -= next.getValue().view.weight();
+                add(probation, next.getKey(), next.getValue());
+            }
+        }
+
+        // Evicts from probation first, then from the protected tier
+        private void evict() {
+            evict(probation);
+            evict(protectedTier);
+        }
+
+        private void evict(LinkedHashMap<Key, Entry> tier) {
+            Iterator<Map.Entry<Key, Entry>> oldest = tier.entrySet().iterator();
+            while (probationWeight + protectedWeight > budget && oldest.hasNext()) {
+                Entry entry = oldest.next().getValue();
+                oldest.remove();
+                if (tier == probation) {
+                    probationWeight -= entry.view.weight();
+                } else {
+                    protectedWeight -= entry.view.weight();
+                }
+                EVICTIONS.increment();
+            }
+        }
+    }
+}